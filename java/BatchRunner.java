@@ -0,0 +1,513 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the menu operations of DBProject without the interactive prompts.
+ * Operations are read one per line from a file (or standard input) in the form
+ *
+ * <pre>
+ *    bookRoom id=4001 customer=12 hotel=381 room=5 date=2016-07-26 people=2 price=150.00
+ *    repairRequest manager=721 repair=1 date=2016-07-26 description="broken sink"
+ * </pre>
+ *
+ * Blank lines and lines starting with # are ignored.  Dates are yyyy-MM-dd and
+ * values containing spaces are double quoted.  The customers, rooms,
+ * repairs, assignments and repair requests are queued on the write batcher
+ * of DBProject, which writes them with multi-row statements (see
+ * WriteBatcher), unless -Ddbproject.batcher=false.  The other consecutive
+ * write operations are committed together in batches of dbproject.batch.size
+ * records (100 by default).  Either way, if any record of a batch fails the
+ * batch is rolled back and its records are retried one by one, so a bad
+ * record only fails itself.  Query operations are run on their own, once
+ * the writes before them are committed, and print their results to standard
+ * out.  A summary of throughput and failures is printed to standard error.
+ *
+ * The id of a new customer, company, repair, booking, assignment or request
+ * may be left out, in which case it is drawn from the id sequence of its
+ * table (see IdAllocator).  The parameters of each operation are:
+ *
+ * <pre>
+ *    addCustomer                          id fname lname address phone dob gender
+ *    addRoom                              hotel room type
+ *    addMaintenanceCompany                id name address certified
+ *    addRepair                            id hotel room company date description type
+ *    bookRoom                             id customer hotel room date people price
+ *    assignHouseCleaningToRoom            id staff hotel room
+ *    repairRequest                        id manager repair date description
+ *    numberOfAvailableRooms               hotel
+ *    numberOfBookedRooms                  hotel
+ *    listHotelRoomBookingsForAWeek        hotel date
+ *    topKHighestRoomPriceForADateRange    start end k
+ *    topKHighestPriceBookingsForACustomer customer k
+ *    totalCostForCustomer                 hotel customer start end
+ *    listRepairsMade                      company
+ *    topKMaintenanceCompany               k
+ *    numberOfRepairsForEachRoomPerYear    hotel room
+ *    hotelDashboard                       hotel date
+ * </pre>
+ *
+ */
+public class BatchRunner {
+
+   // operations that modify the database and can be committed in batches.
+   private static final Set<String> WRITES = new HashSet<String> (Arrays.asList (
+      "addCustomer", "addRoom", "addMaintenanceCompany", "addRepair",
+      "bookRoom", "assignHouseCleaningToRoom", "repairRequest"));
+
+   // write operations that can be queued on the write batcher.
+   private static final Set<String> BATCHED = new HashSet<String> (Arrays.asList (
+      "addCustomer", "addRoom", "addRepair", "assignHouseCleaningToRoom", "repairRequest"));
+
+   private final DBProject _esql;
+   private final int _batchSize;
+
+   // the write batcher, null when disabled.
+   private final WriteBatcher _batcher;
+
+   // write records waiting to be committed.
+   private final List<Record> _pending = new ArrayList<Record> ();
+
+   // records queued on the write batcher and their tickets, in input order.
+   private final Map<Record, Future<Void>> _queued = new LinkedHashMap<Record, Future<Void>> ();
+
+   // per operation counts of succeeded and failed records.
+   private final Map<String, int[]> _counts = new TreeMap<String, int[]> ();
+   private int _succeeded = 0;
+   private int _failed = 0;
+
+   BatchRunner (DBProject esql, int batchSize){
+      this._esql = esql;
+      this._batchSize = Math.max (1, batchSize);
+      this._batcher = Boolean.parseBoolean (System.getProperty ("dbproject.batcher", "true"))
+         ? esql.batcher () : null;
+   }//end BatchRunner
+
+   /**
+    * Connects to the database and runs every record of the source.
+    *
+    * @param dbname the name of the database
+    * @param dbport the port of the database server
+    * @param user the user name used to login to the database
+    * @param source a file name, or - for standard input
+    * @return the process exit status, 0 when every record succeeded
+    */
+   public static int run (String dbname, String dbport, String user, String source){
+      DBProject esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (dbname, dbport, user, "");
+         esql.loadOccupancy ();
+         esql.loadLeaderboard ();
+         esql.listenForChanges ();
+
+         BufferedReader reader = source.equals ("-")
+            ? new BufferedReader (new InputStreamReader (System.in))
+            : new BufferedReader (new FileReader (source));
+         try{
+            BatchRunner runner = new BatchRunner (esql, Integer.getInteger ("dbproject.batch.size", 100));
+            long start = System.nanoTime ();
+            runner.runAll (reader);
+            runner.printSummary (System.nanoTime () - start);
+            return runner._failed == 0 ? 0 : 1;
+         }finally{
+            reader.close ();
+         }//end try
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+         return 2;
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end run
+
+   /**
+    * Runs every record read from the reader.
+    *
+    * @param reader the source of the records
+    * @throws java.io.IOException when the source cannot be read
+    */
+   void runAll (BufferedReader reader) throws IOException {
+      String line;
+      int lineNo = 0;
+      while ((line = reader.readLine ()) != null){
+         ++lineNo;
+         String trimmed = line.trim ();
+         if (trimmed.length () == 0 || trimmed.startsWith ("#"))
+            continue;
+
+         Record r;
+         try{
+            r = Record.parse (lineNo, trimmed);
+         }catch (IllegalArgumentException e){
+            failed (new Record (lineNo, "?", new HashMap<String, String> ()), e);
+            continue;
+         }//end try
+
+         // keep the order of the input: the writes before a record are
+         // committed before it runs.
+         if (this._batcher != null && BATCHED.contains (r.op)){
+            flush ();
+            queue (r);
+         }else if (WRITES.contains (r.op)){
+            drain ();
+            this._pending.add (r);
+            if (this._pending.size () >= this._batchSize)
+               flush ();
+         }else{
+            flush ();
+            drain ();
+            runOne (r);
+         }//end if
+      }//end while
+      flush ();
+      drain ();
+   }//end runAll
+
+   /*
+    * Queues a write on the batcher, and reports the writes queued before it
+    * that are done.
+    */
+   private void queue (Record r){
+      try{
+         this._queued.put (r, submit (this._batcher, r));
+      }catch (Exception e){
+         failed (r, e);
+      }//end try
+      Iterator<Map.Entry<Record, Future<Void>>> it = this._queued.entrySet ().iterator ();
+      while (it.hasNext ()){
+         Map.Entry<Record, Future<Void>> e = it.next ();
+         if (!e.getValue ().isDone ())
+            break;
+         report (e.getKey (), e.getValue ());
+         it.remove ();
+      }//end while
+   }//end queue
+
+   /*
+    * Waits for the writes queued on the batcher.
+    */
+   private void drain (){
+      if (this._queued.isEmpty ()) return;
+      try{
+         this._batcher.flush ();
+      }catch (SQLException e){
+         // the tickets report it.
+      }//end try
+      for (Map.Entry<Record, Future<Void>> e : this._queued.entrySet ())
+         report (e.getKey (), e.getValue ());
+      this._queued.clear ();
+   }//end drain
+
+   private void report (Record r, Future<Void> ticket){
+      try{
+         WriteBatcher.get (ticket);
+         succeeded (r);
+      }catch (SQLException e){
+         failed (r, e);
+      }//end try
+   }//end report
+
+   /*
+    * Commits the pending writes as one transaction, falling back to one
+    * record at a time if any of them fails.
+    */
+   private void flush (){
+      if (this._pending.isEmpty ()) return;
+      try{
+         this._esql.begin ();
+         for (Record r : this._pending)
+            execute (this._esql, r);
+         this._esql.commit ();
+         for (Record r : this._pending)
+            succeeded (r);
+      }catch (Exception e){
+         this._esql.rollback ();
+         for (Record r : this._pending)
+            runOne (r);
+      }//end try
+      this._pending.clear ();
+   }//end flush
+
+   private void runOne (Record r){
+      try{
+         execute (this._esql, r);
+         succeeded (r);
+      }catch (Exception e){
+         failed (r, e);
+      }//end try
+   }//end runOne
+
+   private void succeeded (Record r){
+      ++this._succeeded;
+      counts (r.op)[0]++;
+   }//end succeeded
+
+   private void failed (Record r, Exception e){
+      ++this._failed;
+      counts (r.op)[1]++;
+      System.err.println ("line " + r.line + ": " + r.op + " failed: " + e.getMessage ());
+   }//end failed
+
+   private int[] counts (String op){
+      int[] c = this._counts.get (op);
+      if (c == null){
+         c = new int[2];
+         this._counts.put (op, c);
+      }//end if
+      return c;
+   }//end counts
+
+   private void printSummary (long elapsedNanos){
+      double seconds = elapsedNanos / 1e9;
+      int total = this._succeeded + this._failed;
+      System.err.println ();
+      System.err.println ("Batch summary");
+      System.err.println ("-------------");
+      for (Map.Entry<String, int[]> e : this._counts.entrySet ())
+         System.err.println (String.format ("%-38s %8d ok %8d failed", e.getKey (), e.getValue ()[0], e.getValue ()[1]));
+      System.err.println (String.format ("%d records, %d ok, %d failed in %.3f s (%.1f records/s)",
+            total, this._succeeded, this._failed, seconds, seconds > 0 ? total / seconds : 0.0));
+   }//end printSummary
+
+   /**
+    * Runs a single record through the matching DBProject operation.
+    *
+    * @param esql the database to run against
+    * @param r the record
+    * @return the number of rows printed by query operations, 0 for writes
+    * @throws java.sql.SQLException when the operation failed
+    * @throws IllegalArgumentException when the record is malformed
+    */
+   static int execute (DBProject esql, Record r) throws SQLException {
+      switch (r.op){
+         case "addCustomer":
+            DBProject.addCustomer (esql, r.id (esql, "Customer"), r.text ("fname", 30), r.text ("lname", 30),
+                  r.text ("address", -1), r.integer ("phone"), r.date ("dob"), r.gender ("gender"));
+            return 0;
+         case "addRoom":
+            DBProject.addRoom (esql, r.integer ("hotel"), r.integer ("room"), r.text ("type", 10));
+            return 0;
+         case "addMaintenanceCompany":
+            DBProject.addMaintenanceCompany (esql, r.id (esql, "MaintenanceCompany"), r.text ("name", 30),
+                  r.text ("address", -1), r.bool ("certified"));
+            return 0;
+         case "addRepair":
+            DBProject.addRepair (esql, r.id (esql, "Repair"), r.integer ("hotel"), r.integer ("room"),
+                  r.integer ("company"), r.date ("date"), r.text ("description", -1), r.text ("type", 10));
+            return 0;
+         case "bookRoom":
+            DBProject.bookRoom (esql, r.id (esql, "Booking"), r.integer ("customer"), r.integer ("hotel"),
+                  r.integer ("room"), r.date ("date"), r.integer ("people"), r.price ("price"));
+            return 0;
+         case "assignHouseCleaningToRoom":
+            DBProject.assignHouseCleaningToRoom (esql, r.id (esql, "Assigned"), r.integer ("staff"),
+                  r.integer ("hotel"), r.integer ("room"));
+            return 0;
+         case "repairRequest":
+            DBProject.repairRequest (esql, r.id (esql, "Request"), r.integer ("manager"), r.integer ("repair"),
+                  r.date ("date"), r.text ("description", -1));
+            return 0;
+         case "numberOfAvailableRooms":
+            return DBProject.numberOfAvailableRooms (esql, r.integer ("hotel"));
+         case "numberOfBookedRooms":
+            return DBProject.numberOfBookedRooms (esql, r.integer ("hotel"));
+         case "listHotelRoomBookingsForAWeek":
+            return DBProject.listHotelRoomBookingsForAWeek (esql, r.integer ("hotel"), r.date ("date"));
+         case "topKHighestRoomPriceForADateRange":
+            return DBProject.topKHighestRoomPriceForADateRange (esql, r.date ("start"), r.date ("end"), r.integer ("k"));
+         case "topKHighestPriceBookingsForACustomer":
+            return DBProject.topKHighestPriceBookingsForACustomer (esql, r.integer ("customer"), r.integer ("k"));
+         case "totalCostForCustomer":
+            return DBProject.totalCostForCustomer (esql, r.integer ("hotel"), r.integer ("customer"),
+                  r.date ("start"), r.date ("end"));
+         case "listRepairsMade":
+            return DBProject.listRepairsMade (esql, r.integer ("company"));
+         case "topKMaintenanceCompany":
+            return DBProject.topKMaintenanceCompany (esql, r.integer ("k"));
+         case "numberOfRepairsForEachRoomPerYear":
+            return DBProject.numberOfRepairsForEachRoomPerYear (esql, r.integer ("hotel"), r.integer ("room"));
+         case "hotelDashboard":
+            return DBProject.hotelDashboard (esql, r.integer ("hotel"), r.date ("date"), false);
+         default:
+            throw new IllegalArgumentException ("Unknown operation: " + r.op);
+      }//end switch
+   }//end execute
+
+   /**
+    * Queues a write record on the write batcher.
+    *
+    * @param batch the write batcher
+    * @param r the record, one of BATCHED
+    * @return the ticket of the row written
+    * @throws java.sql.SQLException when the record could not be queued
+    * @throws IllegalArgumentException when the record is malformed
+    */
+   static Future<Void> submit (WriteBatcher batch, Record r) throws SQLException {
+      DBProject esql = batch.esql ();
+      switch (r.op){
+         case "addCustomer":
+            return DBProject.addCustomer (batch, r.id (esql, "Customer"), r.text ("fname", 30), r.text ("lname", 30),
+                  r.text ("address", -1), r.integer ("phone"), r.date ("dob"), r.gender ("gender"));
+         case "addRoom":
+            return DBProject.addRoom (batch, r.integer ("hotel"), r.integer ("room"), r.text ("type", 10));
+         case "addRepair":
+            return DBProject.addRepair (batch, r.id (esql, "Repair"), r.integer ("hotel"), r.integer ("room"),
+                  r.integer ("company"), r.date ("date"), r.text ("description", -1), r.text ("type", 10));
+         case "assignHouseCleaningToRoom":
+            return DBProject.assignHouseCleaningToRoom (batch, r.id (esql, "Assigned"), r.integer ("staff"),
+                  r.integer ("hotel"), r.integer ("room"));
+         case "repairRequest":
+            return DBProject.repairRequest (batch, r.id (esql, "Request"), r.integer ("manager"), r.integer ("repair"),
+                  r.date ("date"), r.text ("description", -1));
+         default:
+            throw new IllegalArgumentException ("Not a batched operation: " + r.op);
+      }//end switch
+   }//end submit
+
+   /**
+    * One parsed input line: an operation name and its key=value parameters.
+    */
+   static class Record {
+      final int line;
+      final String op;
+      final Map<String, String> params;
+
+      Record (int line, String op, Map<String, String> params){
+         this.line = line;
+         this.op = op;
+         this.params = params;
+      }//end Record
+
+      /**
+       * Splits a line into the operation name and its parameters.
+       *
+       * @throws IllegalArgumentException when the line is malformed
+       */
+      static Record parse (int line, String text){
+         List<String> tokens = new ArrayList<String> ();
+         StringBuilder token = new StringBuilder ();
+         boolean quoted = false;
+         boolean inToken = false;
+         for (int i = 0; i < text.length (); ++i){
+            char c = text.charAt (i);
+            if (c == '"'){
+               quoted = !quoted;
+               inToken = true;
+            }else if (Character.isWhitespace (c) && !quoted){
+               if (inToken){
+                  tokens.add (token.toString ());
+                  token.setLength (0);
+                  inToken = false;
+               }//end if
+            }else{
+               token.append (c);
+               inToken = true;
+            }//end if
+         }//end for
+         if (quoted)
+            throw new IllegalArgumentException ("Unterminated quote");
+         if (inToken)
+            tokens.add (token.toString ());
+
+         Map<String, String> params = new HashMap<String, String> ();
+         for (String t : tokens.subList (1, tokens.size ())){
+            int eq = t.indexOf ('=');
+            if (eq <= 0)
+               throw new IllegalArgumentException ("Expected key=value but got " + t);
+            params.put (t.substring (0, eq), t.substring (eq + 1));
+         }//end for
+         return new Record (line, tokens.get (0), params);
+      }//end parse
+
+      String value (String key){
+         String v = this.params.get (key);
+         if (v == null)
+            throw new IllegalArgumentException ("Missing parameter " + key);
+         return v;
+      }//end value
+
+      int integer (String key){
+         try{
+            return Integer.parseInt (value (key));
+         }catch (NumberFormatException e){
+            throw new IllegalArgumentException ("Parameter " + key + " must be an integer");
+         }//end try
+      }//end integer
+
+      int id (DBProject esql, String table) throws SQLException {
+         return this.params.containsKey ("id") ? integer ("id") : esql.nextId (table);
+      }//end id
+
+      String text (String key, int maxLength){
+         String v = value (key);
+         if (maxLength > 0 && v.length () > maxLength)
+            throw new IllegalArgumentException ("Parameter " + key + " cannot be longer than " + maxLength + " characters");
+         return v;
+      }//end text
+
+      Date date (String key){
+         String[] parts = value (key).split ("-");
+         try{
+            if (parts.length == 3){
+               int year = Integer.parseInt (parts[0]);
+               int month = Integer.parseInt (parts[1]);
+               int day = Integer.parseInt (parts[2]);
+               if (DBProject.validDate (year, month, day))
+                  return DBProject.toDate (year, month, day);
+            }//end if
+         }catch (NumberFormatException e){
+            // reported below.
+         }//end try
+         throw new IllegalArgumentException ("Parameter " + key + " must be a valid yyyy-MM-dd date");
+      }//end date
+
+      BigDecimal price (String key){
+         BigDecimal price;
+         try{
+            price = new BigDecimal (value (key)).setScale (2, RoundingMode.HALF_UP);
+         }catch (NumberFormatException e){
+            throw new IllegalArgumentException ("Parameter " + key + " must be a number");
+         }//end try
+         // price is NUMERIC(6,2), i.e. at most 9999.99
+         if (price.precision () > 6)
+            throw new IllegalArgumentException ("Parameter " + key + " cannot be larger than 9999.99");
+         return price;
+      }//end price
+
+      boolean bool (String key){
+         String v = value (key);
+         if (v.equalsIgnoreCase ("y") || v.equalsIgnoreCase ("true"))
+            return true;
+         if (v.equalsIgnoreCase ("n") || v.equalsIgnoreCase ("false"))
+            return false;
+         throw new IllegalArgumentException ("Parameter " + key + " must be y or n");
+      }//end bool
+
+      String gender (String key){
+         String v = value (key);
+         if (!(v.equals ("Male") || v.equals ("Female") || v.equals ("Other")))
+            throw new IllegalArgumentException ("Parameter " + key + " must be 'Male', 'Female', or 'Other'");
+         return v;
+      }//end gender
+   }//end Record
+
+}//end BatchRunner
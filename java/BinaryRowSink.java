@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Writes results in a compact length-prefixed binary encoding.  Every query
+ * that returns rows is written as
+ *
+ * <pre>
+ *    'H' numCol { sqlType name }*      header frame
+ *    'R' { value }*                    one frame per row
+ *    'E'                               end of the query
+ * </pre>
+ *
+ * where numCol and sqlType are varints (sqlType zigzag encoded since some
+ * java.sql.Types are negative), name is a varint byte length followed by
+ * UTF-8 bytes, and value is a varint of the UTF-8 byte length plus one
+ * followed by the bytes, 0 meaning SQL NULL.  Varints are unsigned LEB128.
+ *
+ */
+public class BinaryRowSink implements ResultSink {
+
+   private static final Charset UTF8 = Charset.forName ("UTF-8");
+
+   private final WritableByteChannel _channel;
+   private final ByteBuffer _buf = ByteBuffer.allocateDirect (1 << 16);
+
+   // whether a header frame was written since the last end frame.
+   private boolean _open = false;
+
+   public BinaryRowSink (WritableByteChannel channel){
+      this._channel = channel;
+   }//end BinaryRowSink
+
+   public void header (String[] names, int[] types) throws IOException {
+      putByte ('H');
+      putVarint (names.length);
+      for (int i = 0; i < names.length; ++i){
+         int type = types[i];
+         putVarint ((type << 1) ^ (type >> 31));
+         byte[] name = names[i].getBytes (UTF8);
+         putVarint (name.length);
+         putBytes (name);
+      }//end for
+      this._open = true;
+   }//end header
+
+   public void row (String[] values) throws IOException {
+      putByte ('R');
+      for (int i = 0; i < values.length; ++i){
+         String v = values[i];
+         if (v == null){
+            putVarint (0);
+         }else{
+            byte[] bytes = v.getBytes (UTF8);
+            putVarint (bytes.length + 1);
+            putBytes (bytes);
+         }//end if
+      }//end for
+   }//end row
+
+   public void flush () throws IOException {
+      if (this._open){
+         putByte ('E');
+         this._open = false;
+      }//end if
+      drain ();
+   }//end flush
+
+   public void close () throws IOException {
+      flush ();
+      this._channel.close ();
+   }//end close
+
+   private void putByte (int b) throws IOException {
+      if (!this._buf.hasRemaining ())
+         drain ();
+      this._buf.put ((byte) b);
+   }//end putByte
+
+   private void putVarint (int v) throws IOException {
+      if (this._buf.remaining () < 5)
+         drain ();
+      while ((v & ~0x7F) != 0){
+         this._buf.put ((byte) ((v & 0x7F) | 0x80));
+         v >>>= 7;
+      }//end while
+      this._buf.put ((byte) v);
+   }//end putVarint
+
+   private void putBytes (byte[] bytes) throws IOException {
+      if (bytes.length > this._buf.remaining ()){
+         drain ();
+         if (bytes.length > this._buf.capacity ()){
+            ByteBuffer big = ByteBuffer.wrap (bytes);
+            while (big.hasRemaining ())
+               this._channel.write (big);
+            return;
+         }//end if
+      }//end if
+      this._buf.put (bytes);
+   }//end putBytes
+
+   private void drain () throws IOException {
+      this._buf.flip ();
+      while (this._buf.hasRemaining ())
+         this._channel.write (this._buf);
+      this._buf.clear ();
+   }//end drain
+
+}//end BinaryRowSink
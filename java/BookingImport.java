@@ -0,0 +1,288 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Imports a feed of bookings, a csv file in the format of data/booking.csv:
+ *
+ * <pre>
+ *    bID,customer,hotelID,roomNo,bookingDate,noOfPeople,price
+ * </pre>
+ *
+ * The file is streamed by psql over COPY FROM STDIN (the driver bundled with
+ * the project predates the JDBC COPY API, see BulkLoader) into an unlogged
+ * staging table, one line per row, so that a malformed line does not fail
+ * the whole copy.  The lines are then checked set-wise in one transaction:
+ * fields that do not parse, unknown customers and rooms, ids already used,
+ * nights already booked, and ids and nights repeated in the feed (the first
+ * line wins).  The valid rows are merged into Booking with a single INSERT,
+ * and a night booked meanwhile by another client only rejects its line.
+ * The rejected lines are written with their reason to the rejects file, one
+ * csv line each: line number, reason and the line itself.
+ *
+ * Neither the feed nor the rejects are ever held in memory, whatever their
+ * size.  Like BulkLoader, the import sets dbproject.bulk so that the rows
+ * merged are not logged one by one for the other clients (see
+ * ChangeListener): restart them after a large import.  The ids of the feed
+ * must not collide with the ids other clients hand out; the id sequence of
+ * Booking is moved past them afterwards.
+ *
+ * Usage: java BookingImport &lt;dbname&gt; &lt;port&gt; &lt;user&gt; &lt;bookings.csv&gt; [rejects.csv]
+ *
+ */
+public class BookingImport {
+
+   // a field that is a whole number, and a NUMERIC(6,2).
+   private static final String NUMBER = "'^[0-9]{1,9}$'";
+   private static final String PRICE = "'^[0-9]{1,4}([.][0-9]{1,2})?$'";
+
+   private final DBProject _esql;
+   private final String _dbname;
+   private final String _dbport;
+   private final String _user;
+   private final String _psql = System.getProperty ("dbproject.psql", "psql");
+
+   // the staging tables of this import: the lines of the feed, then the
+   // rows parsed from them and their reason to be rejected.
+   private final String _lines = "booking_import_" + System.currentTimeMillis ();
+   private final String _rows = this._lines + "_rows";
+
+   BookingImport (DBProject esql, String dbname, String dbport, String user){
+      this._esql = esql;
+      this._dbname = dbname;
+      this._dbport = dbport;
+      this._user = user;
+   }//end BookingImport
+
+   /**
+    * The main execution method
+    *
+    * @param args dbname, port, user, the feed and optionally the rejects
+    *        file (the feed with .rejects appended by default)
+    */
+   public static void main (String[] args){
+      if (args.length < 4 || args.length > 5){
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + BookingImport.class.getName () +
+            " <dbname> <port> <user> <bookings.csv> [rejects.csv]");
+         return;
+      }//end if
+      String rejects = args.length > 4 ? args[4] : args[3] + ".rejects";
+
+      DBProject esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "");
+         long[] counts = new BookingImport (esql, args[0], args[1], args[2]).run (new File (args[3]), new File (rejects));
+         System.out.println (String.format ("%d bookings imported, %d rejected%s", counts[0], counts[1],
+               counts[1] > 0 ? " (see " + rejects + ")" : ""));
+         if (counts[1] > 0)
+            System.exit (1);
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+         System.exit (2);
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+   /**
+    * Imports a feed.
+    *
+    * @param feed the csv file of the bookings
+    * @param rejects the file the rejected lines are written to
+    * @return the number of bookings imported and of lines rejected
+    */
+   long[] run (File feed, File rejects) throws Exception {
+      if (!feed.isFile ())
+         throw new IOException ("Missing feed " + feed);
+      this._esql.executeUpdate ("CREATE UNLOGGED TABLE " + this._lines + " (line bigserial, raw text)");
+      try{
+         copy (feed);
+         merge ();
+         final long[] counts = new long[2];
+         this._esql.fetch ("import.counts",
+               "SELECT COUNT(*) FILTER (WHERE reason IS NULL), COUNT(reason) FROM " + this._rows,
+               new RowHandler (){
+                  public void row (ResultSet rs) throws SQLException {
+                     counts[0] = rs.getLong (1);
+                     counts[1] = rs.getLong (2);
+                  }
+               });
+         writeRejects (rejects);
+         // new bookings of the clients get ids past the ones imported.
+         this._esql.fetch ("import.ids",
+               "SELECT setval('booking_id_seq', GREATEST(COALESCE(MAX(bID), 0) + 1, nextval('booking_id_seq')), false) FROM Booking",
+               new RowHandler (){
+                  public void row (ResultSet rs){
+                  }
+               });
+         return counts;
+      }finally{
+         this._esql.executeUpdate ("DROP TABLE IF EXISTS " + this._rows);
+         this._esql.executeUpdate ("DROP TABLE IF EXISTS " + this._lines);
+      }//end try
+   }//end run
+
+   /*
+    * Streams the lines of the feed into the staging table through psql.
+    * Every line is a single field: the csv quote and delimiter are control
+    * characters that cannot appear in a feed.
+    */
+   private void copy (File feed) throws IOException, InterruptedException {
+      long start = System.nanoTime ();
+      ProcessBuilder pb = new ProcessBuilder (this._psql,
+            "-h", "localhost", "-p", this._dbport, "-U", this._user, "-d", this._dbname,
+            "-X", "-q", "-v", "ON_ERROR_STOP=1",
+            "-c", "COPY " + this._lines + "(raw) FROM STDIN WITH (FORMAT csv, DELIMITER E'\\x01', QUOTE E'\\x02')");
+      pb.redirectInput (feed);
+      pb.redirectErrorStream (true);
+      Process p = pb.start ();
+
+      StringBuilder output = new StringBuilder ();
+      BufferedReader reader = new BufferedReader (new InputStreamReader (p.getInputStream ()));
+      try{
+         String line;
+         while ((line = reader.readLine ()) != null)
+            output.append (line).append ('\n');
+      }finally{
+         reader.close ();
+      }//end try
+      if (p.waitFor () != 0)
+         throw new IOException ("Copying " + feed + " failed:\n" + output);
+      step (String.format ("Copied %d bytes in %.1f s", feed.length (), (System.nanoTime () - start) / 1e9));
+   }//end copy
+
+   /*
+    * Parses and checks the lines and merges the valid ones into Booking, in
+    * one transaction.
+    */
+   private void merge () throws SQLException {
+      long start = System.nanoTime ();
+      String rows = this._rows;
+      this._esql.begin ();
+      try{
+         this._esql.executeUpdate ("SET LOCAL dbproject.bulk = on");
+         // a date that does not parse is rejected rather than failing the
+         // statement.
+         this._esql.executeUpdate (
+            "CREATE OR REPLACE FUNCTION pg_temp.import_date(text) RETURNS date AS $$\n" +
+            "BEGIN\n" +
+            "   RETURN CAST($1 AS date);\n" +
+            "EXCEPTION WHEN others THEN\n" +
+            "   RETURN NULL;\n" +
+            "END;\n" +
+            "$$ LANGUAGE plpgsql STABLE");
+
+         // 1. fields, parsed only once the line is known to be well formed.
+         this._esql.executeUpdate (
+            "CREATE UNLOGGED TABLE " + rows + " AS\n" +
+            "SELECT line, raw, reason,\n" +
+            "   CASE WHEN reason IS NULL THEN CAST(f[1] AS numeric) END AS bID,\n" +
+            "   CASE WHEN reason IS NULL THEN CAST(f[2] AS numeric) END AS customer,\n" +
+            "   CASE WHEN reason IS NULL THEN CAST(f[3] AS numeric) END AS hotelID,\n" +
+            "   CASE WHEN reason IS NULL THEN CAST(f[4] AS numeric) END AS roomNo,\n" +
+            "   CASE WHEN reason IS NULL THEN pg_temp.import_date(f[5]) END AS bookingDate,\n" +
+            "   CASE WHEN reason IS NULL THEN CAST(NULLIF(f[6], '') AS numeric) END AS noOfPeople,\n" +
+            "   CASE WHEN reason IS NULL THEN CAST(f[7] AS numeric(6,2)) END AS price\n" +
+            "FROM (SELECT line, raw, f,\n" +
+            "         CASE WHEN array_length(f, 1) IS DISTINCT FROM 7 THEN 'expected 7 fields'\n" +
+            "              WHEN f[1] !~ " + NUMBER + " THEN 'malformed bID'\n" +
+            "              WHEN f[2] !~ " + NUMBER + " THEN 'malformed customer'\n" +
+            "              WHEN f[3] !~ " + NUMBER + " THEN 'malformed hotelID'\n" +
+            "              WHEN f[4] !~ " + NUMBER + " THEN 'malformed roomNo'\n" +
+            "              WHEN pg_temp.import_date(f[5]) IS NULL THEN 'malformed bookingDate'\n" +
+            "              WHEN f[6] <> '' AND f[6] !~ " + NUMBER + " THEN 'malformed noOfPeople'\n" +
+            "              WHEN f[7] !~ " + PRICE + " THEN 'malformed price'\n" +
+            "         END AS reason\n" +
+            "      FROM (SELECT line, raw, string_to_array(rtrim(raw, E'\\r'), ',') AS f FROM " + this._lines + ") L) L");
+         this._esql.executeUpdate ("ANALYZE " + rows);
+
+         // 2. references and conflicts; each statement only writes the rows
+         //    it rejects.
+         reject ("unknown customer",
+            "NOT EXISTS (SELECT * FROM Customer C WHERE C.customerID = R.customer)");
+         reject ("unknown room",
+            "NOT EXISTS (SELECT * FROM Room M WHERE M.hotelID = R.hotelID AND M.roomNo = R.roomNo)");
+         reject ("bID already used",
+            "EXISTS (SELECT * FROM Booking B WHERE B.bID = R.bID)");
+         reject ("room already booked that day",
+            "EXISTS (SELECT * FROM Booking B WHERE B.hotelID = R.hotelID AND B.roomNo = R.roomNo AND B.bookingDate = R.bookingDate)");
+         reject ("bID repeated in the feed",
+            "EXISTS (SELECT * FROM " + rows + " D WHERE D.reason IS NULL AND D.bID = R.bID AND D.line < R.line)");
+         reject ("room booked twice that day in the feed",
+            "EXISTS (SELECT * FROM " + rows + " D WHERE D.reason IS NULL AND D.hotelID = R.hotelID AND D.roomNo = R.roomNo\n" +
+            "AND D.bookingDate = R.bookingDate AND D.line < R.line)");
+
+         // 3. the merge: a night booked since the check rejects its line.
+         int rejected = this._esql.executeUpdate ("import.merge",
+            "WITH M AS (INSERT INTO Booking (bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price)\n" +
+            "   SELECT bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price FROM " + rows + " WHERE reason IS NULL\n" +
+            "   ON CONFLICT (hotelID, roomNo, bookingDate) DO NOTHING\n" +
+            "   RETURNING bID)\n" +
+            "UPDATE " + rows + " R SET reason = 'room already booked that day'\n" +
+            "WHERE R.reason IS NULL AND NOT EXISTS (SELECT * FROM M WHERE M.bID = R.bID)");
+         this._esql.commit ();
+         step (String.format ("Checked and merged in %.1f s, %d nights booked meanwhile",
+               (System.nanoTime () - start) / 1e9, rejected));
+      }finally{
+         this._esql.rollback ();
+      }//end try
+   }//end merge
+
+   /*
+    * Rejects the rows still valid that match a condition on R.
+    */
+   private void reject (String reason, String condition) throws SQLException {
+      int n = this._esql.executeUpdate ("import.reject",
+            "UPDATE " + this._rows + " R SET reason = ?\nWHERE R.reason IS NULL AND " + condition, reason);
+      if (n > 0)
+         step (String.format ("  %-40s %10d", reason, n));
+   }//end reject
+
+   /*
+    * Writes the rejected lines, read through a cursor.
+    */
+   private void writeRejects (File file) throws IOException, SQLException {
+      final PrintWriter out = new PrintWriter (new BufferedWriter (new FileWriter (file), 1 << 16));
+      try{
+         this._esql.scan ("import.rejects",
+               "SELECT line, reason, raw FROM " + this._rows + " WHERE reason IS NOT NULL ORDER BY line",
+               new RowHandler (){
+                  public void row (ResultSet rs) throws SQLException {
+                     out.print (rs.getLong (1));
+                     out.print (',');
+                     out.print (quote (rs.getString (2)));
+                     out.print (',');
+                     out.println (quote (rs.getString (3)));
+                  }
+               });
+      }finally{
+         out.close ();
+      }//end try
+      if (out.checkError ())
+         throw new IOException ("Unable to write " + file);
+   }//end writeRejects
+
+   // a csv field, quoted when needed.
+   private static String quote (String value){
+      if (value == null)
+         return "";
+      if (value.indexOf (',') < 0 && value.indexOf ('"') < 0 && value.indexOf ('\n') < 0 && value.indexOf ('\r') < 0)
+         return value;
+      return '"' + value.replace ("\"", "\"\"") + '"';
+   }//end quote
+
+   private static void step (String message){
+      System.out.println (message);
+   }//end step
+
+}//end BookingImport
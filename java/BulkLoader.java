@@ -0,0 +1,279 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rebuilds the hotel database from the data/*.csv files.
+ *
+ * Unlike the server-side COPY ... FROM 'file' statements at the end of
+ * create.sql, every file is streamed from the client over COPY FROM STDIN, so
+ * nothing has to be copied into the database server's folder first.  Tables
+ * that do not reference each other are loaded in parallel, one wave at a time
+ * in foreign key order, and the indexes of createindex.sql are only built once
+ * all the data is in.
+ *
+ * The PostgreSQL driver bundled with the project predates the JDBC COPY API,
+ * so each table is streamed by a psql process (dbproject.psql, "psql" by
+ * default) reading the file on its standard input.
+ *
+ * With -Ddbproject.partition=year (or month), Booking and Repair are range
+ * partitioned by date by the partition.sql script next to create.sql before
+ * they are loaded.
+ *
+ * Usage: java BulkLoader &lt;dbname&gt; &lt;port&gt; &lt;user&gt; [data dir] [create.sql] [createindex.sql]
+ *
+ */
+public class BulkLoader {
+
+   // the tables of create.sql, their columns and data files, in the waves in
+   // which they can be loaded: every table only references tables of an
+   // earlier wave, except for Hotel.manager which is handled separately.
+   private static final String[][][] WAVES = {
+      {
+         {"Hotel", "hotelID, address, manager", "hotel.csv"},
+         {"Customer", "customerID, fName, lName, Address, phNo, DOB, gender", "customer.csv"},
+         {"MaintenanceCompany", "cmpID, name, address, isCertified", "maintenanceCompany.csv"},
+      },
+      {
+         {"Staff", "SSN, fName, lName, address, role, employerID", "staff.csv"},
+         {"Room", "hotelID, roomNo, roomType", "room.csv"},
+      },
+      {
+         {"Booking", "bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price", "booking.csv"},
+         {"Repair", "rID, hotelID, roomNo, mCompany, repairDate, description, repairType", "repair.csv"},
+         {"Assigned", "asgID, staffID, hotelID, roomNo", "assigned.csv"},
+      },
+      {
+         {"Request", "reqID, managerID, repairID, requestDate, description", "request.csv"},
+      },
+   };
+
+   private static final Pattern CREATE_INDEX = Pattern.compile (
+      "(?is)CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?(\\w+)\\s+ON\\b.*");
+
+   private final DBProject _esql;
+   private final String _dbname;
+   private final String _dbport;
+   private final String _user;
+   private final String _psql = System.getProperty ("dbproject.psql", "psql");
+
+   BulkLoader (DBProject esql, String dbname, String dbport, String user){
+      this._esql = esql;
+      this._dbname = dbname;
+      this._dbport = dbport;
+      this._user = user;
+   }//end BulkLoader
+
+   /**
+    * The main execution method
+    *
+    * @param args dbname, port, user and optionally the data folder, the
+    *        schema script and the index script
+    */
+   public static void main (String[] args){
+      if (args.length < 3 || args.length > 6){
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + BulkLoader.class.getName () +
+            " <dbname> <port> <user> [data dir] [create.sql] [createindex.sql]");
+         return;
+      }//end if
+      String dataDir = args.length > 3 ? args[3] : "../data";
+      String schema = args.length > 4 ? args[4] : "../sql/create.sql";
+      String indexes = args.length > 5 ? args[5] : "createindex.sql";
+
+      DBProject esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "");
+         new BulkLoader (esql, args[0], args[1], args[2]).load (dataDir, schema, indexes);
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+         System.exit (1);
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+   /**
+    * Recreates the schema, loads every table and builds the indexes.
+    *
+    * @param dataDir the folder holding the csv files
+    * @param schema the schema script, whose COPY, SELECT and SET statements are
+    *        skipped
+    * @param indexes the index script, run after the load
+    */
+   void load (String dataDir, String schema, String indexes) throws Exception {
+      long start = System.nanoTime ();
+      List<String> indexStatements = SqlScript.read (indexes);
+
+      // 1. schema, without the server-side data copy, the settings around it
+      //    and the sequence updates that follow it.
+      step ("Creating schema from " + schema);
+      for (String stmt : SqlScript.read (schema)){
+         String upper = stmt.toUpperCase (Locale.ROOT);
+         if (!upper.startsWith ("COPY") && !upper.startsWith ("SELECT")
+               && !upper.startsWith ("SET") && !upper.startsWith ("RESET"))
+            this._esql.executeUpdate (stmt);
+      }//end for
+      String partition = System.getProperty ("dbproject.partition");
+      if (partition != null)
+         partition (new File (new File (schema).getAbsoluteFile ().getParentFile (), "partition.sql"), partition);
+
+      // 2. no index is maintained row by row during the load.
+      for (String stmt : indexStatements){
+         Matcher m = CREATE_INDEX.matcher (stmt);
+         if (m.matches ())
+            this._esql.executeUpdate ("DROP INDEX IF EXISTS " + m.group (1));
+      }//end for
+
+      // 3. Hotel.manager references Staff, which references Hotel: load both
+      //    without that constraint and link each hotel to its manager after.
+      this._esql.executeUpdate ("ALTER TABLE Hotel DROP CONSTRAINT IF EXISTS managerConstraint");
+
+      ExecutorService pool = Executors.newCachedThreadPool ();
+      try{
+         for (int w = 0; w < WAVES.length; ++w){
+            step ("Loading wave " + (w + 1));
+            List<Future<?>> copies = new ArrayList<Future<?>> ();
+            for (final String[] table : WAVES[w]){
+               final File file = new File (dataDir, table[2]);
+               copies.add (pool.submit (new Callable<Void> (){
+                  public Void call () throws Exception {
+                     copy (table[0], table[1], file);
+                     return null;
+                  }
+               }));
+            }//end for
+            waitFor (copies);
+
+            if (w == 1){
+               step ("Linking hotels to their managers");
+               this._esql.executeUpdate (
+                  "UPDATE Hotel SET manager = Staff.ssn FROM Staff " +
+                  "WHERE Hotel.hotelID = Staff.employerID AND Staff.role = 'Manager'");
+               this._esql.executeUpdate (
+                  "ALTER TABLE Hotel ADD CONSTRAINT managerConstraint FOREIGN KEY(manager) " +
+                  "REFERENCES Staff(SSN) ON DELETE SET DEFAULT");
+            }//end if
+         }//end for
+
+         step ("Moving the id sequences past the loaded keys");
+         IdAllocator.syncSequences (this._esql);
+
+         step ("Counting the repairs of every room per year");
+         RepairRollup.rebuild (this._esql);
+
+         // 4. indexes and planner statistics, in parallel.
+         step ("Building indexes and statistics");
+         List<Future<?>> builds = new ArrayList<Future<?>> ();
+         for (final String stmt : indexStatements)
+            builds.add (pool.submit (update (stmt)));
+         for (String[][] wave : WAVES)
+            for (String[] table : wave)
+               builds.add (pool.submit (update ("ANALYZE " + table[0])));
+         builds.add (pool.submit (update ("ANALYZE RepairYearlyRollup")));
+         waitFor (builds);
+      }finally{
+         pool.shutdown ();
+      }//end try
+
+      step (String.format ("Done in %.1f s", (System.nanoTime () - start) / 1e9));
+   }//end load
+
+   /*
+    * Partitions Booking and Repair by year or month.  The script reads the
+    * step from the dbproject.partition setting, so it runs in a single
+    * transaction that sets it.
+    */
+   private void partition (File script, String step) throws Exception {
+      if (!step.equals ("year") && !step.equals ("month"))
+         throw new IllegalArgumentException ("dbproject.partition must be year or month, not " + step);
+      step ("Partitioning Booking and Repair by " + step + " from " + script);
+      this._esql.begin ();
+      try{
+         this._esql.executeUpdate ("SET LOCAL dbproject.partition = '" + step + "'");
+         for (String stmt : SqlScript.read (script.getPath ()))
+            this._esql.executeUpdate (stmt);
+         this._esql.commit ();
+      }finally{
+         this._esql.rollback ();
+      }//end try
+   }//end partition
+
+   /*
+    * Streams one csv file into its table through psql's COPY FROM STDIN.
+    */
+   private void copy (String table, String columns, File file) throws IOException, InterruptedException {
+      if (!file.isFile ())
+         throw new IOException ("Missing data file " + file);
+      long start = System.nanoTime ();
+      ProcessBuilder pb = new ProcessBuilder (this._psql,
+            "-h", "localhost", "-p", this._dbport, "-U", this._user, "-d", this._dbname,
+            "-X", "-q", "-v", "ON_ERROR_STOP=1",
+            "-c", "COPY " + table + "(" + columns + ") FROM STDIN WITH DELIMITER ','");
+      // the rows loaded are not logged for the clients (see ChangeListener).
+      String options = System.getenv ("PGOPTIONS");
+      pb.environment ().put ("PGOPTIONS", (options == null ? "" : options + " ") + "-c dbproject.bulk=on");
+      pb.redirectInput (file);
+      pb.redirectErrorStream (true);
+      Process p = pb.start ();
+
+      StringBuilder output = new StringBuilder ();
+      BufferedReader reader = new BufferedReader (new InputStreamReader (p.getInputStream ()));
+      try{
+         String line;
+         while ((line = reader.readLine ()) != null)
+            output.append (line).append ('\n');
+      }finally{
+         reader.close ();
+      }//end try
+      if (p.waitFor () != 0)
+         throw new IOException ("Loading " + table + " from " + file + " failed:\n" + output);
+
+      step (String.format ("  %-20s %10d bytes in %.1f s", table, file.length (),
+            (System.nanoTime () - start) / 1e9));
+   }//end copy
+
+   private Callable<Void> update (final String sql){
+      return new Callable<Void> (){
+         public Void call () throws SQLException {
+            BulkLoader.this._esql.executeUpdate (sql);
+            return null;
+         }
+      };
+   }//end update
+
+   // waits for every task and rethrows the first failure.
+   private static void waitFor (List<Future<?>> tasks) throws Exception {
+      Exception failure = null;
+      for (Future<?> f : tasks){
+         try{
+            f.get ();
+         }catch (ExecutionException e){
+            if (failure == null)
+               failure = e.getCause () instanceof Exception ? (Exception) e.getCause () : e;
+         }//end try
+      }//end for
+      if (failure != null)
+         throw failure;
+   }//end waitFor
+
+   private static synchronized void step (String message){
+      System.out.println (message);
+   }//end step
+
+}//end BulkLoader
@@ -0,0 +1,285 @@
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Keeps the in-memory state of this process current with the changes other
+ * processes make to the database: the occupancy index, the company
+ * leaderboard and the cached report results.
+ *
+ * The triggers of create.sql log every change of Booking, Repair, Room,
+ * Customer and MaintenanceCompany to ChangeLog, with the keys of the row
+ * changed, and notify the dbproject_changes channel.  The listener keeps a
+ * session of its own LISTENing on that channel and reads the new ChangeLog
+ * rows whenever it is notified.  The driver bundled with the project cannot
+ * read the payload of a notification and only receives notifications when
+ * it runs a statement, so the session is polled every
+ * dbproject.changes.interval milliseconds.  Changes made through the pool of
+ * this process were applied when they committed and are skipped.
+ *
+ * ChangeLog ids are drawn when a row is inserted, not when its transaction
+ * commits, so a change may show up after changes with higher ids.  The
+ * listener follows the transactions instead: every poll first reads the
+ * oldest transaction still running, and the next poll reads again every
+ * change of it and of the later transactions, skipping those already
+ * applied.  A change that was not visible yet belongs to one of them.
+ *
+ * Inserted rows are patched into the occupancy index and the leaderboard;
+ * updates and deletes, which they cannot undo, reload them.  Every change
+ * drops the cached results it affects, exactly like a local write.
+ *
+ */
+public class ChangeListener implements Runnable {
+
+   private static final String CHANNEL = "dbproject_changes";
+
+   // how long changes are kept in ChangeLog, and how often each listener
+   // deletes the older ones, in milliseconds.
+   private static final long RETENTION = 60 * 60 * 1000L;
+   private static final long PRUNE_EVERY = 10 * 60 * 1000L;
+
+   private final DBProject _esql;
+   private final ConnectionPool _pool;
+   private final long _interval;
+   private final Thread _thread;
+   private volatile boolean _stopped = false;
+
+   // the oldest transaction running at the last poll: the changes of the
+   // earlier ones are applied.
+   private long _xmin;
+   // the changes of _xmin and of the later transactions already applied,
+   // by id, with their transaction.
+   private final Map<Long, Long> _applied = new HashMap<Long, Long> ();
+   // when the last poll and the last prune ran.
+   private long _polled;
+   private long _pruned = 0;
+
+   /**
+    * @param esql the process whose state is kept current
+    * @param pool the pool of the process, whose changes are skipped
+    * @param interval milliseconds between two polls
+    * @param xmin the oldest transaction running before the state was loaded
+    */
+   ChangeListener (DBProject esql, ConnectionPool pool, long interval, long xmin){
+      this._esql = esql;
+      this._pool = pool;
+      this._interval = interval;
+      this._xmin = xmin;
+      this._polled = System.currentTimeMillis ();
+      this._thread = new Thread (this, "ChangeListener");
+      this._thread.setDaemon (true);
+   }//end ChangeListener
+
+   void start (){
+      this._thread.start ();
+   }//end start
+
+   void stop (){
+      this._stopped = true;
+      this._thread.interrupt ();
+   }//end stop
+
+   /**
+    * Listens until stopped, reconnecting after a lost connection.
+    */
+   public void run (){
+      while (!this._stopped){
+         Connection connection = null;
+         try{
+            connection = this._pool.connect ();
+            listen (connection);
+         }catch (SQLException e){
+            if (!this._stopped)
+               System.err.println ("Change listener: " + e.getMessage ());
+         }catch (InterruptedException e){
+            return;
+         }finally{
+            if (connection != null){
+               try{
+                  connection.close ();
+               }catch (SQLException e){
+                  // ignored.
+               }//end try
+            }//end if
+         }//end try
+         try{
+            Thread.sleep (Math.max (1000L, this._interval * 10));
+         }catch (InterruptedException e){
+            return;
+         }//end try
+      }//end while
+   }//end run
+
+   /*
+    * Follows the changes over one session.
+    */
+   private void listen (Connection connection) throws SQLException, InterruptedException {
+      Statement stmt = connection.createStatement ();
+      try{
+         stmt.executeUpdate ("LISTEN " + CHANNEL);
+         if (System.currentTimeMillis () - this._polled > RETENTION / 2){
+            // changes may have been deleted before they could be read.
+            this._xmin = xmin (stmt);
+            this._applied.clear ();
+            reload (true, true);
+         }//end if
+
+         PreparedStatement changes = connection.prepareStatement (
+               "SELECT id, tableName, operation, hotelID, roomNo, day, customerID, cmpID, origin, txid\n" +
+               "FROM ChangeLog WHERE txid >= ? ORDER BY id");
+         try{
+            // changes made while there was no connection.
+            apply (stmt, changes);
+            this._polled = System.currentTimeMillis ();
+            while (!this._stopped){
+               Thread.sleep (this._interval);
+               stmt.executeQuery ("SELECT 1").close ();
+               PGNotification[] notifications = ((PGConnection) connection).getNotifications ();
+               if (notifications != null && notifications.length > 0)
+                  apply (stmt, changes);
+               this._polled = System.currentTimeMillis ();
+               if (System.currentTimeMillis () - this._pruned > PRUNE_EVERY){
+                  stmt.executeUpdate ("DELETE FROM ChangeLog WHERE changedAt < now() - interval '" + RETENTION / 1000 + " seconds'");
+                  this._pruned = System.currentTimeMillis ();
+               }//end if
+            }//end while
+         }finally{
+            changes.close ();
+         }//end try
+      }finally{
+         stmt.close ();
+      }//end try
+   }//end listen
+
+   /*
+    * The oldest transaction still running.
+    */
+   private static long xmin (Statement stmt) throws SQLException {
+      ResultSet rs = stmt.executeQuery ("SELECT txid_snapshot_xmin(txid_current_snapshot())");
+      try{
+         rs.next ();
+         return rs.getLong (1);
+      }finally{
+         rs.close ();
+      }//end try
+   }//end xmin
+
+   /*
+    * Applies the changes committed since the last poll.
+    */
+   private void apply (Statement stmt, PreparedStatement changes) throws SQLException {
+      // read before the changes: a transaction still running when they are
+      // read is still running now, and is read again at the next poll.
+      long xmin = xmin (stmt);
+      changes.setLong (1, this._xmin);
+      ResultSet rs = changes.executeQuery ();
+      boolean occupancy = false;
+      boolean leaderboard = false;
+      try{
+         while (rs.next ()){
+            if (this._applied.put (rs.getLong (1), rs.getLong (10)) != null)
+               continue;
+            if (this._pool.origin ().equals (rs.getString (9)))
+               continue;
+            String table = rs.getString (2);
+            boolean insert = "I".equals (rs.getString (3));
+            int hotelID = rs.getInt (4);
+            int roomNo = rs.getInt (5);
+            Date day = rs.getDate (6);
+            int customerID = rs.getInt (7);
+            int cmpID = rs.getInt (8);
+            switch (table){
+               case "booking":
+                  invalidate (ResultCache.hotel (hotelID), ResultCache.customer (customerID), ResultCache.BOOKINGS);
+                  if (insert && this._esql.occupancy () != null)
+                     this._esql.occupancy ().book (hotelID, roomNo, day);
+                  occupancy |= !insert;
+                  break;
+               case "room":
+                  invalidate (ResultCache.hotel (hotelID));
+                  if (insert && this._esql.occupancy () != null)
+                     this._esql.occupancy ().addRoom (hotelID, roomNo);
+                  occupancy |= !insert;
+                  break;
+               case "repair":
+                  invalidate (ResultCache.hotel (hotelID), ResultCache.company (cmpID), ResultCache.REPAIRS);
+                  if (insert && this._esql.leaderboard () != null)
+                     recount (cmpID);
+                  leaderboard |= !insert;
+                  break;
+               case "maintenancecompany":
+                  invalidate (ResultCache.company (cmpID));
+                  if (insert && this._esql.leaderboard () != null)
+                     addCompany (cmpID);
+                  leaderboard |= !insert;
+                  break;
+               case "customer":
+                  invalidate (ResultCache.customer (customerID));
+                  break;
+               default:
+                  break;
+            }//end switch
+         }//end while
+      }finally{
+         rs.close ();
+      }//end try
+      this._xmin = xmin;
+      for (Iterator<Long> i = this._applied.values ().iterator (); i.hasNext (); )
+         if (i.next () < xmin)
+            i.remove ();
+      reload (occupancy, leaderboard);
+   }//end apply
+
+   private void invalidate (String... tags){
+      ResultCache cache = this._esql.cache ();
+      if (cache != null)
+         cache.invalidate (tags);
+   }//end invalidate
+
+   /*
+    * Recounts the repairs of a company: a repair may already have been
+    * counted by the load.
+    */
+   private void recount (final int cmpID) throws SQLException {
+      this._esql.fetch ("changes.recount", "SELECT COUNT(*) FROM Repair WHERE mCompany = ?", new RowHandler (){
+         public void row (ResultSet rs) throws SQLException {
+            CompanyLeaderboard leaderboard = ChangeListener.this._esql.leaderboard ();
+            if (leaderboard != null)
+               leaderboard.setRepairs (cmpID, rs.getLong (1));
+         }
+      }, cmpID);
+   }//end recount
+
+   private void addCompany (final int cmpID) throws SQLException {
+      this._esql.fetch ("changes.company", "SELECT name FROM MaintenanceCompany WHERE cmpID = ?", new RowHandler (){
+         public void row (ResultSet rs) throws SQLException {
+            CompanyLeaderboard leaderboard = ChangeListener.this._esql.leaderboard ();
+            if (leaderboard != null)
+               leaderboard.addCompany (cmpID, rs.getString (1));
+         }
+      }, cmpID);
+   }//end addCompany
+
+   /*
+    * Reloads the structures a change could not be patched into, and drops
+    * every cached result.
+    */
+   private void reload (boolean occupancy, boolean leaderboard) throws SQLException {
+      if (occupancy && this._esql.occupancy () != null)
+         this._esql.loadOccupancy ();
+      if (leaderboard && this._esql.leaderboard () != null)
+         this._esql.loadLeaderboard ();
+      if ((occupancy || leaderboard) && this._esql.cache () != null)
+         this._esql.cache ().clear ();
+   }//end reload
+
+}//end ChangeListener
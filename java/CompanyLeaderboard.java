@@ -0,0 +1,145 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory number of repairs made by every maintenance company, kept in
+ * leaderboard order so that the top k companies are read in O(k) instead of
+ * counting and sorting every repair.
+ *
+ * Companies are ranked by repair count, most first, then by cmpID: names
+ * are not unique.  The leaderboard is loaded from MaintenanceCompany and
+ * Repair once, and kept current by addMaintenanceCompany() and addRepair()
+ * after their changes commit, and by ChangeListener for the changes of
+ * other processes.
+ *
+ */
+public class CompanyLeaderboard {
+
+   // a company and its repair count; replaced, never changed, while it is
+   // in the ranking.
+   private static final class Entry implements Comparable<Entry> {
+      final int cmpID;
+      final String name;
+      final long repairs;
+
+      Entry (int cmpID, String name, long repairs){
+         this.cmpID = cmpID;
+         this.name = name;
+         this.repairs = repairs;
+      }//end Entry
+
+      public int compareTo (Entry other){
+         if (this.repairs != other.repairs)
+            return this.repairs > other.repairs ? -1 : 1;
+         return this.cmpID < other.cmpID ? -1 : this.cmpID == other.cmpID ? 0 : 1;
+      }//end compareTo
+   }//end Entry
+
+   private final Map<Integer, Entry> _companies = new HashMap<Integer, Entry> ();
+   private final TreeSet<Entry> _ranking = new TreeSet<Entry> ();
+   private final ReadWriteLock _lock = new ReentrantReadWriteLock ();
+
+   /**
+    * Builds the leaderboard from the MaintenanceCompany and Repair tables.
+    *
+    * @param esql the database to read from
+    * @return the loaded leaderboard
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public static CompanyLeaderboard load (DBProject esql) throws SQLException {
+      final CompanyLeaderboard board = new CompanyLeaderboard ();
+      esql.scan ("leaderboard.companies",
+            "SELECT cmpID, name FROM MaintenanceCompany",
+            new RowHandler (){
+               public void row (ResultSet rs) throws SQLException {
+                  board.addCompany (rs.getInt (1), rs.getString (2));
+               }
+            });
+      esql.scan ("leaderboard.repairs",
+            "SELECT mCompany, COUNT(*) FROM Repair GROUP BY mCompany",
+            new RowHandler (){
+               public void row (ResultSet rs) throws SQLException {
+                  board.setRepairs (rs.getInt (1), rs.getLong (2));
+               }
+            });
+      return board;
+   }//end load
+
+   /**
+    * Registers a company without repairs.  Adding a company twice has no
+    * effect.
+    */
+   public void addCompany (int cmpID, String name){
+      this._lock.writeLock ().lock ();
+      try{
+         if (!this._companies.containsKey (cmpID))
+            this._companies.put (cmpID, new Entry (cmpID, name.trim (), 0));
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end addCompany
+
+   /**
+    * Counts a repair made by a company.
+    */
+   public void repaired (int cmpID){
+      count (cmpID, 1, true);
+   }//end repaired
+
+   /**
+    * Sets the number of repairs made by a company, as counted in the
+    * database.
+    */
+   public void setRepairs (int cmpID, long repairs){
+      count (cmpID, repairs, false);
+   }//end setRepairs
+
+   private void count (int cmpID, long repairs, boolean add){
+      this._lock.writeLock ().lock ();
+      try{
+         Entry e = this._companies.get (cmpID);
+         // a repair of an unknown company is not listed, as in the join.
+         if (e == null)
+            return;
+         if (e.repairs > 0)
+            this._ranking.remove (e);
+         e = new Entry (cmpID, e.name, add ? e.repairs + repairs : repairs);
+         this._companies.put (cmpID, e);
+         if (e.repairs > 0)
+            this._ranking.add (e);
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end count
+
+   /**
+    * Lists the companies with the most repairs.  Companies without repairs
+    * are not listed.
+    *
+    * @param k the number of companies
+    * @return one row per company: cmpID, name and repair count
+    */
+   public List<String[]> top (int k){
+      List<String[]> rows = new ArrayList<String[]> ();
+      this._lock.readLock ().lock ();
+      try{
+         Iterator<Entry> it = this._ranking.iterator ();
+         while (rows.size () < k && it.hasNext ()){
+            Entry e = it.next ();
+            rows.add (new String[] {String.valueOf (e.cmpID), e.name, String.valueOf (e.repairs)});
+         }//end while
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+      return rows;
+   }//end top
+
+}//end CompanyLeaderboard
@@ -0,0 +1,352 @@
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small bounded pool of physical PostgreSQL connections.  Connections are
+ * opened lazily up to the maximum size, checked with a cheap query when they
+ * are borrowed after sitting idle, and closed by a background thread once they
+ * have been idle for too long (never going below the minimum size).
+ *
+ */
+public class ConnectionPool {
+
+   // connection settings used whenever a new physical connection is opened.
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+
+   // pool sizing and timing settings.
+   private final int _minSize;
+   private final int _maxSize;
+   private final long _idleTimeout;
+   private final long _validateAfter;
+   private final long _borrowTimeout;
+
+   // idle connections, most recently used first.
+   private final LinkedList<PooledConnection> _idle = new LinkedList<PooledConnection>();
+
+   // number of physical connections currently open (idle + borrowed).
+   private int _open = 0;
+   private boolean _closed = false;
+
+   private final Thread _evictor;
+
+   // pools opened by this process so far, see origin().
+   private static final AtomicInteger POOLS = new AtomicInteger ();
+
+   // set as dbproject.origin on every connection, so that the changes made
+   // through this pool can be told apart (see ChangeListener).
+   private final String _origin = ManagementFactory.getRuntimeMXBean ().getName () + "/" + POOLS.incrementAndGet ();
+
+   /**
+    * Creates a new pool and eagerly opens the minimum number of connections.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minSize connections kept open even when idle
+    * @param maxSize upper bound on open connections
+    * @param idleTimeout milliseconds an idle connection above minSize is kept
+    * @param validateAfter milliseconds of idleness after which a connection is
+    *        validated before it is handed out
+    * @param borrowTimeout milliseconds to wait for a free connection
+    * @throws java.sql.SQLException when the initial connections cannot be made
+    */
+   public ConnectionPool (String url, String user, String passwd,
+                          int minSize, int maxSize, long idleTimeout,
+                          long validateAfter, long borrowTimeout) throws SQLException {
+      if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+         throw new IllegalArgumentException("Invalid pool size: min=" + minSize + " max=" + maxSize);
+
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._minSize = minSize;
+      this._maxSize = maxSize;
+      this._idleTimeout = idleTimeout;
+      this._validateAfter = validateAfter;
+      this._borrowTimeout = borrowTimeout;
+
+      for (int i = 0; i < minSize; ++i){
+         PooledConnection pc = open ();
+         synchronized (this){
+            ++this._open;
+            this._idle.addFirst (pc);
+         }//end synchronized
+      }//end for
+
+      this._evictor = new Thread (new Runnable (){
+         public void run (){
+            evictLoop ();
+         }
+      }, "ConnectionPool-evictor");
+      this._evictor.setDaemon (true);
+      this._evictor.start ();
+   }//end ConnectionPool
+
+   /**
+    * Borrows a connection from the pool, opening a new one if none is idle
+    * and the pool is not full.  The caller must hand it back with release().
+    *
+    * @return a validated connection
+    * @throws java.sql.SQLException when no connection could be obtained
+    */
+   public PooledConnection borrow () throws SQLException {
+      long deadline = System.currentTimeMillis () + this._borrowTimeout;
+      while (true){
+         PooledConnection pc = null;
+         boolean mayOpen = false;
+         synchronized (this){
+            while (!this._closed && this._idle.isEmpty () && this._open >= this._maxSize){
+               long wait = deadline - System.currentTimeMillis ();
+               if (wait <= 0)
+                  throw new SQLException ("Timed out waiting for a database connection");
+               try{
+                  this.wait (wait);
+               }catch (InterruptedException e){
+                  Thread.currentThread ().interrupt ();
+                  throw new SQLException ("Interrupted while waiting for a database connection");
+               }//end try
+            }//end while
+            if (this._closed)
+               throw new SQLException ("Connection pool is closed");
+            if (!this._idle.isEmpty ()){
+               pc = this._idle.removeFirst ();
+            }else{
+               // reserve a slot now so concurrent borrowers respect maxSize.
+               ++this._open;
+               mayOpen = true;
+            }//end if
+         }//end synchronized
+
+         if (mayOpen){
+            try{
+               return open ();
+            }catch (SQLException e){
+               discarded ();
+               throw e;
+            }//end try
+         }//end if
+
+         if (System.currentTimeMillis () - pc.lastUsed () < this._validateAfter || validate (pc))
+            return pc;
+
+         // the server most likely went away; everything idle is just as stale.
+         close (pc);
+         discarded ();
+         purgeIdle ();
+      }//end while
+   }//end borrow
+
+   /**
+    * Returns a borrowed connection to the pool.
+    *
+    * @param pc the connection obtained from borrow()
+    */
+   public void release (PooledConnection pc){
+      if (pc == null) return;
+      boolean broken;
+      try{
+         broken = pc.connection ().isClosed ();
+         if (!broken && !pc.connection ().getAutoCommit ()){
+            pc.connection ().rollback ();
+            pc.connection ().setAutoCommit (true);
+         }//end if
+      }catch (SQLException e){
+         broken = true;
+      }//end try
+      if (broken){
+         invalidate (pc);
+         return;
+      }//end if
+      pc.touch ();
+      synchronized (this){
+         if (this._closed){
+            close (pc);
+            --this._open;
+            return;
+         }//end if
+         this._idle.addFirst (pc);
+         this.notifyAll ();
+      }//end synchronized
+   }//end release
+
+   /**
+    * Closes a borrowed connection that is known to be unusable and frees its
+    * slot in the pool.
+    *
+    * @param pc the connection obtained from borrow()
+    */
+   public void invalidate (PooledConnection pc){
+      if (pc == null) return;
+      close (pc);
+      discarded ();
+   }//end invalidate
+
+   /**
+    * Closes every idle connection and stops handing out new ones.  Connections
+    * that are still borrowed are closed when they are released.
+    */
+   public void close (){
+      LinkedList<PooledConnection> idle;
+      synchronized (this){
+         if (this._closed) return;
+         this._closed = true;
+         idle = new LinkedList<PooledConnection> (this._idle);
+         this._open -= this._idle.size ();
+         this._idle.clear ();
+         this.notifyAll ();
+      }//end synchronized
+      this._evictor.interrupt ();
+      for (PooledConnection pc : idle)
+         close (pc);
+   }//end close
+
+   /**
+    * @return the number of open physical connections
+    */
+   public synchronized int size (){
+      return this._open;
+   }//end size
+
+   /**
+    * @return the number of idle connections
+    */
+   public synchronized int idleCount (){
+      return this._idle.size ();
+   }//end idleCount
+
+   /**
+    * @return the dbproject.origin setting of the connections of this pool
+    */
+   public String origin (){
+      return this._origin;
+   }//end origin
+
+   /**
+    * Opens a physical connection that is not part of the pool, for a
+    * session that has to outlive any borrowing.  The caller closes it.
+    *
+    * @return the new connection
+    * @throws java.sql.SQLException when the connection cannot be made
+    */
+   public Connection connect () throws SQLException {
+      Connection connection = DriverManager.getConnection (this._url, this._user, this._passwd);
+      try{
+         Statement stmt = connection.createStatement ();
+         try{
+            stmt.executeUpdate ("SET dbproject.origin = '" + this._origin.replace ("'", "''") + "'");
+         }finally{
+            stmt.close ();
+         }//end try
+      }catch (SQLException e){
+         connection.close ();
+         throw e;
+      }//end try
+      return connection;
+   }//end connect
+
+   // opens a new physical connection.
+   private PooledConnection open () throws SQLException {
+      return new PooledConnection (connect ());
+   }//end open
+
+   // frees the slot of a connection that has been closed.
+   private synchronized void discarded (){
+      --this._open;
+      this.notifyAll ();
+   }//end discarded
+
+   // runs a trivial query to make sure the connection is still alive.
+   private boolean validate (PooledConnection pc){
+      try{
+         Statement stmt = pc.connection ().createStatement ();
+         try{
+            stmt.executeQuery ("SELECT 1").close ();
+         }finally{
+            stmt.close ();
+         }//end try
+         return true;
+      }catch (SQLException e){
+         return false;
+      }//end try
+   }//end validate
+
+   // closes every idle connection after a failed validation.
+   private void purgeIdle (){
+      LinkedList<PooledConnection> idle;
+      synchronized (this){
+         idle = new LinkedList<PooledConnection> (this._idle);
+         this._open -= this._idle.size ();
+         this._idle.clear ();
+         this.notifyAll ();
+      }//end synchronized
+      for (PooledConnection pc : idle)
+         close (pc);
+   }//end purgeIdle
+
+   // closes idle connections above minSize and tops the pool back up to minSize.
+   private void evictLoop (){
+      long period = Math.max (1000L, this._idleTimeout / 2);
+      while (true){
+         try{
+            Thread.sleep (period);
+         }catch (InterruptedException e){
+            return;
+         }//end try
+
+         LinkedList<PooledConnection> expired = new LinkedList<PooledConnection> ();
+         int missing;
+         synchronized (this){
+            if (this._closed) return;
+            long now = System.currentTimeMillis ();
+            // the oldest connections are at the end of the idle list.
+            Iterator<PooledConnection> it = this._idle.descendingIterator ();
+            while (it.hasNext () && this._open > this._minSize){
+               PooledConnection pc = it.next ();
+               if (now - pc.lastUsed () < this._idleTimeout) break;
+               it.remove ();
+               --this._open;
+               expired.add (pc);
+            }//end while
+            missing = this._minSize - this._open;
+            this._open += Math.max (0, missing);
+         }//end synchronized
+         for (PooledConnection pc : expired)
+            close (pc);
+
+         for (int i = 0; i < missing; ++i){
+            try{
+               PooledConnection pc = open ();
+               synchronized (this){
+                  if (this._closed){
+                     --this._open;
+                     close (pc);
+                     return;
+                  }//end if
+                  this._idle.addLast (pc);
+                  this.notifyAll ();
+               }//end synchronized
+            }catch (SQLException e){
+               // the server is unavailable; try again on the next round.
+               discarded ();
+            }//end try
+         }//end for
+      }//end while
+   }//end evictLoop
+
+   private static void close (PooledConnection pc){
+      try{
+         pc.connection ().close ();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end close
+
+}//end ConnectionPool
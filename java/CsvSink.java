@@ -0,0 +1,57 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes results as RFC 4180 CSV: a header line of column names, then one
+ * line per row.  Values containing a comma, quote or line break are quoted,
+ * and SQL NULL is written as an empty field.
+ *
+ */
+public class CsvSink extends TextSink {
+
+   public CsvSink (Writer out){
+      super (out);
+   }//end CsvSink
+
+   public CsvSink (WritableByteChannel channel){
+      super (channel);
+   }//end CsvSink
+
+   public void header (String[] names, int[] types) throws IOException {
+      for (int i = 0; i < names.length; ++i){
+         if (i > 0) this._out.write (',');
+         field (names[i]);
+      }//end for
+      this._out.write ("\r\n");
+   }//end header
+
+   public void row (String[] values) throws IOException {
+      for (int i = 0; i < values.length; ++i){
+         if (i > 0) this._out.write (',');
+         if (values[i] != null)
+            field (values[i]);
+      }//end for
+      this._out.write ("\r\n");
+   }//end row
+
+   private void field (String v) throws IOException {
+      boolean quote = false;
+      for (int i = 0; i < v.length () && !quote; ++i){
+         char c = v.charAt (i);
+         quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+      }//end for
+      if (!quote){
+         this._out.write (v);
+         return;
+      }//end if
+      this._out.write ('"');
+      for (int i = 0; i < v.length (); ++i){
+         char c = v.charAt (i);
+         if (c == '"') this._out.write ('"');
+         this._out.write (c);
+      }//end for
+      this._out.write ('"');
+   }//end field
+
+}//end CsvSink
@@ -11,18 +11,35 @@
  */
 
 
-import java.sql.DriverManager;
-import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.sql.CallableStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.sql.Date;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.BufferedWriter;
+import java.io.PrintWriter;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -31,8 +48,69 @@ import java.util.Date;
  */
 public class DBProject {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections shared by all menu operations.
+   private ConnectionPool _pool = null;
+
+   // connection of the transaction opened by begin() on the current thread.
+   private final ThreadLocal<PooledConnection> _transaction = new ThreadLocal<PooledConnection>();
+
+   // actions waiting for the transaction of the current thread to commit.
+   private final ThreadLocal<List<Runnable>> _onCommit = new ThreadLocal<List<Runnable>>();
+
+   // primary keys of new rows, handed out from blocks of the id sequences.
+   private final IdAllocator _ids = new IdAllocator (this);
+
+   // in-memory room occupancy, see dbproject.occupancy; null when disabled.
+   private volatile OccupancyIndex _occupancy = null;
+
+   // in-memory repair counts of the companies, see dbproject.leaderboard;
+   // null when disabled.
+   private volatile CompanyLeaderboard _leaderboard = null;
+
+   // results of the reporting operations, see dbproject.cache.size; null
+   // when disabled.
+   private ResultCache _cache = null;
+
+   // follows the changes made by other processes, see listenForChanges();
+   // null when not started.
+   private ChangeListener _listener = null;
+
+   // the oldest transaction still running when the in-memory state was
+   // first loaded (see ChangeListener), -1 until then or when changes are
+   // not logged.
+   private long _changesFrom = -1;
+
+   // file the metrics are written to, see dbproject.metrics.file.
+   private final String _metricsFile = System.getProperty ("dbproject.metrics.file");
+
+   // plans of the statements issued, see dbproject.explain; null when off.
+   private volatile PlanCapture _explain = null;
+
+   // threads running the queries of submitQuery(); created on first use.
+   private ExecutorService _async = null;
+
+   // batches the rows of the write operations, see batcher(); created on
+   // first use.
+   private WriteBatcher _batcher = null;
+
+   // the SQL state of a foreign key violation, for the checks made by the
+   // functions of create.sql.
+   static final String FOREIGN_KEY_VIOLATION = "23503";
+
+   // name of the cursor used by streamQuery().
+   private static final String CURSOR = "dbproject_cursor";
+
+   // rows fetched per round trip by streamQuery(), see dbproject.fetchSize.
+   private final int _fetchSize = Integer.getInteger ("dbproject.fetchSize", 1000);
+
+   // query results are written to standard out through this buffered writer
+   // and flushed once per query rather than once per cell.
+   static final PrintWriter out = new PrintWriter (new BufferedWriter (
+                                new OutputStreamWriter (System.out), 1 << 16), false);
+
+   // destination of query results, see dbproject.output.
+   private ResultSink _sink = new TsvSink (out);
+   private boolean _sinkIsFile = false;
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -42,6 +120,16 @@ public class DBProject {
    /**
     * Creates a new instance of DBProject
     *
+    * The connection pool is sized through the system properties
+    * dbproject.pool.min, dbproject.pool.max, dbproject.pool.idleTimeout,
+    * dbproject.pool.validateAfter and dbproject.pool.borrowTimeout (all
+    * timeouts in milliseconds).  Query results are written as described by
+    * dbproject.output (see ResultSinks), tab separated to standard out by
+    * default.  When dbproject.metrics.file is set, the latency metrics are
+    * written to that file every dbproject.metrics.interval seconds (10 by
+    * default) in the Prometheus text format.  When dbproject.explain is set,
+    * the plan of every statement is captured to that file (see PlanCapture).
+    *
     * @param hostname the MySQL or PostgreSQL server hostname
     * @param database the name of the database
     * @param username the user name used to login to the database
@@ -56,8 +144,28 @@ public class DBProject {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         String output = System.getProperty ("dbproject.output");
+         if (output != null){
+            this._sink = ResultSinks.open (output, out);
+            this._sinkIsFile = output.indexOf (':') >= 0;
+         }//end if
+
+         // open the pool of physical connections
+         this._pool = new ConnectionPool (url, user, passwd,
+               Integer.getInteger ("dbproject.pool.min", 1),
+               Integer.getInteger ("dbproject.pool.max", 8),
+               Long.getLong ("dbproject.pool.idleTimeout", 60000L),
+               Long.getLong ("dbproject.pool.validateAfter", 1000L),
+               Long.getLong ("dbproject.pool.borrowTimeout", 30000L));
+         int cacheSize = Integer.getInteger ("dbproject.cache.size", 1000);
+         if (cacheSize > 0)
+            this._cache = new ResultCache (cacheSize, Integer.getInteger ("dbproject.cache.maxRows", 1000),
+                  Long.getLong ("dbproject.cache.ttl", 60L) * 1000);
+         if (this._metricsFile != null)
+            Metrics.writePeriodically (this._metricsFile, Long.getLong ("dbproject.metrics.interval", 10L));
+         String explain = System.getProperty ("dbproject.explain");
+         if (explain != null)
+            this._explain = new PlanCapture (explain);
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -74,16 +182,86 @@ public class DBProject {
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      PooledConnection pc = acquire ();
+      try{
+         // creates a statement object
+         Statement stmt = pc.connection ().createStatement ();
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+         // issues the update instruction
+         long start = System.nanoTime ();
+         stmt.executeUpdate (sql);
+         Metrics.db ("executeUpdate", System.nanoTime () - start);
 
-      // close the instruction
-      stmt.close ();
+         // close the instruction
+         stmt.close ();
+      }finally{
+         done (pc);
+      }//end try
+   }//end executeUpdate
+
+   /**
+    * Method to execute a parameterized update SQL statement through the
+    * prepared statement cache of the borrowed connection.
+    *
+    * @param op the operation issuing the statement, used as the cache key
+    * @param sql the input SQL string with ? placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String op, String sql, Object... params) throws SQLException {
+      PooledConnection pc = acquire ();
+      try{
+         explain (pc, op, sql, params);
+         PreparedStatement stmt = pc.statements ().prepare (op, sql);
+         bind (stmt, params);
+         long start = System.nanoTime ();
+         try{
+            return stmt.executeUpdate ();
+         }catch (SQLException e){
+            pc.statements ().evict (op);
+            throw e;
+         }finally{
+            Metrics.db (op, System.nanoTime () - start);
+         }//end try
+      }finally{
+         done (pc);
+      }//end try
    }//end executeUpdate
 
+   /**
+    * Method to call a database function returning text through a callable
+    * statement of the prepared statement cache, in a single round trip.
+    * The statement is not explained: see the statements of the function
+    * in the server log instead.
+    *
+    * @param op the operation issuing the call, used as the cache key
+    * @param call the call, "{? = call f(?, ...)}"
+    * @param params the values bound to the arguments, in order
+    * @return the value returned by the function
+    * @throws java.sql.SQLException when the call failed
+    */
+   public String callFunction (String op, String call, Object... params) throws SQLException {
+      PooledConnection pc = acquire ();
+      try{
+         CallableStatement stmt = pc.statements ().prepareCall (op, call);
+         stmt.registerOutParameter (1, Types.VARCHAR);
+         bindFrom (stmt, 2, params);
+         long start = System.nanoTime ();
+         try{
+            stmt.execute ();
+            return stmt.getString (1);
+         }catch (SQLException e){
+            pc.statements ().evict (op);
+            throw e;
+         }finally{
+            Metrics.db (op, System.nanoTime () - start);
+         }//end try
+      }finally{
+         done (pc);
+      }//end try
+   }//end callFunction
+
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and outputs the results to
@@ -94,50 +272,804 @@ public class DBProject {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      PooledConnection pc = acquire ();
+      try{
+         // creates a statement object
+         Statement stmt = pc.connection ().createStatement ();
+
+         // issues the query instruction
+         long start = System.nanoTime ();
+         ResultSet rs = stmt.executeQuery (query);
+         long fetched = System.nanoTime ();
+         Metrics.db ("executeQuery", fetched - start);
+         int rowCount = printResult (rs);
+         Metrics.client ("executeQuery", System.nanoTime () - fetched);
+         stmt.close ();
+         return rowCount;
+      }finally{
+         done (pc);
+      }//end try
+   }//end executeQuery
+
+   /**
+    * Method to execute a parameterized query through the prepared statement
+    * cache of the borrowed connection and output the results to standard out.
+    *
+    * @param op the operation issuing the query, used as the cache key
+    * @param query the input query string with ? placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String op, String query, Object... params) throws SQLException {
+      try{
+         explain (op, query, params);
+         return query (op, query, params, null);
+      }finally{
+         long start = System.nanoTime ();
+         flushSink ();
+         Metrics.client (op, System.nanoTime () - start);
+      }//end try
+   }//end executeQuery
+
+   /*
+    * Runs a parameterized query in one round trip and hands its rows to the
+    * handler, or to the result sink when there is none.
+    */
+   private int query (String op, String query, Object[] params, RowHandler handler) throws SQLException {
+      PooledConnection pc = acquire ();
+      try{
+         PreparedStatement stmt = pc.statements ().prepare (op, query);
+         bind (stmt, params);
+         ResultSet rs;
+         long start = System.nanoTime ();
+         try{
+            rs = stmt.executeQuery ();
+         }catch (SQLException e){
+            pc.statements ().evict (op);
+            throw e;
+         }finally{
+            Metrics.db (op, System.nanoTime () - start);
+         }//end try
+         start = System.nanoTime ();
+         try{
+            return handler == null ? printRows (rs, true) : handleRows (rs, handler);
+         }finally{
+            rs.close ();
+            Metrics.client (op, System.nanoTime () - start);
+         }//end try
+      }finally{
+         done (pc);
+      }//end try
+   }//end query
+
+   /**
+    * Method to issue a parameterized query without waiting for it.  The
+    * query runs on a thread of its own over a connection borrowed from the
+    * pool, so queries submitted one after the other are all in flight at
+    * the same time and cost about one round trip together.  The rows are
+    * held in memory; use it for small results only.
+    *
+    * The query never runs in the transaction of the calling thread: it only
+    * sees committed rows.
+    *
+    * @param op the operation issuing the query, used as the cache key
+    * @param query the input query string with ? placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the result, see QueryResult.get()
+    */
+   public Future<QueryResult> submitQuery (final String op, final String query, final Object... params){
+      return async ().submit (new Callable<QueryResult> (){
+         public QueryResult call () throws SQLException {
+            explain (op, query, params);
+            QueryResult result = new QueryResult ();
+            query (op, query, params, result.collector ());
+            return result;
+         }
+      });
+   }//end submitQuery
+
+   /*
+    * The threads of submitQuery(), as many as dbproject.async.threads
+    * (default dbproject.pool.max): more could only wait for a connection.
+    */
+   private synchronized ExecutorService async (){
+      if (this._async == null){
+         final AtomicInteger count = new AtomicInteger ();
+         this._async = Executors.newFixedThreadPool (
+               Integer.getInteger ("dbproject.async.threads", Integer.getInteger ("dbproject.pool.max", 8)),
+               new ThreadFactory (){
+            public Thread newThread (Runnable r){
+               Thread t = new Thread (r, "dbproject-query-" + count.incrementAndGet ());
+               t.setDaemon (true);
+               return t;
+            }
+         });
+      }//end if
+      return this._async;
+   }//end async
+
+   /**
+    * Method to execute a parameterized query whose result may be large.  The
+    * query is run through a server-side cursor and fetched dbproject.fetchSize
+    * rows at a time, so neither the driver nor the JVM ever holds the whole
+    * result.  Unless the calling thread already has a transaction open, the
+    * cursor lives in its own read-only transaction.
+    *
+    * @param op the operation issuing the query, used as the cache key
+    * @param query the input query string with ? placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int streamQuery (String op, String query, Object... params) throws SQLException {
+      try{
+         explain (op, query, params);
+         return cursor (op, query, params, null);
+      }finally{
+         long start = System.nanoTime ();
+         flushSink ();
+         Metrics.client (op, System.nanoTime () - start);
+      }//end try
+   }//end streamQuery
+
+   /**
+    * Method to run a reporting query through the result cache.  A cached
+    * result is printed without a round trip to the database; otherwise the
+    * query runs like executeQuery() and its result is cached, unless it has
+    * more than dbproject.cache.maxRows rows.  Results are kept for
+    * dbproject.cache.ttl seconds at most.  The cache is bypassed inside a
+    * transaction, whose changes may not be committed yet.
+    *
+    * @param op the operation issuing the query, used as the cache key
+    * @param query the input query string with ? placeholders
+    * @param tags what the result is computed from, see ResultCache and
+    *             invalidate()
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int cachedQuery (String op, String query, String[] tags, Object... params) throws SQLException {
+      return cached (op, query, tags, params, false);
+   }//end cachedQuery
+
+   /**
+    * Method to run a reporting query whose result may be large through the
+    * result cache: like cachedQuery(), but the query is streamed through a
+    * cursor like streamQuery().
+    */
+   public int cachedStream (String op, String query, String[] tags, Object... params) throws SQLException {
+      return cached (op, query, tags, params, true);
+   }//end cachedStream
+
+   private int cached (String op, String query, String[] tags, Object[] params, boolean stream) throws SQLException {
+      ResultCache cache = this._cache;
+      if (cache == null || this._transaction.get () != null)
+         return stream ? streamQuery (op, query, params) : executeQuery (op, query, params);
+      String key = ResultCache.key (op, params);
+      try{
+         QueryResult result = cache.get (key);
+         if (result != null){
+            long start = System.nanoTime ();
+            try{
+               return result.print (this);
+            }finally{
+               Metrics.client (op, System.nanoTime () - start);
+            }//end try
+         }//end if
+         long stamp = cache.stamp ();
+         explain (op, query, params);
+         result = new QueryResult ();
+         RowHandler tee = result.tee (this._sink, cache.maxRows ());
+         int rowCount = stream ? cursor (op, query, params, tee) : query (op, query, params, tee);
+         cache.put (key, result, tags, stamp);
+         return rowCount;
+      }finally{
+         long start = System.nanoTime ();
+         flushSink ();
+         Metrics.client (op, System.nanoTime () - start);
+      }//end try
+   }//end cached
+
+   /**
+    * Drops the cached results computed from the given rows once the changes
+    * made so far on the current thread are committed.
+    *
+    * @param tags what was changed, see ResultCache
+    */
+   public void invalidate (final String... tags){
+      final ResultCache cache = this._cache;
+      if (cache == null) return;
+      afterCommit (new Runnable (){
+         public void run (){
+            cache.invalidate (tags);
+         }
+      });
+   }//end invalidate
+
+   /**
+    * @return the result cache, or null when it is disabled
+    */
+   public ResultCache cache (){
+      return this._cache;
+   }//end cache
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Method to run a parameterized query without printing it.  Every row is
+    * handed to the handler instead, fetched through a cursor exactly like
+    * streamQuery() does.
+    *
+    * @param op the operation issuing the query, used as the cache key
+    * @param query the input query string with ? placeholders
+    * @param handler receives every row of the result
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int scan (String op, String query, RowHandler handler, Object... params) throws SQLException {
+      return cursor (op, query, params, handler);
+   }//end scan
 
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
+   /**
+    * Method to run a parameterized query without printing it, in a single
+    * round trip and without a cursor.  Meant for small results and for
+    * queries with side effects, such as nextval(), which cannot run in the
+    * read-only transaction of a cursor.
+    *
+    * @param op the operation issuing the query, used as the cache key
+    * @param query the input query string with ? placeholders
+    * @param handler receives every row of the result
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int fetch (String op, String query, RowHandler handler, Object... params) throws SQLException {
+      return query (op, query, params, handler);
+   }//end fetch
+
+   /*
+    * Runs a query through a server-side cursor and hands its rows to the
+    * handler, or to the result sink when there is none.
+    */
+   private int cursor (String op, String query, Object[] params, RowHandler handler) throws SQLException {
+      if (this._fetchSize <= 0)
+         return query (op, query, params, handler);
+
+      boolean ownTransaction = this._transaction.get () == null;
+      PooledConnection pc = acquire ();
+      Statement stmt = null;
+      // everything but the handling of the fetched rows is database time.
+      long start = System.nanoTime ();
+      long client = 0;
+      try{
+         if (ownTransaction){
+            pc.connection ().setAutoCommit (false);
+            stmt = pc.connection ().createStatement ();
+            stmt.executeUpdate ("SET TRANSACTION READ ONLY");
+         }else{
+            stmt = pc.connection ().createStatement ();
+         }//end if
+
+         // DECLARE cannot be prepared on the server, its parameters are bound
+         // by the driver instead.
+         String key = op + ".cursor";
+         PreparedStatement declare = pc.statements ().prepare (key, declareCursor (query), false);
+         bind (declare, params);
+         try{
+            declare.executeUpdate ();
+         }catch (SQLException e){
+            pc.statements ().evict (key);
+            throw e;
+         }//end try
+
+         int rowCount = 0;
+         boolean complete = false;
+         try{
+            String fetch = "FETCH FORWARD " + this._fetchSize + " FROM " + CURSOR;
+            while (true){
+               ResultSet rs = stmt.executeQuery (fetch);
+               int fetched;
+               long handling = System.nanoTime ();
+               try{
+                  fetched = handler == null ? printRows (rs, rowCount == 0) : handleRows (rs, handler);
+               }finally{
+                  rs.close ();
+                  client += System.nanoTime () - handling;
+               }//end try
+               rowCount += fetched;
+               if (fetched < this._fetchSize) break;
+            }//end while
+            complete = true;
+         }finally{
+            if (!ownTransaction){
+               try{
+                  stmt.executeUpdate ("CLOSE " + CURSOR);
+               }catch (SQLException e){
+                  // after a failed fetch the transaction is aborted and the
+                  // CLOSE fails too: the error of the fetch is the one thrown.
+                  if (complete)
+                     throw e;
+               }//end try
+            }//end if
+         }//end try
+
+         if (ownTransaction){
+            pc.connection ().commit ();
+            pc.connection ().setAutoCommit (true);
+         }//end if
+         return rowCount;
+      }finally{
+         if (stmt != null)
+            stmt.close ();
+         done (pc);
+         Metrics.db (op, System.nanoTime () - start - client);
+         Metrics.client (op, client);
+      }//end try
+   }//end cursor
+
+   /*
+    * Outputs a result set to the result sink.
+    */
+   private int printResult (ResultSet rs) throws SQLException {
+      try{
+         return printRows (rs, true);
+      }finally{
+         flushSink ();
+      }//end try
+   }//end printResult
+
+   /*
+    * Outputs the remaining rows of a result set to the result sink, preceded
+    * by the header when asked for and there is at least one row.
+    */
+   private int printRows (ResultSet rs, boolean outputHeader) throws SQLException {
+      return printRows (rs, this._sink, outputHeader);
+   }//end printRows
+
+   /*
+    * Writes the remaining rows of a result set to a sink, preceded by the
+    * header when asked for and there is at least one row.
+    */
+   static int printRows (ResultSet rs, ResultSink sink, boolean outputHeader) throws SQLException {
       ResultSetMetaData rsmd = rs.getMetaData ();
       int numCol = rsmd.getColumnCount ();
       int rowCount = 0;
+      try{
+         while (rs.next ()){
+            if (outputHeader){
+               String[] names = new String[numCol];
+               int[] types = new int[numCol];
+               for (int i = 0; i < numCol; ++i){
+                  names[i] = rsmd.getColumnName (i + 1);
+                  types[i] = rsmd.getColumnType (i + 1);
+               }//end for
+               sink.header (names, types);
+               outputHeader = false;
+            }//end if
+            String[] values = new String[numCol];
+            for (int i = 0; i < numCol; ++i)
+               values[i] = rs.getString (i + 1);
+            sink.row (values);
+            ++rowCount;
+         }//end while
+      }catch (IOException e){
+         throw new SQLException ("Unable to write the result: " + e.getMessage ());
+      }//end try
+      return rowCount;
+   }//end printRows
 
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-	 if(outputHeader){
-	    for(int i = 1; i <= numCol; i++){
-		System.out.print(rsmd.getColumnName(i) + "\t");
-	    }
-	    System.out.println();
-	    outputHeader = false;
-	 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
+   /**
+    * Outputs rows computed in memory to the result sink, exactly as if they
+    * had been returned by a query.
+    *
+    * @param names the column names
+    * @param types the java.sql.Types of the columns
+    * @param rows the rows, as text
+    * @return the number of rows
+    */
+   public int printRows (String[] names, int[] types, List<String[]> rows) throws SQLException {
+      try{
+         if (!rows.isEmpty ())
+            this._sink.header (names, types);
+         for (String[] row : rows)
+            this._sink.row (row);
+      }catch (IOException e){
+         throw new SQLException ("Unable to write the result: " + e.getMessage ());
+      }finally{
+         flushSink ();
+      }//end try
+      return rows.size ();
+   }//end printRows
+
+   /*
+    * Hands the remaining rows of a result set to a handler.
+    */
+   private static int handleRows (ResultSet rs, RowHandler handler) throws SQLException {
+      int rowCount = 0;
+      while (rs.next ()){
+         handler.row (rs);
          ++rowCount;
       }//end while
-      stmt.close ();
       return rowCount;
-   }//end executeQuery
+   }//end handleRows
+
+   private void flushSink () throws SQLException {
+      try{
+         this._sink.flush ();
+      }catch (IOException e){
+         throw new SQLException ("Unable to write the result: " + e.getMessage ());
+      }//end try
+   }//end flushSink
 
    /**
-    * Method to close the physical connection if it is open.
+    * Replaces the destination of query results.  The previous sink is
+    * flushed but not closed.
+    *
+    * @param sink the new destination
     */
-   public void cleanup(){
+   public void setSink (ResultSink sink) throws SQLException {
+      flushSink ();
+      this._sink = sink;
+   }//end setSink
+
+   /*
+    * Builds the statement declaring the cursor of streamQuery() over a query.
+    */
+   static String declareCursor (String query){
+      return "DECLARE " + CURSOR + " NO SCROLL CURSOR FOR " + stripSemicolon (query);
+   }//end declareCursor
+
+   static String stripSemicolon (String query){
+      String q = query.trim ();
+      return q.endsWith (";") ? q.substring (0, q.length () - 1) : q;
+   }//end stripSemicolon
+
+   /*
+    * Binds the parameters of a prepared statement by their Java type.
+    */
+   static void bind (PreparedStatement stmt, Object... params) throws SQLException {
+      bindFrom (stmt, 1, params);
+   }//end bind
+
+   /*
+    * Binds the parameters to the placeholders from the given one on.
+    */
+   private static void bindFrom (PreparedStatement stmt, int first, Object[] params) throws SQLException {
+      for (int i = 0; i < params.length; ++i){
+         Object p = params[i];
+         int index = first + i;
+         if (p == null)
+            stmt.setNull (index, Types.VARCHAR);
+         else if (p instanceof Integer)
+            stmt.setInt (index, (Integer) p);
+         else if (p instanceof Long)
+            stmt.setLong (index, (Long) p);
+         else if (p instanceof BigDecimal)
+            stmt.setBigDecimal (index, (BigDecimal) p);
+         else if (p instanceof Date)
+            stmt.setDate (index, (Date) p);
+         else if (p instanceof Boolean)
+            stmt.setBoolean (index, (Boolean) p);
+         else if (p instanceof String)
+            stmt.setString (index, (String) p);
+         else
+            throw new SQLException ("Unsupported parameter type: " + p.getClass ().getName ());
+      }//end for
+   }//end bindFrom
+
+   /**
+    * Checks that a year, month and day form a valid calendar date.
+    *
+    * @return true when the date exists
+    */
+   public static boolean validDate (int year, int month, int day){
+      if (year <= 0 || year > 9999 || month < 1 || month > 12 || day < 1)
+         return false;
+      switch (month){
+         case 4: case 6: case 9: case 11:
+            return day <= 30;
+         case 2:
+            boolean isLeap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            return day <= (isLeap ? 29 : 28);
+         default:
+            return day <= 31;
+      }//end switch
+   }//end validDate
+
+   /**
+    * Builds a SQL date from a year, month and day that have already been
+    * validated by the caller.
+    *
+    * @return the date
+    */
+   public static Date toDate (int year, int month, int day){
+      Calendar cal = new GregorianCalendar (year, month - 1, day);
+      return new Date (cal.getTimeInMillis ());
+   }//end toDate
+
+   /**
+    * @return the date the given number of days after (or before) date
+    */
+   public static Date addDays (Date date, int days){
+      Calendar cal = new GregorianCalendar ();
+      cal.setTime (date);
+      cal.add (Calendar.DAY_OF_MONTH, days);
+      return new Date (cal.getTimeInMillis ());
+   }//end addDays
+
+   /*
+    * Captures the plan of a statement about to be issued by an operation,
+    * when plan capture is on.
+    */
+   private void explain (String op, String sql, Object[] params) throws SQLException {
+      if (this._explain == null) return;
+      PooledConnection pc = acquire ();
       try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
+         explain (pc, op, sql, params);
+      }finally{
+         done (pc);
+      }//end try
+   }//end explain
+
+   private void explain (PooledConnection pc, String op, String sql, Object[] params){
+      PlanCapture capture = this._explain;
+      if (capture != null)
+         capture.capture (pc, pc == this._transaction.get (), op, sql, params);
+   }//end explain
+
+   /**
+    * Turns the capture of the plans of the statements issued on or off.
+    *
+    * @param file the file the plans are appended to, or null to turn the
+    *             capture off
+    * @throws java.io.IOException when the file cannot be opened
+    */
+   public synchronized void setPlanCapture (String file) throws IOException {
+      if (this._explain != null){
+         this._explain.close ();
+         this._explain = null;
+      }//end if
+      if (file != null)
+         this._explain = new PlanCapture (file);
+   }//end setPlanCapture
+
+   /**
+    * @return the file plans are captured to, or null when the capture is off
+    */
+   public String planCapture (){
+      PlanCapture capture = this._explain;
+      return capture != null ? capture.file () : null;
+   }//end planCapture
+
+   /**
+    * Starts a transaction on the current thread.  Until commit() or
+    * rollback() is called, every statement issued by this thread runs on the
+    * same connection inside that transaction.
+    *
+    * @throws java.sql.SQLException when no connection could be obtained
+    */
+   public void begin () throws SQLException {
+      if (this._transaction.get () != null)
+         throw new SQLException ("A transaction is already open on this thread");
+      PooledConnection pc = this._pool.borrow ();
+      try{
+         pc.connection ().setAutoCommit (false);
       }catch (SQLException e){
-         // ignored.
+         this._pool.invalidate (pc);
+         throw e;
       }//end try
+      this._transaction.set (pc);
+      this._onCommit.remove ();
+   }//end begin
+
+   /**
+    * Commits the transaction opened by begin() on the current thread.
+    *
+    * @throws java.sql.SQLException when the commit failed
+    */
+   public void commit () throws SQLException {
+      PooledConnection pc = this._transaction.get ();
+      if (pc == null)
+         throw new SQLException ("No transaction is open on this thread");
+      this._transaction.remove ();
+      List<Runnable> actions = this._onCommit.get ();
+      this._onCommit.remove ();
+      try{
+         pc.connection ().commit ();
+      }finally{
+         this._pool.release (pc);
+      }//end try
+      if (actions != null)
+         for (Runnable action : actions)
+            action.run ();
+   }//end commit
+
+   /**
+    * Rolls back the transaction opened by begin() on the current thread, if
+    * any.
+    */
+   public void rollback (){
+      PooledConnection pc = this._transaction.get ();
+      if (pc == null) return;
+      this._transaction.remove ();
+      this._onCommit.remove ();
+      // release() rolls back whatever is left uncommitted.
+      this._pool.release (pc);
+   }//end rollback
+
+   /**
+    * Runs an action once the changes made so far on the current thread are
+    * committed: immediately outside of a transaction, after commit() inside
+    * one.  The action is dropped if the transaction is rolled back.
+    *
+    * @param action the action to run
+    */
+   public void afterCommit (Runnable action){
+      if (this._transaction.get () == null){
+         action.run ();
+         return;
+      }//end if
+      List<Runnable> actions = this._onCommit.get ();
+      if (actions == null){
+         actions = new ArrayList<Runnable> ();
+         this._onCommit.set (actions);
+      }//end if
+      actions.add (action);
+   }//end afterCommit
+
+   /**
+    * @return the write batcher of the process, started on first use with
+    *         dbproject.batcher.rows rows per batch (500) and a delay of
+    *         dbproject.batcher.delay milliseconds (20), see WriteBatcher
+    */
+   public synchronized WriteBatcher batcher (){
+      if (this._batcher == null)
+         this._batcher = new WriteBatcher (this, Integer.getInteger ("dbproject.batcher.rows", 500),
+               Long.getLong ("dbproject.batcher.delay", 20L));
+      return this._batcher;
+   }//end batcher
+
+   /**
+    * @param table the table a row is about to be inserted into
+    * @return a new primary key for that table, see IdAllocator
+    * @throws java.sql.SQLException when no block of ids can be reserved
+    */
+   public int nextId (String table) throws SQLException {
+      return this._ids.next (table);
+   }//end nextId
+
+   /**
+    * Loads the room occupancy index from the database, unless it has been
+    * disabled with -Ddbproject.occupancy=false.  Availability queries are
+    * answered from the index once it is loaded.
+    *
+    * @throws java.sql.SQLException when the rooms or bookings cannot be read
+    */
+   public void loadOccupancy () throws SQLException {
+      if (!Boolean.parseBoolean (System.getProperty ("dbproject.occupancy", "true")))
+         return;
+      markChanges ();
+      this._occupancy = OccupancyIndex.load (this);
+   }//end loadOccupancy
+
+   /**
+    * @return the room occupancy index, or null when it is not loaded
+    */
+   public OccupancyIndex occupancy (){
+      return this._occupancy;
+   }//end occupancy
+
+   /**
+    * Loads the leaderboard of the maintenance companies from the database,
+    * unless it has been disabled with -Ddbproject.leaderboard=false.  The
+    * top k companies are read from it once it is loaded.
+    *
+    * @throws java.sql.SQLException when the companies or repairs cannot be
+    *         read
+    */
+   public void loadLeaderboard () throws SQLException {
+      if (!Boolean.parseBoolean (System.getProperty ("dbproject.leaderboard", "true")))
+         return;
+      markChanges ();
+      this._leaderboard = CompanyLeaderboard.load (this);
+   }//end loadLeaderboard
+
+   /**
+    * @return the company leaderboard, or null when it is not loaded
+    */
+   public CompanyLeaderboard leaderboard (){
+      return this._leaderboard;
+   }//end leaderboard
+
+   /**
+    * Starts following the changes other processes make to the tables the
+    * in-memory state is built from, every dbproject.changes.interval
+    * milliseconds (500, 0 disables it), see ChangeListener.  Call it once
+    * the state is loaded.
+    */
+   public synchronized void listenForChanges (){
+      long interval = Long.getLong ("dbproject.changes.interval", 500L);
+      if (interval <= 0 || this._listener != null)
+         return;
+      markChanges ();
+      if (this._changesFrom < 0){
+         System.err.println ("Changes made by other clients are not followed: no ChangeLog table, recreate the tables from create.sql");
+         return;
+      }//end if
+      this._listener = new ChangeListener (this, this._pool, interval, this._changesFrom);
+      this._listener.start ();
+   }//end listenForChanges
+
+   /*
+    * Remembers the oldest transaction running before the in-memory state is
+    * first loaded: the listener applies every change of it and of the later
+    * ones, which the load may not see.
+    */
+   private synchronized void markChanges (){
+      if (this._changesFrom >= 0)
+         return;
+      try{
+         fetch ("changes.last", "SELECT txid_snapshot_xmin(txid_current_snapshot()), COUNT(*) FROM (SELECT txid FROM ChangeLog LIMIT 1) c", new RowHandler (){
+            public void row (ResultSet rs) throws SQLException {
+               DBProject.this._changesFrom = rs.getLong (1);
+            }
+         });
+      }catch (SQLException e){
+         // changes are not logged by this schema.
+      }//end try
+   }//end markChanges
+
+   /*
+    * Returns the connection of the current transaction, or borrows one for a
+    * single statement.
+    */
+   private PooledConnection acquire () throws SQLException {
+      PooledConnection pc = this._transaction.get ();
+      return pc != null ? pc : this._pool.borrow ();
+   }//end acquire
+
+   /*
+    * Hands a connection obtained from acquire() back, unless it belongs to
+    * the current transaction.
+    */
+   private void done (PooledConnection pc){
+      if (pc != this._transaction.get ())
+         this._pool.release (pc);
+   }//end done
+
+   /**
+    * Method to close the physical connections of the pool if it is open.
+    */
+   public void cleanup(){
+      try{
+         if (this._sinkIsFile)
+            this._sink.close ();
+         else
+            this._sink.flush ();
+      }catch (IOException e){
+         System.err.println ("Unable to write the result: " + e.getMessage ());
+      }//end try
+      if (this._metricsFile != null){
+         try{
+            Metrics.write (this._metricsFile);
+         }catch (IOException e){
+            System.err.println ("Unable to write the metrics: " + e.getMessage ());
+         }//end try
+      }//end if
+      synchronized (this){
+         if (this._batcher != null)
+            this._batcher.close ();
+         if (this._async != null)
+            this._async.shutdownNow ();
+         if (this._listener != null)
+            this._listener.stop ();
+      }//end synchronized
+      if (this._explain != null){
+         this._explain.close ();
+      }//end if
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -146,26 +1078,34 @@ public class DBProject {
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      boolean batch = args.length == 5 && args[3].equals ("--batch");
+      if (args.length != 3 && !batch) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             DBProject.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [--batch <file|->]");
          return;
       }//end if
+
+      if (batch) {
+         System.exit (BatchRunner.run (args[0], args[1], args[2], args[4]));
+      }//end if
       
       Greeting();
       DBProject esql = null;
       try{
          // use postgres JDBC driver.
          Class.forName ("org.postgresql.Driver").newInstance ();
-         // instantiate the DBProject object and creates a physical
-         // connection.
+         // instantiate the DBProject object and creates the pool of
+         // physical connections.
          String dbname = args[0];
          String dbport = args[1];
          String user = args[2];
          esql = new DBProject (dbname, dbport, user, "");
+         esql.loadOccupancy ();
+         esql.loadLeaderboard ();
+         esql.listenForChanges ();
 
          boolean keepon = true;
          while(keepon) {
@@ -188,7 +1128,10 @@ public class DBProject {
 				System.out.println("14. List the repairs made by maintenance company");
 				System.out.println("15. Get top k maintenance companies based on repair count");
 				System.out.println("16. Get number of repairs occurred per year for a given hotel room");
-				System.out.println("17. < EXIT");
+				System.out.println("17. Show operation metrics");
+				System.out.println("18. Toggle EXPLAIN capture");
+				System.out.println("19. Hotel dashboard");
+				System.out.println("20. < EXIT");
 
             switch (readChoice()){
 				   case 1: addCustomer(esql); break;
@@ -207,7 +1150,10 @@ public class DBProject {
 				   case 14: listRepairsMade(esql); break;
 				   case 15: topKMaintenanceCompany(esql); break;
 				   case 16: numberOfRepairsForEachRoomPerYear(esql); break;
-				   case 17: keepon = false; break;
+				   case 17: Metrics.print(out); break;
+				   case 18: togglePlanCapture(esql); break;
+				   case 19: hotelDashboard(esql); break;
+				   case 20: keepon = false; break;
 				   default : System.out.println("Unrecognized choice!"); break;
             }//end switch
          }//end while
@@ -258,18 +1204,6 @@ public class DBProject {
    public static void addCustomer(DBProject esql){//DONE
 	  // Given customer details add the customer in the DB 
       // Your code goes here.
-   	int customerID;
-   	while(true){
-   		System.out.print("Input Customer ID: ");
-   		try {
-   			customerID = Integer.parseInt(in.readLine());
-   			break;
-   		}catch(Exception e) {
-   			System.out.println("This customerID does not exist!");
-   			continue;
-   		}
-   	};
-
    	String fName;
    	while(true){
    		System.out.print("Input Customer first name: ");
@@ -419,7 +1353,7 @@ public class DBProject {
     System.out.println(finaldate);
     //Date dob = new SimpleDateFormat.parse(finaldate);
    	//String dob = simpleDateFormat.format(finaldate);
-    String dob = finaldate;
+    Date dob = toDate(yearInput, monthInput, dayInput);
 	
    	String gender;
    	while(true){
@@ -436,15 +1370,14 @@ public class DBProject {
    		}
    	}
 
-    String query;
     try{
-   		query = "INSERT INTO Customer ( customerID, fName, lName, Address, phNo, DOB, gender) VALUES (" + customerID + ", \'" + fName + "\', \'" + lName + "\', \'" + address + "\', \'" + phNo + "\', \'" + dob + "\',\'" + gender + "\');";
-   		//query = "INSERT INTO Customer ( customerID, fName, lName, Address, phNo, DOB, gender) VALUES (" + customerID + "\', \'" + fName + "\', \'" + lName + "\', \'" + address + "\', \'" + phNo + "\', \'" + dob + "\', \'" + gender + "\'');\'";
-   		esql.executeUpdate(query);
+   		int customerID = esql.nextId("Customer");
+   		addCustomer(esql, customerID, fName, lName, address, phNo, dob, gender);
    		 System.out.println(
          "\n\n*******************************************************\n" +
          "              ADDED CUSTOMER!     	               \n" +
          "*******************************************************\n");
+   		System.out.println("Customer ID: " + customerID);
     }catch(Exception e) {
     	System.err.println("Query failed: " + e.getMessage());
     }
@@ -452,6 +1385,28 @@ public class DBProject {
  	// ...
    }//end addCustomer
 
+   private static final WriteBatcher.Insert CUSTOMER_INSERT = new WriteBatcher.Insert("addCustomer",
+      "INSERT INTO Customer ( customerID, fName, lName, Address, phNo, DOB, gender) VALUES ", "(?, ?, ?, ?, ?, ?, CAST(? AS GenderType))", ";");
+
+   /*
+    * Inserts a customer.  Shared by the menu and the batch mode.
+    */
+   public static void addCustomer(DBProject esql, int customerID, String fName, String lName, String address, int phNo, Date dob, String gender) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         esql.executeUpdate("addCustomer", CUSTOMER_INSERT.one, customerID, fName, lName, address, phNo, dob, gender);
+      } finally {
+         Metrics.end("addCustomer", start);
+      }
+   }//end addCustomer
+
+   /*
+    * Queues a customer on the write batcher, see WriteBatcher.
+    */
+   public static Future<Void> addCustomer(WriteBatcher batch, int customerID, String fName, String lName, String address, int phNo, Date dob, String gender) throws SQLException {
+      return batch.add(CUSTOMER_INSERT, null, customerID, fName, lName, address, phNo, dob, gender);
+   }//end addCustomer
+
    public static void addRoom(DBProject esql){//DONE
 	  // Given room details add the room in the DB
    	int hotelID;
@@ -493,10 +1448,8 @@ public class DBProject {
     	}
     }
 
-    String query;
     try{
-   		query = "INSERT INTO Room ( hotelID, roomNo, roomType) VALUES (" + hotelID + ", \'" + roomNo + "\', \'" + roomType + "\');";
-   		esql.executeUpdate(query);
+   		addRoom(esql, hotelID, roomNo, roomType);
    		 System.out.println(
          "\n\n*******************************************************\n" +
          "              ADDED ROOM!     	               \n" +
@@ -509,21 +1462,47 @@ public class DBProject {
       // ...
    }//end addRoom
 
+   private static final WriteBatcher.Insert ROOM_INSERT = new WriteBatcher.Insert("addRoom",
+      "INSERT INTO Room ( hotelID, roomNo, roomType) VALUES ", "(?, ?, ?)", ";");
+
+   /*
+    * Inserts a room.  Shared by the menu and the batch mode.
+    */
+   public static void addRoom(DBProject esql, int hotelID, int roomNo, String roomType) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         esql.executeUpdate("addRoom", ROOM_INSERT.one, hotelID, roomNo, roomType);
+         esql.afterCommit(roomAdded(esql, hotelID, roomNo));
+      } finally {
+         Metrics.end("addRoom", start);
+      }
+   }//end addRoom
+
+   /*
+    * Queues a room on the write batcher, see WriteBatcher.
+    */
+   public static Future<Void> addRoom(WriteBatcher batch, int hotelID, int roomNo, String roomType) throws SQLException {
+      return batch.add(ROOM_INSERT, roomAdded(batch.esql(), hotelID, roomNo), hotelID, roomNo, roomType);
+   }//end addRoom
+
+   /*
+    * Updates the cached results and the occupancy index once a new room
+    * commits.
+    */
+   private static Runnable roomAdded(final DBProject esql, final int hotelID, final int roomNo) {
+      return new Runnable() {
+         public void run() {
+            esql.invalidate(ResultCache.hotel(hotelID));
+            OccupancyIndex occupancy = esql.occupancy();
+            if (occupancy != null)
+               occupancy.addRoom(hotelID, roomNo);
+         }
+      };
+   }//end roomAdded
+
 	public static void addMaintenanceCompany(DBProject esql){//DONE
 		// Given maintenance Company details add the maintenance company in the DB
 		
-		int compID;
-		while(true) {
-			System.out.print("Input Company ID: ");
-			try {
-				compID = Integer.parseInt(in.readLine());
-				break;
-			}catch(Exception e) {
-				System.out.println("This compID does not exist!");
-				continue;
-			}
-		};
-		
 		String compName;
 		while(true) {
 			System.out.print("Input Company Name: ");
@@ -571,14 +1550,14 @@ public class DBProject {
 			}
 		};
 		
-		String query;
 		try{
-			query = "INSERT INTO MaintenanceCompany (cmpID, name, address, isCertified) VALUES (" + compID + ", \'" + compName + "\', \'" + compAddress + "\', \'" + isCertified + "\');";
-			esql.executeUpdate(query);
+			int compID = esql.nextId("MaintenanceCompany");
+			addMaintenanceCompany(esql, compID, compName, compAddress, isCertified);
 			 System.out.println(
          "\n\n*******************************************************\n" +
          "              ADDED MAINTENANCE COMPANY      	               \n" +
          "*******************************************************\n");
+			System.out.println("Company ID: " + compID);
 		}catch(Exception e) {
 			System.err.println("Query failed: " + e.getMessage());
 		}
@@ -586,22 +1565,32 @@ public class DBProject {
       // ...
    }//end addMaintenanceCompany
 
+   /*
+    * Inserts a maintenance company.  Shared by the menu and the batch mode.
+    */
+   public static void addMaintenanceCompany(DBProject esql, final int cmpID, final String name, String address, boolean isCertified) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         String query = "INSERT INTO MaintenanceCompany (cmpID, name, address, isCertified) VALUES (?, ?, ?, ?);";
+         esql.executeUpdate("addMaintenanceCompany", query, cmpID, name, address, isCertified);
+         esql.invalidate(ResultCache.company(cmpID));
+         final CompanyLeaderboard leaderboard = esql.leaderboard();
+         if (leaderboard != null) {
+            esql.afterCommit(new Runnable() {
+               public void run() {
+                  leaderboard.addCompany(cmpID, name);
+               }
+            });
+         }
+      } finally {
+         Metrics.end("addMaintenanceCompany", start);
+      }
+   }//end addMaintenanceCompany
+
    public static void addRepair(DBProject esql){//DONE
 	  // Given repair details add repair in the DB
       // Your code goes here.
       
-		int repairID;
-		while(true) {
-			System.out.print("Input repair ID: ");
-			try {
-				repairID = Integer.parseInt(in.readLine());
-				break;
-			} catch (Exception e) {
-				System.out.println("Your input is invalid!");
-				continue;
-			}
-		};
-	  
 		int hotelID;
 		while(true) {
 			System.out.print("Input hotel ID: ");
@@ -729,7 +1718,7 @@ public class DBProject {
     System.out.println(finaldate);
     //Date dob = new SimpleDateFormat.parse(finaldate);
     //String dob = simpleDateFormat.format(finaldate);
-    String repairDate = finaldate;
+    Date repairDate = toDate(yearInput, monthInput, dayInput);
 
 
 		String description;
@@ -759,14 +1748,14 @@ public class DBProject {
 			}
 		};
 	  
-		String query;
 		try {
-			query = "INSERT INTO Repair (rID, hotelID, roomNo, mCompany, repairDate, description, repairType) VALUES (" + repairID + ", \'" + hotelID + "\', \'" + roomNum + "\', \'" + maintCompany + "\', \'" + repairDate + "\', \'" + description + "\', \'" + repairType + "\');";
-			esql.executeUpdate(query);
+			int repairID = esql.nextId("Repair");
+			addRepair(esql, repairID, hotelID, roomNum, maintCompany, repairDate, description, repairType);
 			System.out.println(
          "\n\n*******************************************************\n" +
          "              ADDED REPAIR      	               \n" +
          "*******************************************************\n");
+			System.out.println("Repair ID: " + repairID);
 		} catch (Exception e) {
 			System.err.println("Query failed: " + e.getMessage());
 	    }
@@ -774,21 +1763,66 @@ public class DBProject {
       // ...
    }//end addRepair
 
+   // the repairs and their counts in RepairYearlyRollup in one statement,
+   // so that both are written or neither is; the repairs of a batch are
+   // counted per room and year, as a row can only be updated once.
+   private static final WriteBatcher.Insert REPAIR_INSERT = new WriteBatcher.Insert("addRepair",
+      "WITH R AS (INSERT INTO Repair (rID, hotelID, roomNo, mCompany, repairDate, description, repairType) VALUES ",
+      "(?, ?, ?, ?, ?, ?, ?)",
+      "\nRETURNING hotelID, roomNo, repairDate)\n" +
+      "INSERT INTO RepairYearlyRollup (hotelID, roomNo, year, count)\n" +
+      "SELECT hotelID, roomNo, CAST(EXTRACT(YEAR FROM repairDate) AS integer), COUNT(*) FROM R GROUP BY 1, 2, 3\n" +
+      "ON CONFLICT (hotelID, roomNo, year) DO UPDATE SET count = RepairYearlyRollup.count + EXCLUDED.count;");
+
+   /*
+    * Inserts a repair and counts it in RepairYearlyRollup.  Shared by the
+    * menu and the batch mode.
+    */
+   public static void addRepair(DBProject esql, int rID, int hotelID, int roomNo, int mCompany, Date repairDate, String description, String repairType) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         esql.executeUpdate("addRepair", REPAIR_INSERT.one, rID, hotelID, roomNo, mCompany, repairDate, description, repairType);
+         esql.afterCommit(repairAdded(esql, hotelID, mCompany));
+      } finally {
+         Metrics.end("addRepair", start);
+      }
+   }//end addRepair
+
+   /*
+    * Queues a repair on the write batcher, see WriteBatcher.
+    */
+   public static Future<Void> addRepair(WriteBatcher batch, int rID, int hotelID, int roomNo, int mCompany, Date repairDate, String description, String repairType) throws SQLException {
+      return batch.add(REPAIR_INSERT, repairAdded(batch.esql(), hotelID, mCompany), rID, hotelID, roomNo, mCompany, repairDate, description, repairType);
+   }//end addRepair
+
+   /*
+    * Updates the cached results and the leaderboard once a new repair
+    * commits.
+    */
+   private static Runnable repairAdded(final DBProject esql, final int hotelID, final int mCompany) {
+      return new Runnable() {
+         public void run() {
+            esql.invalidate(ResultCache.hotel(hotelID), ResultCache.company(mCompany), ResultCache.REPAIRS);
+            CompanyLeaderboard leaderboard = esql.leaderboard();
+            if (leaderboard != null)
+               leaderboard.repaired(mCompany);
+         }
+      };
+   }//end repairAdded
+
    public static void bookRoom(DBProject esql){//DONE
 	  // Given hotelID, roomNo and customer Name create a booking in the DB 
       // Your code goes here.
-    int check = 0;
       int hotelID;
       int roomNo;
       int customerID;
-    	String query;
     	String input;
     	int bID;
     	int bookingyear;
     	int bookingmonth;
     	int bookingday;
     	int noOfPeople;
-    	double price;
+    	BigDecimal price;
 	    String temp;
     	while(true){
         	System.out.print("Please input Customer ID: ");
@@ -824,28 +1858,11 @@ public class DBProject {
       }
 
     	try{//try1
-      	query = "SELECT bID\nFROM Booking\nWHERE hotelID = " + hotelID + " AND roomNo = " + roomNo + " AND customer = " + customerID + ";";
-      	if(esql.executeQuery(query) == 0) {
       		while(true){
-            if (check == 0) {
-      			 System.out.println("Your Booking does not yet exist. Would you like to create a new Booking?(y/n): ");
-             check = 1;
-            }
-            else {
-              System.out.println("Create a new booking?(y/n): ");
-            }
+            System.out.println("Create a new booking?(y/n): ");
       			try{//try2
       				input = in.readLine();
       				if(input.equals("y") || input.equals("Y")) {
-							  while(true){
-								  System.out.print("Please input Booking Number: ");
-								  try{//try3
-									 bID = Integer.parseInt(in.readLine());
-									 break;
-								  }catch (Exception e) {// catch1
-							      System.out.println("Your input is invalid!");
-						      }
-      				  }
                 while(true){
                   System.out.println("Booking Date is required!");
                   System.out.print("Please input Booking Date Year: ");
@@ -908,8 +1925,7 @@ public class DBProject {
                 String finaldate = bookingmonth + "/" + bookingday + "/" + bookingyear;
                 System.out.println("Your inputted date is (In the format of MM/dd/yyyy ) : ");
                 System.out.println(finaldate);
-                String bookingDate = finaldate;
-			          String tempDate = bookingDate;
+                Date bookingDate = toDate(bookingyear, bookingmonth, bookingday);
                 while(true){
                  	System.out.print("Please input the number of People for the Booking: ");
                  	try{
@@ -919,11 +1935,14 @@ public class DBProject {
                    					System.out.println("Your input is invalid!");
                   				}
                 			}
-                			//PRICE IS DATATYPE NUMERIC(6,2) XXXXXX.XX <==== FIX
+                			// price is NUMERIC(6,2), i.e. at most 9999.99
                 			while(true) {
                   				System.out.print("Please input the Price: ");
                   				try{
-                    				price = Double.parseDouble(in.readLine());
+                    				price = new BigDecimal(in.readLine().trim()).setScale(2, RoundingMode.HALF_UP);
+                    				if(price.precision() > 6) {
+                    					throw new RuntimeException("Price cannot be larger than 9999.99");
+                    				}
                     				break;
                   				}catch(Exception e) {
                     				System.out.println("Your input is invalid!");
@@ -931,13 +1950,16 @@ public class DBProject {
                 			}
                 			
                       try{
-                  				query = "INSERT INTO Booking( bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price) VALUES (" + bID + ", \'" + customerID + "\', \'" + hotelID + "\', \'" + roomNo + "\', \'" + tempDate + "\', \'" + noOfPeople + "\', \'" + price + "\');";
-                  				esql.executeUpdate(query);
+                  				bID = esql.nextId("Booking");
+                  				bookRoom(esql, bID, customerID, hotelID, roomNo, bookingDate, noOfPeople, price);
                   				System.out.println(
          "\n\n*******************************************************\n" +
          "              ADDED YOUR BOOKING      	               \n" +
          "*******************************************************\n");
+                  				System.out.println("Booking number: " + bID);
                           break;
+                			}catch(RoomBookedException e){
+                  				System.out.println(e.getMessage() + ", please choose another room or date.");
                 			}catch(Exception e){
                   				System.out.println("Query failed: " + e.getMessage());
                 			}
@@ -951,7 +1973,6 @@ public class DBProject {
               			continue;
             		}
         	}
-      	}
 
     	}catch(Exception e){
         System.out.println("Your input is invalid!");
@@ -959,12 +1980,47 @@ public class DBProject {
       // ...
    }//end bookRoom
 
+   /*
+    * Books a room through the book_room() function of create.sql, which
+    * checks the customer and the room and inserts the booking in one round
+    * trip.  Shared by the menu and the batch mode.  The unique constraint on
+    * (hotelID, roomNo, bookingDate) decides whether the room is still free
+    * on that day: concurrent bookings of the same night wait for each other
+    * and only the first one inserts a row.
+    *
+    * @throws RoomBookedException when the room is already booked that day
+    */
+   public static void bookRoom(DBProject esql, int bID, int customerID, final int hotelID, final int roomNo, final Date bookingDate, int noOfPeople, BigDecimal price) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         String status = esql.callFunction("bookRoom.call", "{? = call book_room(?, ?, ?, ?, ?, ?, ?)}",
+               bID, customerID, hotelID, roomNo, bookingDate, noOfPeople, price);
+         if ("booked".equals(status))
+            throw new RoomBookedException(hotelID, roomNo, bookingDate);
+         if ("unknown customer".equals(status))
+            throw new SQLException("Customer " + customerID + " does not exist", FOREIGN_KEY_VIOLATION);
+         if ("unknown room".equals(status))
+            throw new SQLException("Room " + roomNo + " of hotel " + hotelID + " does not exist", FOREIGN_KEY_VIOLATION);
+         if (!"ok".equals(status))
+            throw new SQLException("Unexpected result of book_room: " + status);
+         esql.invalidate(ResultCache.hotel(hotelID), ResultCache.customer(customerID), ResultCache.BOOKINGS);
+         final OccupancyIndex occupancy = esql.occupancy();
+         if (occupancy != null) {
+            esql.afterCommit(new Runnable() {
+               public void run() {
+                  occupancy.book(hotelID, roomNo, bookingDate);
+               }
+            });
+         }
+      } finally {
+         Metrics.end("bookRoom", start);
+      }
+   }//end bookRoom
+
    public static void assignHouseCleaningToRoom(DBProject esql){//DONE
 	  // Given Staff SSN, HotelID, roomNo Assign the staff to the room 
       // Your code goes here.
 
-	int assignedID = 2001;
-
 	int staffSSN;
 	while(true) {
 		System.out.println("Please input Staff SSN: ");
@@ -1001,42 +2057,50 @@ public class DBProject {
 		}
 	}
 
-	String query;
 		try {
-			query = "INSERT INTO Assigned (asgID, staffID, hotelID, roomNo) VALUES (" + assignedID + ", " + staffSSN + ", " + hotelID + ", " + roomNum + ");";
-			esql.executeUpdate(query);
+			int assignedID = esql.nextId("Assigned");
+			assignHouseCleaningToRoom(esql, assignedID, staffSSN, hotelID, roomNum);
 			System.out.println(
          "\n\n*******************************************************\n" +
          "              ASSIGNED HOUSE CLEANING STAFF      	               \n" +
          "*******************************************************\n");
-			assignedID = assignedID + 1;
+			System.out.println("Assignment ID: " + assignedID);
 		} catch (Exception e) {
 			System.out.println("Query failed: " + e.getMessage());
 		}		
       // ...
       // ...
    }//end assignHouseCleaningToRoom
+
+   private static final WriteBatcher.Insert ASSIGNED_INSERT = new WriteBatcher.Insert("assignHouseCleaningToRoom",
+      "INSERT INTO Assigned (asgID, staffID, hotelID, roomNo) VALUES ", "(?, ?, ?, ?)", ";");
+
+   /*
+    * Assigns a staff member to a room.  Shared by the menu and the batch mode.
+    */
+   public static void assignHouseCleaningToRoom(DBProject esql, int asgID, int staffSSN, int hotelID, int roomNo) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         esql.executeUpdate("assignHouseCleaningToRoom", ASSIGNED_INSERT.one, asgID, staffSSN, hotelID, roomNo);
+      } finally {
+         Metrics.end("assignHouseCleaningToRoom", start);
+      }
+   }//end assignHouseCleaningToRoom
+
+   /*
+    * Queues an assignment on the write batcher, see WriteBatcher.
+    */
+   public static Future<Void> assignHouseCleaningToRoom(WriteBatcher batch, int asgID, int staffSSN, int hotelID, int roomNo) throws SQLException {
+      return batch.add(ASSIGNED_INSERT, null, asgID, staffSSN, hotelID, roomNo);
+   }//end assignHouseCleaningToRoom
    
    public static void repairRequest(DBProject esql){//DONE
 	  // Given a hotelID, Staff SSN, roomNo, repairID , date create a repair request in the DB
       // Your code goes here.
-   int reqID;
    int staffSSN;
    int repairID;
    String description;
 
-   //get reqID
-   while(true) {
-      System.out.print("Input Request ID: ");
-      try {
-         reqID = Integer.parseInt(in.readLine());
-         break;
-      }
-      catch(Exception e) {
-         System.out.println("Your input is invalid!");
-         continue;
-      }
-   }
    //get SSN
    while(true) {
       System.out.print("Input manager ID: ");
@@ -1143,7 +2207,7 @@ public class DBProject {
       }
     };
         String finaldate = monthInput + "/" + dayInput + "/" + yearInput;
-        String requestDate = finaldate;
+        Date requestDate = toDate(yearInput, monthInput, dayInput);
     //String finaldate = monthInput + "/" + dayInput + "/" + yearInput;
     System.out.println("Your inputted date is (In the format of MM/dd/yyyy ) : ");
     System.out.println(finaldate);
@@ -1164,10 +2228,10 @@ public class DBProject {
          continue;
       }
    }
-   String query;
   try {
-      query = "INSERT INTO Request(reqID, managerID, repairID, requestDate, description) VALUES( " + reqID + ", " + staffSSN + ", " + repairID + ",\' " + requestDate + " \', \' " + description + " \');";
-      esql.executeUpdate(query);
+      int reqID = esql.nextId("Request");
+      repairRequest(esql, reqID, staffSSN, repairID, requestDate, description);
+      System.out.println("Request ID: " + reqID);
    }
    catch(Exception e) {
       System.out.println("Query failed. " + e.getMessage());
@@ -1175,6 +2239,60 @@ public class DBProject {
       // ...
       // ...
    }//end repairRequest
+
+   // the requests of a batch go through raise_repair_request() like the
+   // others, one call per row, each status returned with the position of
+   // its row.
+   private static final WriteBatcher.Insert REQUEST_INSERT = new WriteBatcher.Insert("repairRequest",
+      "SELECT n, raise_repair_request(reqID, managerID, repairID, requestDate, description) FROM (VALUES ",
+      "(?, ?, ?, ?, CAST(? AS date), CAST(? AS text))",
+      ") V(n, reqID, managerID, repairID, requestDate, description) ORDER BY n;",
+      new WriteBatcher.Check() {
+         public SQLException error(Object[] params, String status) {
+            return requestError((Integer) params[1], (Integer) params[2], status);
+         }
+      });
+
+   /*
+    * Inserts a repair request through the raise_repair_request() function
+    * of create.sql, which checks the manager and the repair and inserts the
+    * request in one round trip.  Shared by the menu and the batch mode.
+    */
+   public static void repairRequest(DBProject esql, int reqID, int managerID, int repairID, Date requestDate, String description) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         String status = esql.callFunction("repairRequest.call", "{? = call raise_repair_request(?, ?, ?, ?, ?)}",
+               reqID, managerID, repairID, requestDate, description);
+         SQLException error = requestError(managerID, repairID, status);
+         if (error != null)
+            throw error;
+      } finally {
+         Metrics.end("repairRequest", start);
+      }
+   }//end repairRequest
+
+   /*
+    * The error of a repair request raise_repair_request() returned the
+    * given status for, or null when it was inserted.
+    */
+   private static SQLException requestError(int managerID, int repairID, String status) {
+      if ("ok".equals(status))
+         return null;
+      if ("unknown manager".equals(status))
+         return new SQLException("Staff " + managerID + " does not exist", FOREIGN_KEY_VIOLATION);
+      if ("not a manager".equals(status))
+         return new SQLException("Staff " + managerID + " is not a manager");
+      if ("unknown repair".equals(status))
+         return new SQLException("Repair " + repairID + " does not exist", FOREIGN_KEY_VIOLATION);
+      return new SQLException("Unexpected result of raise_repair_request: " + status);
+   }//end requestError
+
+   /*
+    * Queues a repair request on the write batcher, see WriteBatcher.
+    */
+   public static Future<Void> repairRequest(WriteBatcher batch, int reqID, int managerID, int repairID, Date requestDate, String description) throws SQLException {
+      return batch.add(REQUEST_INSERT, null, reqID, managerID, repairID, requestDate, description);
+   }//end repairRequest
    
    public static void numberOfAvailableRooms(DBProject esql){//DONE
 	  // Given a hotelID, get the count of rooms available  (NUM OF TOTAL ROOMS OF THE HOTEL - THE NUMBER ROOMS BOOKED)
@@ -1195,11 +2313,8 @@ public class DBProject {
    			}
    		}
 ;
-   		String query;
    			try{
-   				//query = "SELECT R.hotelID, A1-B1 FROM (SELECT R.roomNo\nFROM Room R\nWHERE R.hotelID = " + hotelID + ") as A1, (SELECT B.roomNo\nFROM Booking B\nWHERE B.hotelID = " + hotelID + ") as B1)";
-				query = "SELECT COUNT(R.roomNo) FROM Room R WHERE R.hotelID = " + hotelID + "\nEXCEPT\nSELECT COUNT(B.roomNo) FROM Booking B WHERE B.hotelID = " + hotelID + ";";
-   				esql.executeQuery(query);
+   				numberOfAvailableRooms(esql, hotelID);
 
    			}catch(Exception e) {
    				System.out.println("Query failed: " + e.getMessage());
@@ -1207,6 +2322,31 @@ public class DBProject {
       // ...
       // ...
    }//end numberOfAvailableRooms
+
+   // queries shared by the reports and the hotel dashboard.
+   private static final String AVAILABLE_ROOMS = "SELECT COUNT(R.roomNo) FROM Room R WHERE R.hotelID = ?\nAND NOT EXISTS (SELECT * FROM Booking B WHERE B.hotelID = R.hotelID AND B.roomNo = R.roomNo);";
+   private static final String BOOKED_ROOMS = "SELECT count(B.roomNo)\nFROM Booking B WHERE hotelID = ?;";
+   private static final String FREE_ROOMS = "SELECT R.roomNo FROM Room R WHERE R.hotelID = ?\nAND NOT EXISTS (SELECT * FROM Booking B WHERE B.hotelID = R.hotelID AND B.roomNo = R.roomNo AND B.bookingDate >= ? AND B.bookingDate <= ?)\nORDER BY R.roomNo;";
+
+   /*
+    * Prints the number of available rooms of a hotel.  Shared by the menu and
+    * the batch mode.
+    */
+   public static int numberOfAvailableRooms(DBProject esql, int hotelID) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         OccupancyIndex occupancy = esql.occupancy();
+         if (occupancy != null) {
+            List<String[]> rows = new ArrayList<String[]>();
+            rows.add(new String[] { String.valueOf(occupancy.unbookedRooms(hotelID)) });
+            return esql.printRows(new String[] { "count" }, new int[] { Types.BIGINT }, rows);
+         }
+         return esql.cachedQuery("numberOfAvailableRooms", AVAILABLE_ROOMS,
+               new String[] { ResultCache.hotel(hotelID) }, hotelID);
+      } finally {
+         Metrics.end("numberOfAvailableRooms", start);
+      }
+   }//end numberOfAvailableRooms
    
    public static void numberOfBookedRooms(DBProject esql){//DONE
 	  // Given a hotelID, get the count of rooms booked
@@ -1227,11 +2367,9 @@ public class DBProject {
    				continue;
    			}
    		}
-   		String query;
    		while(true){
    			try{
-   				query = "SELECT count(B.roomNo)\nFROM Booking B WHERE hotelID = " + hotelID + ";";
-   				esql.executeQuery(query);
+   				numberOfBookedRooms(esql, hotelID);
    				break;
    			}catch(Exception e){
    				System.out.println("Query failed: " + e.getMessage());
@@ -1240,6 +2378,20 @@ public class DBProject {
       // ...
       // ...
    }//end numberOfBookedRooms
+
+   /*
+    * Prints the number of booked rooms of a hotel.  Shared by the menu and the
+    * batch mode.
+    */
+   public static int numberOfBookedRooms(DBProject esql, int hotelID) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         return esql.cachedQuery("numberOfBookedRooms", BOOKED_ROOMS,
+               new String[] { ResultCache.hotel(hotelID) }, hotelID);
+      } finally {
+         Metrics.end("numberOfBookedRooms", start);
+      }
+   }//end numberOfBookedRooms
    
    public static void listHotelRoomBookingsForAWeek(DBProject esql){
 	  // Given a hotelID, date - list all the rooms available for a week(including the input date) 
@@ -1324,9 +2476,9 @@ public class DBProject {
         //String dob = simpleDateFormat.format(finaldate);
         //System.out.println("YOUR GIVEN DATE IS " + dob);
         String finaldate = checkmonth + "/" + checkday + "/" + checkyear;
-        String bookingDate = finaldate;
-        String finalenddate = checkmonth + "/" + (checkday+7) + "/" + checkyear;
-        String bookingendDate = finalenddate;
+        Date bookingDate = toDate(checkyear, checkmonth, checkday);
+        Date bookingendDate = addDays(bookingDate, 7);
+        String finalenddate = new SimpleDateFormat("M/d/yyyy").format(bookingendDate);
         System.out.println("Your inputted date is (In the format of MM/dd/yyyy ) : ");
         System.out.println(finaldate);
         System.out.println("The Date after a week is: ");
@@ -1335,11 +2487,8 @@ public class DBProject {
         //String dob = simpleDateFormat.format(finaldate);
         
 
-   		String query;
    			try{
-   				query = "SELECT R.roomNo FROM Booking B, Room R WHERE B.hotelID = " + hotelID + " AND R.hotelID = " + hotelID + "AND B.bookingDate >= \'" + bookingDate + "\' AND B.bookingDate <= \'" + bookingendDate + "\';";
-          //esql.executeQuery(query);
-          if(esql.executeQuery(query) != 0) {
+          if(listHotelRoomBookingsForAWeek(esql, hotelID, bookingDate) != 0) {
             System.out.println("These are the available rooms in hotel (HotelID: " + hotelID + " ) this week. ");
           }
           else{
@@ -1351,6 +2500,27 @@ public class DBProject {
       // ...
       // ...
    }//end listHotelRoomBookingsForAWeek
+
+   /*
+    * Prints the rooms of a hotel that are free for the whole week starting at
+    * the given date.  Shared by the menu and the batch mode.
+    */
+   public static int listHotelRoomBookingsForAWeek(DBProject esql, int hotelID, Date bookingDate) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         OccupancyIndex occupancy = esql.occupancy();
+         if (occupancy != null) {
+            List<String[]> rows = new ArrayList<String[]>();
+            for (int roomNo : occupancy.freeRooms(hotelID, bookingDate, 8))
+               rows.add(new String[] { String.valueOf(roomNo) });
+            return esql.printRows(new String[] { "roomno" }, new int[] { Types.INTEGER }, rows);
+         }
+         return esql.cachedStream("listHotelRoomBookingsForAWeek", FREE_ROOMS,
+               new String[] { ResultCache.hotel(hotelID) }, hotelID, bookingDate, addDays(bookingDate, 7));
+      } finally {
+         Metrics.end("listHotelRoomBookingsForAWeek", start);
+      }
+   }//end listHotelRoomBookingsForAWeek
    
    public static void topKHighestRoomPriceForADateRange(DBProject esql){
 	  // List Top K Rooms with the highest price for a given date range
@@ -1427,7 +2597,7 @@ public class DBProject {
 		  }
 	  }
 	  
-	  String startingDate = checkMonth + "/" + checkDay + "/" + checkYear;
+	  Date startingDate = toDate(checkYear, checkMonth, checkDay);
 	  
 	  // Starting date end
 	  
@@ -1496,7 +2666,7 @@ public class DBProject {
 		  }
 	  }
 	  
-	  String endingDate = checkMonth + "/" + checkDay + "/" + checkYear;
+	  Date endingDate = toDate(checkYear, checkMonth, checkDay);
 	  
 	  // Ending date end
 	  
@@ -1512,10 +2682,8 @@ public class DBProject {
 		  }
 	  }
 	  
-	  String query;
 	  try {
-		  query = "SELECT * FROM Room R, Booking B WHERE B.bookingDate >= \'" + startingDate + "\' AND B.bookingDate <= \'" + endingDate + "\' ORDER BY B.price DESC LIMIT " + k + ";";
-		  esql.executeQuery(query);
+		  topKHighestRoomPriceForADateRange(esql, startingDate, endingDate, k);
 	  } catch (Exception e) {
 		  System.out.println("Query failed. " + e.getMessage());
 	  }
@@ -1523,6 +2691,21 @@ public class DBProject {
       // ...
       // ...
    }//end topKHighestRoomPriceForADateRange
+
+   /*
+    * Prints the top k rooms by price booked in a date range.  Shared by the
+    * menu and the batch mode.
+    */
+   public static int topKHighestRoomPriceForADateRange(DBProject esql, Date startingDate, Date endingDate, int k) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         String query = "SELECT B.hotelID, B.roomNo, B.bookingDate, B.price FROM Booking B\nWHERE B.bookingDate >= ? AND B.bookingDate <= ? ORDER BY B.price DESC LIMIT ?;";
+         return esql.cachedStream("topKHighestRoomPriceForADateRange", query,
+               new String[] { ResultCache.BOOKINGS }, startingDate, endingDate, k);
+      } finally {
+         Metrics.end("topKHighestRoomPriceForADateRange", start);
+      }
+   }//end topKHighestRoomPriceForADateRange
    
    public static void topKHighestPriceBookingsForACustomer(DBProject esql){
 	  // Given a customer ID, List Top K highest booking price for a customer 
@@ -1544,11 +2727,11 @@ public class DBProject {
 	  }
 
 	  
-	  String k;
+	  int k;
 	  while(true) {
 		  System.out.print("Please enter a range: ");
 		  try {
-			  k = in.readLine();
+			  k = Integer.parseInt(in.readLine());
 			  break;
 		  } catch (Exception e) {
 			  System.out.println("Your input is invalid!");
@@ -1556,16 +2739,29 @@ public class DBProject {
 		  }
 	  }
 	  
-	  String query;
       try {
-		  query = "SELECT B.price FROM Booking B, Customer C WHERE C.customerID = " + customerID + " ORDER BY price DESC LIMIT " + k + ";"; 
-		  esql.executeQuery(query);
+		  topKHighestPriceBookingsForACustomer(esql, customerID, k);
 	  } catch (Exception e) {
 		  System.err.println(e.getMessage());
 	  }
       // ...
       // ...
    }//end topKHighestPriceBookingsForACustomer
+
+   /*
+    * Prints the top k booking prices of a customer.  Shared by the menu and
+    * the batch mode.
+    */
+   public static int topKHighestPriceBookingsForACustomer(DBProject esql, int customerID, int k) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         String query = "SELECT B.price FROM Booking B WHERE B.customer = ? ORDER BY B.price DESC LIMIT ?;";
+         return esql.cachedStream("topKHighestPriceBookingsForACustomer", query,
+               new String[] { ResultCache.customer(customerID) }, customerID, k);
+      } finally {
+         Metrics.end("topKHighestPriceBookingsForACustomer", start);
+      }
+   }//end topKHighestPriceBookingsForACustomer
    
    public static void totalCostForCustomer(DBProject esql){//DONE
 	  // Given a hotelID, customerID and date range get the total cost incurred by the customer
@@ -1663,7 +2859,7 @@ public class DBProject {
         String finaldate = checkmonth + "/" + checkday + "/" + checkyear;
         System.out.println("Your inputted date is (In the format of MM/dd/yyyy ) : ");
         System.out.println(finaldate);
-        String startDate = finaldate;
+        Date startDate = toDate(checkyear, checkmonth, checkday);
 
 	while(true){
 	    System.out.print("An End date is required for the date range.");
@@ -1727,14 +2923,12 @@ public class DBProject {
         String finishdate = checkmonth + "/" + checkday + "/" + checkyear;
         System.out.println("Your inputted date is (In the format of MM/dd/yyyy ) : ");
         System.out.println(finishdate);
-        String endDate = finishdate;
+        Date endDate = toDate(checkyear, checkmonth, checkday);
 
 
 
-	String query;
 		try{
-			query = "SELECT C.customerID, SUM(B.price) FROM Customer C, Booking B WHERE B.hotelID = " + hotelID + " AND C.customerID = " + customerID +  " AND B.bookingDate >= \'" + startDate + "\' AND B.bookingDate <= \'" + endDate + "\' GROUP BY C.customerID;";
-			esql.executeQuery(query);
+			totalCostForCustomer(esql, hotelID, customerID, startDate, endDate);
 		}catch(Exception e){
 			System.out.println("Query failed. " + e.getMessage());
 		}
@@ -1742,6 +2936,21 @@ public class DBProject {
       // ...
       // ...
    }//end totalCostForCustomer
+
+   /*
+    * Prints the total cost of a customer at a hotel over a date range.  Shared
+    * by the menu and the batch mode.
+    */
+   public static int totalCostForCustomer(DBProject esql, int hotelID, int customerID, Date startDate, Date endDate) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         String query = "SELECT B.customer AS customerID, SUM(B.price) FROM Booking B\nWHERE B.hotelID = ? AND B.customer = ? AND B.bookingDate >= ? AND B.bookingDate <= ? GROUP BY B.customer;";
+         return esql.cachedQuery("totalCostForCustomer", query,
+               new String[] { ResultCache.customer(customerID) }, hotelID, customerID, startDate, endDate);
+      } finally {
+         Metrics.end("totalCostForCustomer", start);
+      }
+   }//end totalCostForCustomer
    
    public static void listRepairsMade(DBProject esql){//DONE
 	  // Given a Maintenance company name list all the repairs along with repairType, hotelID and roomNo
@@ -1778,11 +2987,8 @@ public class DBProject {
 	  }
 	
 	  
-	  String query;
 	  try{
-		  //query = "SELECT M.name, R.rID, R.repairType, R.hotelID, R.roomNo FROM Repair R, MaintenanceCompany M WHERE M.name = " + maintName + " AND M.cmpID = R.mCompany;";
-query = "SELECT M.name, R.rID, R.repairType, R.hotelID, R.roomNo FROM Repair R, MaintenanceCompany M WHERE M.cmpID = " + maintID + " AND M.cmpID = R.mCompany;";
-		  esql.executeQuery(query);
+		  listRepairsMade(esql, maintID);
 	  } catch (Exception e) {
 		  System.err.println(e.getMessage());
 	  }
@@ -1790,6 +2996,21 @@ query = "SELECT M.name, R.rID, R.repairType, R.hotelID, R.roomNo FROM Repair R,
       // ...
       // ...
    }//end listRepairsMade
+
+   /*
+    * Prints the repairs made by a maintenance company.  Shared by the menu and
+    * the batch mode.
+    */
+   public static int listRepairsMade(DBProject esql, int cmpID) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         String query = "SELECT M.name, R.rID, R.repairType, R.hotelID, R.roomNo FROM Repair R, MaintenanceCompany M WHERE M.cmpID = ? AND M.cmpID = R.mCompany;";
+         return esql.cachedStream("listRepairsMade", query,
+               new String[] { ResultCache.company(cmpID) }, cmpID);
+      } finally {
+         Metrics.end("listRepairsMade", start);
+      }
+   }//end listRepairsMade
    
    public static void topKMaintenanceCompany(DBProject esql){//DONE
 	  // List Top K Maintenance Company Names based on total repair count (descending order)
@@ -1799,11 +3020,11 @@ query = "SELECT M.name, R.rID, R.repairType, R.hotelID, R.roomNo FROM Repair R,
          "\n\n*******************************************************\n" +
          "              LIST MCOMPANIES BASED ON REPAIR COUNT!      	               \n" +
          "*******************************************************\n");
-	  String k;
+	  int k;
 	  while(true) {
 		  System.out.println("Please enter a range: ");
 		  try {
-			  k = in.readLine();
+			  k = Integer.parseInt(in.readLine());
 			  break;
 		  } catch (Exception e) {
 			  System.out.println("Your input is invalid!");
@@ -1811,16 +3032,33 @@ query = "SELECT M.name, R.rID, R.repairType, R.hotelID, R.roomNo FROM Repair R,
 		  }
 	  }
 	  
-	  String query;
 	  try {
-		  query = "SELECT M.name, COUNT(DISTINCT R.rID)\nFROM MaintenanceCompany M, Repair R WHERE M.cmpID = R.mCompany GROUP BY M.name ORDER BY COUNT(DISTINCT R.rID) DESC LIMIT " + k + ";";
-		  esql.executeQuery(query);
+		  topKMaintenanceCompany(esql, k);
 	  } catch (Exception e) {
 		  System.err.println(e.getMessage());
 	  }
       // ...
       // ...
    }//end topKMaintenanceCompany
+
+   /*
+    * Prints the top k maintenance companies by repair count, ties broken by
+    * cmpID.  Shared by the menu and the batch mode.
+    */
+   public static int topKMaintenanceCompany(DBProject esql, int k) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         CompanyLeaderboard leaderboard = esql.leaderboard();
+         if (leaderboard != null)
+            return esql.printRows(new String[] { "cmpid", "name", "count" },
+                  new int[] { Types.NUMERIC, Types.CHAR, Types.BIGINT }, leaderboard.top(k));
+         String query = "SELECT M.cmpID, RTRIM(M.name) AS name, COUNT(R.rID)\nFROM MaintenanceCompany M, Repair R WHERE M.cmpID = R.mCompany GROUP BY M.cmpID, M.name ORDER BY COUNT(R.rID) DESC, M.cmpID LIMIT ?;";
+         return esql.cachedStream("topKMaintenanceCompany", query,
+               new String[] { ResultCache.REPAIRS }, k);
+      } finally {
+         Metrics.end("topKMaintenanceCompany", start);
+      }
+   }//end topKMaintenanceCompany
    
    public static void numberOfRepairsForEachRoomPerYear(DBProject esql){
 	  // Given a hotelID, roomNo, get the count of repairs per year
@@ -1852,9 +3090,8 @@ query = "SELECT M.name, R.rID, R.repairType, R.hotelID, R.roomNo FROM Repair R,
 	  }
 	  
       
-      String query;
       try {
-      	query = "SELECT EXTRACT (YEAR FROM R.repairDate), COUNT(R.repairType) FROM Repair R WHERE R.roomNo = " + roomNum + " AND R.hotelID = " + hotelID + " GROUP BY EXTRACT(YEAR FROM R.repairDate) ORDER BY EXTRACT(YEAR FROM R.repairDate) DESC";
+      	numberOfRepairsForEachRoomPerYear(esql, hotelID, roomNum);
 	  } catch (Exception e) {
 		  System.err.println(e.getMessage());
 	  }
@@ -1862,4 +3099,137 @@ query = "SELECT M.name, R.rID, R.repairType, R.hotelID, R.roomNo FROM Repair R,
       // ...
    }//end listRepairsMade
 
+   /*
+    * Prints the number of repairs per year of a room, as counted in
+    * RepairYearlyRollup.  Shared by the menu and the batch mode.
+    */
+   public static int numberOfRepairsForEachRoomPerYear(DBProject esql, int hotelID, int roomNo) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         String query = "SELECT R.year, R.count FROM RepairYearlyRollup R WHERE R.roomNo = ? AND R.hotelID = ? ORDER BY R.year DESC;";
+         return esql.cachedQuery("numberOfRepairsForEachRoomPerYear", query,
+               new String[] { ResultCache.hotel(hotelID) }, roomNo, hotelID);
+      } finally {
+         Metrics.end("numberOfRepairsForEachRoomPerYear", start);
+      }
+   }//end numberOfRepairsForEachRoomPerYear
+
+   public static void hotelDashboard(DBProject esql){
+      // Given a hotelID and date, print the reports of the hotel for the week starting at that date
+      int hotelID;
+      Date date;
+      System.out.println(
+         "\n\n*******************************************************\n" +
+         "              HOTEL DASHBOARD!      	               \n" +
+         "*******************************************************\n");
+      while(true){
+         System.out.println("Please input hotel ID: ");
+         try{
+            hotelID = Integer.parseInt(in.readLine());
+            break;
+         }catch(Exception e){
+            System.out.println("Your Input is invalid!");
+         }
+      }
+      while(true){
+         System.out.println("Please input the first day of the week (yyyy-mm-dd): ");
+         try{
+            String[] ymd = in.readLine().trim().split("-");
+            if (ymd.length != 3)
+               throw new RuntimeException("Please input a valid date.");
+            int year = Integer.parseInt(ymd[0]);
+            int month = Integer.parseInt(ymd[1]);
+            int day = Integer.parseInt(ymd[2]);
+            if (!validDate(year, month, day))
+               throw new RuntimeException("Please input a valid date.");
+            date = toDate(year, month, day);
+            break;
+         }catch(Exception e){
+            System.out.println("Your Input is invalid!");
+         }
+      }
+      try{
+         hotelDashboard(esql, hotelID, date, true);
+      }catch(Exception e){
+         System.out.println("Query failed: " + e.getMessage());
+      }
+   }//end hotelDashboard
+
+   // titles of the reports of the hotel dashboard, in order.
+   private static final String[] DASHBOARD = {
+      "Available rooms", "Booked rooms", "Rooms free for the week",
+      "Bookings and revenue of the week", "Repairs per year" };
+
+   /*
+    * Prints the reports of a hotel for the week starting at date, preceded
+    * by their titles when titled.  The five queries are all submitted before
+    * the first result is waited for, so the dashboard costs about one round
+    * trip instead of five.  Reports the occupancy index can answer are
+    * computed without a query.  Shared by the menu and the batch mode.
+    *
+    * @return the number of rows printed
+    */
+   public static int hotelDashboard(DBProject esql, int hotelID, Date date, boolean titled) throws SQLException {
+      long start = Metrics.begin();
+      try {
+         Date end = addDays(date, 7);
+         OccupancyIndex occupancy = esql.occupancy();
+         List<Future<QueryResult>> reports = new ArrayList<Future<QueryResult>>();
+         if (occupancy != null) {
+            List<String[]> rows = new ArrayList<String[]>();
+            rows.add(new String[] { String.valueOf(occupancy.unbookedRooms(hotelID)) });
+            reports.add(QueryResult.completed(new QueryResult(new String[] { "count" }, new int[] { Types.BIGINT }, rows)));
+         } else {
+            reports.add(esql.submitQuery("numberOfAvailableRooms", AVAILABLE_ROOMS, hotelID));
+         }
+         reports.add(esql.submitQuery("numberOfBookedRooms", BOOKED_ROOMS, hotelID));
+         if (occupancy != null) {
+            List<String[]> rows = new ArrayList<String[]>();
+            for (int roomNo : occupancy.freeRooms(hotelID, date, 8))
+               rows.add(new String[] { String.valueOf(roomNo) });
+            reports.add(QueryResult.completed(new QueryResult(new String[] { "roomno" }, new int[] { Types.INTEGER }, rows)));
+         } else {
+            reports.add(esql.submitQuery("hotelDashboard.free", FREE_ROOMS, hotelID, date, end));
+         }
+         reports.add(esql.submitQuery("hotelDashboard.week",
+               "SELECT COUNT(*) AS bookings, SUM(B.price) AS revenue FROM Booking B\nWHERE B.hotelID = ? AND B.bookingDate >= ? AND B.bookingDate <= ?;",
+               hotelID, date, end));
+         reports.add(esql.submitQuery("hotelDashboard.repairs",
+               "SELECT R.year, SUM(R.count) AS repairs FROM RepairYearlyRollup R WHERE R.hotelID = ?\nGROUP BY R.year ORDER BY R.year DESC;",
+               hotelID));
+
+         int rowCount = 0;
+         for (int i = 0; i < reports.size(); ++i) {
+            QueryResult result = QueryResult.get(reports.get(i));
+            if (titled)
+               System.out.println("\n" + DASHBOARD[i] + ":");
+            rowCount += result.print(esql);
+         }
+         return rowCount;
+      } finally {
+         Metrics.end("hotelDashboard", start);
+      }
+   }//end hotelDashboard
+
+   /*
+    * Turns the capture of query plans on or off (see PlanCapture).
+    */
+   public static void togglePlanCapture(DBProject esql){
+      try {
+         String file = esql.planCapture();
+         if (file != null) {
+            esql.setPlanCapture(null);
+            System.out.println("Stopped capturing plans to " + file);
+            return;
+         }
+         System.out.println("Please enter the file to capture plans to [plans.jsonl]: ");
+         file = in.readLine().trim();
+         if (file.length() == 0) file = "plans.jsonl";
+         esql.setPlanCapture(file);
+         System.out.println("Capturing the plan of every statement to " + file);
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      }
+   }//end togglePlanCapture
+
 }//end DBProject
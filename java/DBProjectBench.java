@@ -0,0 +1,352 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Micro-benchmarks of the Java side of the menu operations: date validation,
+ * SQL statement assembly and parameter binding, and the row formatting loop
+ * of every result sink.  No database is needed; statements and result sets
+ * are synthetic.
+ *
+ * Every benchmark is warmed up and then measured for a number of timed
+ * iterations, reporting the time and the bytes allocated per operation.
+ *
+ * Usage: java DBProjectBench [name regex]
+ *
+ * Settings (system properties):
+ *   bench.warmup      warmup iterations (default 5)
+ *   bench.iterations  measured iterations (default 5)
+ *   bench.time        milliseconds per iteration (default 1000)
+ *   bench.save        file to save the results to, as a future baseline
+ *   bench.baseline    file of saved results to compare against; the exit
+ *                     code is 1 when a benchmark got slower than
+ *                     bench.tolerance (default 0.2, i.e. 20%) or allocates
+ *                     more than before
+ *
+ */
+public class DBProjectBench {
+
+   // rows of the synthetic result set formatted by the sink benchmarks.
+   private static final int ROWS = 1000;
+
+   /**
+    * A benchmark runs its operation a given number of times and returns
+    * something derived from the results, so that the work cannot be
+    * optimized away.
+    */
+   static abstract class Benchmark {
+      final String name;
+
+      Benchmark (String name){
+         this.name = name;
+      }//end Benchmark
+
+      abstract long run (int ops) throws Exception;
+   }//end Benchmark
+
+   // consumes the results of the benchmarks.
+   static volatile long sink;
+
+   public static void main (String[] args) throws Exception {
+      Pattern filter = Pattern.compile (args.length > 0 ? args[0] : ".*");
+      int warmup = Integer.getInteger ("bench.warmup", 5);
+      int iterations = Integer.getInteger ("bench.iterations", 5);
+      long time = Long.getLong ("bench.time", 1000L);
+      String save = System.getProperty ("bench.save");
+      String baseline = System.getProperty ("bench.baseline");
+      double tolerance = Double.parseDouble (System.getProperty ("bench.tolerance", "0.2"));
+
+      Map<String, double[]> previous = baseline != null ? load (baseline) : null;
+      List<String> results = new ArrayList<String> ();
+      int regressions = 0;
+
+      System.out.println (String.format (Locale.ROOT, "%-28s %12s %10s %12s %10s",
+            "Benchmark", "ns/op", "+-", "B/op", "MB/s"));
+      for (Benchmark b : benchmarks ()){
+         if (!filter.matcher (b.name).find ())
+            continue;
+         int ops = calibrate (b, time);
+         for (int i = 0; i < warmup; ++i)
+            sink += b.run (ops);
+
+         double[] nanos = new double[iterations];
+         double bytes = 0;
+         for (int i = 0; i < iterations; ++i){
+            long allocated = allocatedBytes ();
+            long start = System.nanoTime ();
+            sink += b.run (ops);
+            nanos[i] = (double) (System.nanoTime () - start) / ops;
+            bytes += (double) (allocatedBytes () - allocated) / ops;
+         }//end for
+         double mean = mean (nanos);
+         double error = stddev (nanos, mean);
+         bytes /= iterations;
+         System.out.println (String.format (Locale.ROOT, "%-28s %12.1f %10.1f %12.1f %10.1f",
+               b.name, mean, error, bytes, bytes / mean * 1e9 / (1 << 20)));
+         results.add (String.format (Locale.ROOT, "%s %.1f %.1f", b.name, mean, bytes));
+
+         double[] before = previous != null ? previous.get (b.name) : null;
+         if (before != null){
+            boolean slower = mean > before[0] * (1 + tolerance);
+            // allow for the bytes of the occasional TLAB refill or GC.
+            boolean fatter = bytes > before[1] + 8;
+            if (slower || fatter){
+               ++regressions;
+               System.out.println (String.format (Locale.ROOT,
+                     "  REGRESSION: was %.1f ns/op and %.1f B/op", before[0], before[1]));
+            }//end if
+         }//end if
+      }//end for
+
+      if (save != null){
+         PrintWriter w = new PrintWriter (new BufferedWriter (new FileWriter (save)));
+         try{
+            for (String line : results)
+               w.println (line);
+         }finally{
+            w.close ();
+         }//end try
+      }//end if
+      if (regressions > 0){
+         System.out.println (regressions + " benchmark(s) regressed against " + baseline);
+         System.exit (1);
+      }//end if
+   }//end main
+
+   /*
+    * The benchmarks, in the order they are run.
+    */
+   static List<Benchmark> benchmarks () throws Exception {
+      List<Benchmark> list = new ArrayList<Benchmark> ();
+
+      // the date checks of bookRoom, addRepair and the other menu operations.
+      list.add (new Benchmark ("validDate"){
+         long run (int ops){
+            long valid = 0;
+            for (int i = 0; i < ops; ++i){
+               int year = 1990 + (i & 63);
+               int month = 1 + (i >>> 6) % 12;
+               int day = 1 + (i >>> 3) % 31;
+               if (DBProject.validDate (year, month, day))
+                  ++valid;
+            }//end for
+            return valid;
+         }
+      });
+      final Map<String, String> params = new HashMap<String, String> ();
+      params.put ("date", "2016-02-29");
+      final BatchRunner.Record record = new BatchRunner.Record (1, "bookRoom", params);
+      list.add (new Benchmark ("parseDate"){
+         long run (int ops){
+            long sum = 0;
+            for (int i = 0; i < ops; ++i)
+               sum += record.date ("date").getTime ();
+            return sum;
+         }
+      });
+      list.add (new Benchmark ("parseRecord"){
+         long run (int ops){
+            long sum = 0;
+            for (int i = 0; i < ops; ++i)
+               sum += BatchRunner.Record.parse (i,
+                     "bookRoom id=9001 customer=12 hotel=3 room=41 date=2016-02-29 people=2 price=120.50")
+                     .params.size ();
+            return sum;
+         }
+      });
+
+      // SQL assembly and binding of the statements sent for every operation.
+      final String query = "SELECT B.price FROM Booking B WHERE B.customer = ? ORDER BY B.price DESC LIMIT ?;";
+      list.add (new Benchmark ("declareCursor"){
+         long run (int ops){
+            long sum = 0;
+            for (int i = 0; i < ops; ++i)
+               sum += DBProject.declareCursor (query).length ();
+            return sum;
+         }
+      });
+      final PreparedStatement stmt = preparedStatement ();
+      final Date date = DBProject.toDate (2016, 2, 29);
+      final BigDecimal price = new BigDecimal ("120.50");
+      list.add (new Benchmark ("bindBookRoom"){
+         long run (int ops) throws SQLException {
+            for (int i = 0; i < ops; ++i)
+               DBProject.bind (stmt, i, 12, 3, 41, date, 2, price);
+            return ops;
+         }
+      });
+
+      // the row formatting loop of executeQuery() and streamQuery().
+      final String[][] rows = rows ();
+      for (final String format : new String[] {"tsv", "csv", "jsonl", "binary"}){
+         final ResultSink rowSink = sink (format);
+         list.add (new Benchmark ("printRows." + format){
+            long run (int ops) throws Exception {
+               long sum = 0;
+               for (int i = 0; i < ops; ++i)
+                  sum += DBProject.printRows (resultSet (rows), rowSink, true);
+               rowSink.flush ();
+               return sum;
+            }
+         });
+      }//end for
+      return list;
+   }//end benchmarks
+
+   // finds a number of operations that takes about a tenth of an iteration.
+   private static int calibrate (Benchmark b, long millis) throws Exception {
+      int ops = 1;
+      while (true){
+         long start = System.nanoTime ();
+         sink += b.run (ops);
+         long elapsed = System.nanoTime () - start;
+         if (elapsed * 10 >= millis * 1000000L || ops >= (1 << 30))
+            return (int) Math.max (1, Math.min (Integer.MAX_VALUE, (long) ops * millis * 1000000L / Math.max (1, elapsed)));
+         ops *= 2;
+      }//end while
+   }//end calibrate
+
+   // bytes allocated so far by the current thread, on HotSpot.
+   private static long allocatedBytes (){
+      return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ())
+            .getThreadAllocatedBytes (Thread.currentThread ().getId ());
+   }//end allocatedBytes
+
+   private static double mean (double[] values){
+      double sum = 0;
+      for (double v : values)
+         sum += v;
+      return sum / values.length;
+   }//end mean
+
+   private static double stddev (double[] values, double mean){
+      if (values.length < 2)
+         return 0;
+      double sum = 0;
+      for (double v : values)
+         sum += (v - mean) * (v - mean);
+      return Math.sqrt (sum / (values.length - 1));
+   }//end stddev
+
+   // reads the results saved by a previous run with bench.save.
+   private static Map<String, double[]> load (String file) throws IOException {
+      Map<String, double[]> results = new HashMap<String, double[]> ();
+      for (String line : Files.readAllLines (Paths.get (file), Charset.forName ("UTF-8"))){
+         String[] parts = line.trim ().split ("\\s+");
+         if (parts.length == 3)
+            results.put (parts[0], new double[] {Double.parseDouble (parts[1]), Double.parseDouble (parts[2])});
+      }//end for
+      return results;
+   }//end load
+
+   // rows shaped like the result of topKHighestPriceBookingsForACustomer.
+   private static String[][] rows (){
+      String[][] rows = new String[ROWS][];
+      for (int i = 0; i < ROWS; ++i)
+         rows[i] = new String[] {
+            String.valueOf (100000 + i),
+            String.valueOf (i % 97),
+            "2016-" + (1 + i % 12 < 10 ? "0" : "") + (1 + i % 12) + "-15",
+            i % 10 == 0 ? null : String.valueOf (50 + i % 400) + ".99",
+            "Suite \"" + (i % 7) + "\", sea view",
+         };
+      return rows;
+   }//end rows
+
+   private static ResultSink sink (String format) throws IOException {
+      WritableByteChannel discard = new WritableByteChannel (){
+         public int write (ByteBuffer src){
+            int n = src.remaining ();
+            src.position (src.limit ());
+            return n;
+         }
+         public boolean isOpen (){
+            return true;
+         }
+         public void close (){
+         }
+      };
+      switch (format){
+         case "tsv": return new TsvSink (discard);
+         case "csv": return new CsvSink (discard);
+         case "jsonl": return new JsonLinesSink (discard);
+         default: return new BinaryRowSink (discard);
+      }//end switch
+   }//end sink
+
+   private static final String[] COLUMNS = {"bid", "hotelid", "bookingdate", "price", "roomtype"};
+   private static final int[] TYPES = {Types.INTEGER, Types.INTEGER, Types.DATE, Types.NUMERIC, Types.VARCHAR};
+
+   /*
+    * A forward-only result set over the given rows, implementing just what
+    * printRows() calls.
+    */
+   private static ResultSet resultSet (final String[][] rows){
+      final ResultSetMetaData rsmd = (ResultSetMetaData) Proxy.newProxyInstance (
+            ResultSetMetaData.class.getClassLoader (), new Class<?>[] {ResultSetMetaData.class},
+            new InvocationHandler (){
+               public Object invoke (Object proxy, Method m, Object[] args){
+                  switch (m.getName ()){
+                     case "getColumnCount": return COLUMNS.length;
+                     case "getColumnName": return COLUMNS[(Integer) args[0] - 1];
+                     case "getColumnType": return TYPES[(Integer) args[0] - 1];
+                     default: throw new UnsupportedOperationException (m.getName ());
+                  }//end switch
+               }
+            });
+      return (ResultSet) Proxy.newProxyInstance (
+            ResultSet.class.getClassLoader (), new Class<?>[] {ResultSet.class},
+            new InvocationHandler (){
+               private int row = -1;
+
+               public Object invoke (Object proxy, Method m, Object[] args){
+                  switch (m.getName ()){
+                     case "next": return ++this.row < rows.length;
+                     case "getString": return rows[this.row][(Integer) args[0] - 1];
+                     case "getMetaData": return rsmd;
+                     case "close": return null;
+                     default: throw new UnsupportedOperationException (m.getName ());
+                  }//end switch
+               }
+            });
+   }//end resultSet
+
+   /*
+    * A prepared statement that accepts and drops its parameters.
+    */
+   private static PreparedStatement preparedStatement (){
+      return (PreparedStatement) Proxy.newProxyInstance (
+            PreparedStatement.class.getClassLoader (), new Class<?>[] {PreparedStatement.class},
+            new InvocationHandler (){
+               public Object invoke (Object proxy, Method m, Object[] args){
+                  if (m.getName ().startsWith ("set"))
+                     return null;
+                  throw new UnsupportedOperationException (m.getName ());
+               }
+            });
+   }//end preparedStatement
+
+}//end DBProjectBench
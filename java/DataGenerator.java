@@ -0,0 +1,499 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates the data/*.csv files at any scale, for BulkLoader to load.
+ *
+ * At scale 1 the row counts are those of the shipped data: 1,000 hotels with
+ * 10 rooms and 5 staff each, 20 maintenance companies, 2,000 customers,
+ * 4,000 bookings and 2,000 repairs, requests and cleaning assignments.
+ * Customers, bookings, repairs, requests and assignments grow linearly with
+ * the scale; hotels and companies grow with its square root, so a larger
+ * database also has a longer booking history per room.
+ *
+ * Every row is computed from the seed, its table and its id only, so the
+ * output does not depend on the number of threads: files are cut into
+ * chunks that are generated in parallel and written in order, in constant
+ * memory.  A room is never booked twice on the same day: every booking id
+ * owns a night of its own by construction (see night()).  Foreign keys
+ * follow create.sql and the first row of every file is the "default" row 0
+ * that the ON DELETE SET DEFAULT constraints point to.  Bookings, repairs
+ * and assignments favour a small set of hot hotels, and dates follow a
+ * seasonal pattern (summer and December peaks, more recent years busier).
+ *
+ * Usage: java DataGenerator &lt;output dir&gt; [scale] [seed]
+ *
+ * The number of threads is set with dbproject.gen.threads (the number of
+ * processors by default).
+ *
+ */
+public class DataGenerator {
+
+   // rows per chunk, generated by one task.
+   private static final int CHUNK = 1 << 15;
+
+   // per hotel staff, in the order of the shipped data.
+   private static final String[] ROLES = {"Manager", "Receptionist", "HouseCleaning", "Receptionist", "HouseCleaning"};
+   private static final String[] ROOM_TYPES = {"Economy", "Economy", "Economy", "Economy", "Economy",
+                                               "Suite", "Suite", "Suite", "Deluxe", "Deluxe"};
+   private static final int[] BASE_PRICE = {100, 600, 1200};
+   private static final String[] REPAIR_TYPES = {"Small", "Medium", "Large"};
+   private static final String[] GENDERS = {"Male", "Female", "Other"};
+
+   // relative booking activity of each month, and the years covered.
+   private static final int[] SEASON = {6, 5, 6, 7, 8, 11, 13, 13, 8, 7, 6, 10};
+   private static final int FIRST_YEAR = 2000;
+   private static final int LAST_YEAR = 2018;
+
+   private static final int ROOMS_PER_HOTEL = 10;
+   private static final int STAFF_PER_HOTEL = ROLES.length;
+
+   // table ids mixed into the row seeds.
+   private static final int HOTEL = 1, STAFF = 2, ROOM = 3, CUSTOMER = 4, COMPANY = 5,
+                            BOOKING = 6, REPAIR = 7, REQUEST = 8, ASSIGNED = 9, BOOKED_NIGHT = 10;
+
+   private final long _seed;
+   private final long _hotels;
+   private final long _companies;
+   private final long _customers;
+   private final long _bookings;
+   private final long _repairs;
+   private final long _assigned;
+
+   // spreads the hot hotels over the id range, coprime with _hotels.
+   private final long _stride;
+
+   // cumulative weights of the months of every year.
+   private final int[] _calendar;
+
+   // the bookings dealt to the hot hotels and to all of them, the number of
+   // hot hotels, and the multiplier and offset scrambling the booking ids,
+   // see night().
+   private final long _hotBookings;
+   private final long _hot;
+   private final long _scramble;
+   private final long _offset;
+
+   /**
+    * A splitmix64 generator, reseeded for every row.
+    */
+   static final class Rng {
+      private long _state;
+
+      void seed (long seed, int table, long id){
+         this._state = seed ^ (table * 0xD1B54A32D192ED03L) ^ (id * 0x9E3779B97F4A7C15L);
+         next ();
+      }//end seed
+
+      long next (){
+         long z = (this._state += 0x9E3779B97F4A7C15L);
+         z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+         z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+         return z ^ (z >>> 31);
+      }//end next
+
+      // a uniform value in [0, n).
+      long below (long n){
+         return (next () >>> 1) % n;
+      }//end below
+
+      double uniform (){
+         return (next () >>> 11) * 0x1.0p-53;
+      }//end uniform
+   }//end Rng
+
+   /**
+    * Writes one row of a file, without its line break.
+    */
+   private interface RowWriter {
+      void write (StringBuilder line, Rng rng, long id);
+   }//end RowWriter
+
+   DataGenerator (double scale, long seed){
+      this._seed = seed;
+      this._hotels = Math.max (1, Math.round (1000 * Math.sqrt (scale)));
+      this._companies = Math.max (1, Math.round (20 * Math.sqrt (scale)));
+      this._customers = Math.max (1, Math.round (2000 * scale));
+      this._bookings = Math.round (4000 * scale);
+      this._repairs = Math.round (2000 * scale);
+      this._assigned = Math.round (2000 * scale);
+
+      long stride = Math.max (1, (long) (this._hotels * 0.618));
+      while (gcd (stride, this._hotels) != 1)
+         ++stride;
+      this._stride = stride;
+
+      this._calendar = new int[(LAST_YEAR - FIRST_YEAR + 1) * 12];
+      int total = 0;
+      for (int y = FIRST_YEAR; y <= LAST_YEAR; ++y)
+         for (int m = 0; m < 12; ++m){
+            // later years are up to three times busier than the first one.
+            total += SEASON[m] * (LAST_YEAR - FIRST_YEAR + 2 * (y - FIRST_YEAR));
+            this._calendar[(y - FIRST_YEAR) * 12 + m] = total;
+         }//end for
+
+      this._hotBookings = this._bookings / 2;
+      this._hot = Math.max (1, (long) (this._hotels * 0.1));
+      long scramble = 1299709;
+      while (this._bookings > 1 && gcd (scramble, this._bookings) != 1)
+         ++scramble;
+      this._scramble = scramble;
+      this._offset = this._bookings > 0 ? (seed % this._bookings + this._bookings) % this._bookings : 0;
+
+      // the busiest month of the busiest hotel must fit in its nights.
+      if (this._bookings > 0){
+         long most = hotelStart (1) - hotelStart (0) + 1;
+         for (int m = 0; m < this._calendar.length; ++m){
+            long n = monthStart (most, m + 1) - monthStart (most, m);
+            if (n > ROOMS_PER_HOTEL * monthLength (m))
+               throw new IllegalArgumentException ("Scale too large: " + n + " bookings of a hotel would fall in the same month");
+         }//end for
+      }//end if
+   }//end DataGenerator
+
+   /**
+    * The main execution method
+    *
+    * @param args the output folder and optionally the scale and the seed
+    */
+   public static void main (String[] args){
+      if (args.length < 1 || args.length > 3){
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + DataGenerator.class.getName () +
+            " <output dir> [scale] [seed]");
+         return;
+      }//end if
+      try{
+         double scale = args.length > 1 ? Double.parseDouble (args[1]) : 1.0;
+         long seed = args.length > 2 ? Long.parseLong (args[2]) : 166L;
+         if (scale <= 0)
+            throw new IllegalArgumentException ("The scale must be positive");
+         File dir = new File (args[0]);
+         if (!dir.isDirectory () && !dir.mkdirs ())
+            throw new IOException ("Cannot create " + dir);
+         int threads = Integer.getInteger ("dbproject.gen.threads", Runtime.getRuntime ().availableProcessors ());
+         new DataGenerator (scale, seed).generate (dir, threads);
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+         System.exit (1);
+      }//end try
+   }//end main
+
+   /**
+    * Writes every file to the given folder.
+    */
+   void generate (File dir, int threads) throws Exception {
+      long start = System.nanoTime ();
+      ExecutorService pool = Executors.newFixedThreadPool (Math.max (1, threads));
+      try{
+         write (pool, threads, new File (dir, "hotel.csv"), "0,default,\\N", this._hotels, new RowWriter (){
+            public void write (StringBuilder line, Rng rng, long id){
+               line.append (id).append (',');
+               word (line, rng, 6).append (",\\N");
+            }
+         });
+         write (pool, threads, new File (dir, "staff.csv"), "0,default,default,default,Manager,0",
+               this._hotels * STAFF_PER_HOTEL, new RowWriter (){
+            public void write (StringBuilder line, Rng rng, long id){
+               line.append (id).append (',');
+               word (line, rng, 4).append (',');
+               word (line, rng, 4).append (',');
+               word (line, rng, 6).append (',');
+               line.append (ROLES[(int) ((id - 1) % STAFF_PER_HOTEL)]).append (',');
+               line.append ((id - 1) / STAFF_PER_HOTEL + 1);
+            }
+         });
+         write (pool, threads, new File (dir, "room.csv"), "0,0,default",
+               this._hotels * ROOMS_PER_HOTEL, new RowWriter (){
+            public void write (StringBuilder line, Rng rng, long id){
+               long hotel = (id - 1) / ROOMS_PER_HOTEL + 1;
+               int room = (int) ((id - 1) % ROOMS_PER_HOTEL) + 1;
+               line.append (hotel).append (',').append (room).append (',');
+               line.append (ROOM_TYPES[roomType (hotel, room)]);
+            }
+         });
+         write (pool, threads, new File (dir, "customer.csv"), "0,default,default,default,0,1/1/2000,Male",
+               this._customers, new RowWriter (){
+            public void write (StringBuilder line, Rng rng, long id){
+               line.append (id).append (',');
+               word (line, rng, 4).append (',');
+               word (line, rng, 4).append (',');
+               word (line, rng, 6).append (',');
+               line.append (1000000000L + rng.below (9000000000L)).append (',');
+               date (line, (int) (rng.below (21915) - 10957)).append (',');
+               line.append (GENDERS[(int) rng.below (GENDERS.length)]);
+            }
+         });
+         write (pool, threads, new File (dir, "maintenanceCompany.csv"), "0,default,default,TRUE",
+               this._companies, new RowWriter (){
+            public void write (StringBuilder line, Rng rng, long id){
+               line.append (id).append (',');
+               word (line, rng, 4).append (',');
+               word (line, rng, 6).append (',');
+               line.append (rng.below (5) == 0 ? "FALSE" : "TRUE");
+            }
+         });
+         write (pool, threads, new File (dir, "booking.csv"), "0,0,0,0,1/1/2000,0,0", this._bookings, new RowWriter (){
+            public void write (StringBuilder line, Rng rng, long id){
+               long night = night (id);
+               long hotel = night >>> 20;
+               int room = (int) (night >>> 16) & 0xF;
+               int type = roomType (hotel, room);
+               line.append (id).append (',');
+               line.append (rng.below (DataGenerator.this._customers) + 1).append (',');
+               line.append (hotel).append (',').append (room).append (',');
+               date (line, (int) (night & 0xFFFF)).append (',');
+               line.append (rng.below (type == 0 ? 2 : 4) + 1).append (',');
+               line.append (BASE_PRICE[type] + rng.below (800));
+            }
+         });
+         write (pool, threads, new File (dir, "repair.csv"), "0,0,0,0,1/1/2000,default,Small", this._repairs, new RowWriter (){
+            public void write (StringBuilder line, Rng rng, long id){
+               line.append (id).append (',');
+               line.append (repairHotel (id)).append (',');
+               line.append (rng.below (ROOMS_PER_HOTEL) + 1).append (',');
+               // a few companies get most of the work.
+               line.append (skewed (rng, DataGenerator.this._companies, 0.2) + 1).append (',');
+               date (line, repairDay (id)).append (',');
+               word (line, rng, 4).append (',');
+               line.append (REPAIR_TYPES[(int) rng.below (REPAIR_TYPES.length)]);
+            }
+         });
+         // one request per repair, raised by the manager of its hotel shortly before.
+         write (pool, threads, new File (dir, "request.csv"), "0,0,0,1/1/2000,default", this._repairs, new RowWriter (){
+            public void write (StringBuilder line, Rng rng, long id){
+               line.append (id).append (',');
+               line.append ((repairHotel (id) - 1) * STAFF_PER_HOTEL + 1).append (',');
+               line.append (id).append (',');
+               date (line, repairDay (id) - (int) rng.below (31)).append (',');
+               word (line, rng, 4);
+            }
+         });
+         write (pool, threads, new File (dir, "assigned.csv"), "0,0,0,0", this._assigned, new RowWriter (){
+            public void write (StringBuilder line, Rng rng, long id){
+               long hotel = hotHotel (rng);
+               line.append (id).append (',');
+               line.append ((hotel - 1) * STAFF_PER_HOTEL + (rng.below (2) == 0 ? 3 : 5)).append (',');
+               line.append (hotel).append (',');
+               line.append (rng.below (ROOMS_PER_HOTEL) + 1);
+            }
+         });
+      }finally{
+         pool.shutdown ();
+      }//end try
+      System.out.println (String.format (Locale.ROOT, "Done in %.1f s", (System.nanoTime () - start) / 1e9));
+   }//end generate
+
+   /*
+    * Writes a file: the default row, then rows 1..rows generated in chunks
+    * by the pool and written in order, with at most two chunks per thread in
+    * memory.
+    */
+   private void write (ExecutorService pool, int threads, File file, String defaultRow,
+                       long rows, final RowWriter writer) throws Exception {
+      long start = System.nanoTime ();
+      final int table = tableOf (file.getName ());
+      OutputStream out = new FileOutputStream (file);
+      try{
+         out.write ((defaultRow + "\n").getBytes ("US-ASCII"));
+         Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>> ();
+         for (long first = 1; first <= rows; first += CHUNK){
+            final long from = first;
+            final long to = Math.min (rows, first + CHUNK - 1);
+            pending.add (pool.submit (new Callable<byte[]> (){
+               public byte[] call () throws IOException {
+                  StringBuilder text = new StringBuilder ((int) (to - from + 1) * 48);
+                  Rng rng = new Rng ();
+                  for (long id = from; id <= to; ++id){
+                     rng.seed (DataGenerator.this._seed, table, id);
+                     writer.write (text, rng, id);
+                     text.append ('\n');
+                  }//end for
+                  return text.toString ().getBytes ("US-ASCII");
+               }
+            }));
+            if (pending.size () >= 2 * threads)
+               out.write (take (pending));
+         }//end for
+         while (!pending.isEmpty ())
+            out.write (take (pending));
+      }finally{
+         out.close ();
+      }//end try
+      System.out.println (String.format (Locale.ROOT, "  %-24s %12d rows in %.1f s", file.getName (), rows + 1,
+            (System.nanoTime () - start) / 1e9));
+   }//end write
+
+   private static byte[] take (Deque<Future<byte[]>> pending) throws Exception {
+      try{
+         return pending.removeFirst ().get ();
+      }catch (ExecutionException e){
+         throw e.getCause () instanceof Exception ? (Exception) e.getCause () : e;
+      }//end try
+   }//end take
+
+   private static int tableOf (String file){
+      switch (file){
+         case "hotel.csv": return HOTEL;
+         case "staff.csv": return STAFF;
+         case "room.csv": return ROOM;
+         case "customer.csv": return CUSTOMER;
+         case "maintenanceCompany.csv": return COMPANY;
+         case "booking.csv": return BOOKING;
+         case "repair.csv": return REPAIR;
+         case "request.csv": return REQUEST;
+         default: return ASSIGNED;
+      }//end switch
+   }//end tableOf
+
+   /*
+    * The hotel, room and day of a booking, packed as hotel << 20 | room << 16
+    * | day.  The bookings, in a scrambled id order, are dealt to the hotels in
+    * proportion to their activity (half to the hot hotels, half to all), the
+    * bookings of a hotel to the months in proportion to the calendar, and
+    * the k-th booking of a hotel in a month takes the k-th night of a
+    * permutation of its rooms and days of that month.  Every night is thus
+    * booked at most once, computed from the id alone.
+    */
+   private long night (long id){
+      long p = (this._scramble * (id - 1) % this._bookings + this._offset) % this._bookings;
+
+      // the hotel: the last rank whose bookings start at or before p.
+      long lo = 0, hi = this._hotels - 1;
+      while (lo < hi){
+         long mid = (lo + hi + 1) >>> 1;
+         if (hotelStart (mid) <= p)
+            lo = mid;
+         else
+            hi = mid - 1;
+      }//end while
+      long first = hotelStart (lo);
+      long n = hotelStart (lo + 1) - first;
+      long k = p - first;
+      long hotel = lo * this._stride % this._hotels + 1;
+
+      // the month: the last one whose bookings start at or before k.
+      int m = 0, top = this._calendar.length - 1;
+      while (m < top){
+         int mid = (m + top + 1) >>> 1;
+         if (monthStart (n, mid) <= k)
+            m = mid;
+         else
+            top = mid - 1;
+      }//end while
+      long t = k - monthStart (n, m);
+
+      // the night, from a permutation of the nights of the month.
+      long nights = ROOMS_PER_HOTEL * monthLength (m);
+      Rng rng = new Rng ();
+      rng.seed (this._seed, BOOKED_NIGHT, hotel << 8 | m);
+      long step = rng.below (nights - 1) + 1;
+      while (gcd (step, nights) != 1)
+         step = step % (nights - 1) + 1;
+      long cell = (t * step + rng.below (nights)) % nights;
+      int day = OccupancyIndex.day (FIRST_YEAR + m / 12, m % 12 + 1, (int) (cell / ROOMS_PER_HOTEL) + 1);
+      return hotel << 20 | (cell % ROOMS_PER_HOTEL + 1) << 16 | day;
+   }//end night
+
+   // the first booking (in scrambled order) of the hotel of a rank.
+   private long hotelStart (long rank){
+      return scaled (this._hotBookings, Math.min (rank, this._hot), this._hot)
+         + scaled (this._bookings - this._hotBookings, rank, this._hotels);
+   }//end hotelStart
+
+   // the first of the n bookings of a hotel that falls in a month.
+   private long monthStart (long n, int month){
+      return month == 0 ? 0 : scaled (n, this._calendar[month - 1], this._calendar[this._calendar.length - 1]);
+   }//end monthStart
+
+   // the number of days of a month of the calendar.
+   private static int monthLength (int month){
+      int length = 31;
+      while (!DBProject.validDate (FIRST_YEAR + month / 12, month % 12 + 1, length))
+         --length;
+      return length;
+   }//end monthLength
+
+   // a * x / d rounded down, without overflow, for 0 <= x <= d.
+   private static long scaled (long a, long x, long d){
+      return a / d * x + a % d * x / d;
+   }//end scaled
+
+   // the type of a room, shared by room.csv and the booking prices.
+   private int roomType (long hotel, int room){
+      Rng rng = new Rng ();
+      rng.seed (this._seed, ROOM, (hotel - 1) * ROOMS_PER_HOTEL + room);
+      int t = (int) rng.below (ROOM_TYPES.length);
+      return t < 5 ? 0 : t < 8 ? 1 : 2;
+   }//end roomType
+
+   // the hotel and day of a repair, shared by repair.csv and request.csv.
+   private long repairHotel (long id){
+      Rng rng = new Rng ();
+      rng.seed (this._seed, REPAIR, -id);
+      return hotHotel (rng);
+   }//end repairHotel
+
+   private int repairDay (long id){
+      Rng rng = new Rng ();
+      rng.seed (this._seed, REQUEST, -id);
+      return seasonalDay (rng);
+   }//end repairDay
+
+   // a hotel id where 10% of the hotels get more than half of the activity.
+   private long hotHotel (Rng rng){
+      long rank = skewed (rng, this._hotels, 0.1);
+      return rank * this._stride % this._hotels + 1;
+   }//end hotHotel
+
+   // a value in [0, n): half of the time one of the lowest hot * n values.
+   private static long skewed (Rng rng, long n, double hot){
+      if (rng.uniform () < 0.5)
+         return rng.below (Math.max (1, (long) (n * hot)));
+      return rng.below (n);
+   }//end skewed
+
+   // a day (since 1970-01-01) following the seasonal calendar.
+   private int seasonalDay (Rng rng){
+      int r = (int) rng.below (this._calendar[this._calendar.length - 1]);
+      int month = 0;
+      while (this._calendar[month] <= r)
+         ++month;
+      return OccupancyIndex.day (FIRST_YEAR + month / 12, month % 12 + 1, (int) rng.below (monthLength (month)) + 1);
+   }//end seasonalDay
+
+   // appends a day (since 1970-01-01) as M/D/YYYY.
+   private static StringBuilder date (StringBuilder line, int day){
+      int z = day + 719468;
+      int era = (z >= 0 ? z : z - 146096) / 146097;
+      int doe = z - era * 146097;
+      int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+      int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+      int mp = (5 * doy + 2) / 153;
+      int d = doy - (153 * mp + 2) / 5 + 1;
+      int m = mp < 10 ? mp + 3 : mp - 9;
+      int y = yoe + era * 400 + (m <= 2 ? 1 : 0);
+      return line.append (m).append ('/').append (d).append ('/').append (y);
+   }//end date
+
+   private static StringBuilder word (StringBuilder line, Rng rng, int length){
+      for (int i = 0; i < length; ++i)
+         line.append ((char) ('a' + rng.below (26)));
+      return line;
+   }//end word
+
+   private static long gcd (long a, long b){
+      return b == 0 ? a : gcd (b, a % b);
+   }//end gcd
+
+}//end DataGenerator
@@ -0,0 +1,343 @@
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulates many front desk clerks using the application at the same time,
+ * to find where they contend with each other.
+ *
+ * Each session repeats what a clerk does for a walk-in guest: look up the
+ * rooms of a hotel that are free for a week, book one of them, and now and
+ * then assign house cleaning to the room or raise a repair request, pausing
+ * for a random think time between steps.  Hotels are picked the way the
+ * existing bookings are spread, so busy hotels get most of the sessions.
+ *
+ * Sessions are not threads: a session is a small state machine whose next
+ * step is scheduled on a shared pool of worker threads once its think time
+ * is over, so thousands of them only need as many threads as there are
+ * database connections.
+ *
+ * The report lists the latency of each step, the hotels where the sessions
+ * spent the most time, and the rooms whose bookings were refused most often
+ * because another session had already booked that night.  As a check of the
+ * unique constraint on Booking, it also counts the nights that were booked
+ * twice, which should never happen.
+ *
+ * Usage: java FrontDeskLoad &lt;dbname&gt; &lt;port&gt; &lt;user&gt;
+ *
+ * Settings (system properties):
+ *   load.sessions   concurrent sessions (default 1000)
+ *   load.duration   seconds to run (default 60)
+ *   load.thinkTime  mean think time between steps in ms (default 2000)
+ *   load.threads    worker threads (default dbproject.pool.max, or 8)
+ *   load.top        hotels and rooms listed in the report (default 10)
+ *
+ */
+public class FrontDeskLoad {
+
+   private static final String[] STEPS = {"lookup", "bookRoom", "assignHouseCleaningToRoom", "repairRequest"};
+
+   private final DBProject _esql;
+   private final Samples _samples;
+   private final ScheduledExecutorService _workers;
+   private final long _thinkTime;
+   private volatile long _deadline;
+
+   private final Map<String, LatencyHistogram> _latencies = new ConcurrentHashMap<String, LatencyHistogram> ();
+   private final Map<String, AtomicInteger> _errors = new ConcurrentHashMap<String, AtomicInteger> ();
+   private final ConcurrentHashMap<String, String> _firstError = new ConcurrentHashMap<String, String> ();
+
+   // per hotel: number of steps and nanoseconds spent in them.
+   private final ConcurrentHashMap<Integer, AtomicLong[]> _hotelTime = new ConcurrentHashMap<Integer, AtomicLong[]> ();
+
+   // nights booked during the run ("hotel/room/date"), the number of nights
+   // booked twice, and per room how often a booking was refused because the
+   // night was taken.
+   private final ConcurrentHashMap<String, Boolean> _booked = new ConcurrentHashMap<String, Boolean> ();
+   private final AtomicInteger _doubleBooked = new AtomicInteger ();
+   private final ConcurrentHashMap<String, AtomicInteger> _refused = new ConcurrentHashMap<String, AtomicInteger> ();
+
+   private final AtomicInteger _active = new AtomicInteger ();
+
+   /**
+    * One clerk: the guest being served and the next step to take.
+    */
+   private final class Session implements Runnable {
+      private int _step = 0;
+      private int _hotel;
+      private int _room;
+      private Date _date;
+
+      public void run (){
+         if (System.nanoTime () >= FrontDeskLoad.this._deadline){
+            FrontDeskLoad.this._active.decrementAndGet ();
+            return;
+         }//end if
+         ThreadLocalRandom random = ThreadLocalRandom.current ();
+         boolean scheduled = false;
+         try{
+            try{
+               switch (this._step){
+                  case 0:
+                     this._hotel = FrontDeskLoad.this._samples.busyHotel ();
+                     this._date = FrontDeskLoad.this._samples.date (0);
+                     this._room = timed (0, this._hotel) ? pickRoom (this._hotel, this._date) : -1;
+                     this._step = this._room < 0 ? 0 : 1;
+                     break;
+                  case 1:
+                     timed (1, this._hotel);
+                     this._step = random.nextInt (10) < 3 ? 2 : random.nextInt (10) < 1 ? 3 : 0;
+                     break;
+                  case 2:
+                     timed (2, this._hotel);
+                     this._step = random.nextInt (10) < 1 ? 3 : 0;
+                     break;
+                  default:
+                     timed (3, this._hotel);
+                     this._step = 0;
+                     break;
+               }//end switch
+            }catch (RuntimeException e){
+               // e.g. no hotel or room to pick: counted against the step,
+               // and the session starts over.
+               String name = STEPS[this._step];
+               FrontDeskLoad.this._errors.get (name).incrementAndGet ();
+               FrontDeskLoad.this._firstError.putIfAbsent (name, String.valueOf (e));
+               this._step = 0;
+            }//end try
+            FrontDeskLoad.this._workers.schedule (this, think (), TimeUnit.MILLISECONDS);
+            scheduled = true;
+         }finally{
+            // a session that is not rescheduled has ended: run() waits for
+            // the active ones.
+            if (!scheduled)
+               FrontDeskLoad.this._active.decrementAndGet ();
+         }//end try
+      }//end run
+
+      // runs a step, recording its latency against the step and the hotel.
+      private boolean timed (int step, int hotel){
+         String name = STEPS[step];
+         long start = System.nanoTime ();
+         try{
+            execute (step);
+         }catch (Exception e){
+            FrontDeskLoad.this._errors.get (name).incrementAndGet ();
+            FrontDeskLoad.this._firstError.putIfAbsent (name, String.valueOf (e.getMessage ()));
+            return false;
+         }//end try
+         long elapsed = System.nanoTime () - start;
+         FrontDeskLoad.this._latencies.get (name).record (elapsed);
+         AtomicLong[] h = FrontDeskLoad.this._hotelTime.get (hotel);
+         if (h == null){
+            AtomicLong[] fresh = {new AtomicLong (), new AtomicLong ()};
+            h = FrontDeskLoad.this._hotelTime.putIfAbsent (hotel, fresh);
+            if (h == null) h = fresh;
+         }//end if
+         h[0].incrementAndGet ();
+         h[1].addAndGet (elapsed);
+         return true;
+      }//end timed
+
+      private void execute (int step) throws SQLException {
+         Samples s = FrontDeskLoad.this._samples;
+         DBProject esql = FrontDeskLoad.this._esql;
+         ThreadLocalRandom random = ThreadLocalRandom.current ();
+         switch (step){
+            case 0:
+               DBProject.listHotelRoomBookingsForAWeek (esql, this._hotel, this._date);
+               break;
+            case 1:
+               String night = this._hotel + "/" + this._room + "/" + this._date;
+               try{
+                  DBProject.bookRoom (esql, esql.nextId ("Booking"), s.customers.random (), this._hotel, this._room,
+                        this._date, 1 + random.nextInt (4), new BigDecimal (50 + random.nextInt (500)));
+               }catch (RoomBookedException e){
+                  // the night was taken: a normal outcome for a front desk.
+                  counter (FrontDeskLoad.this._refused, this._hotel + "/" + this._room).incrementAndGet ();
+                  break;
+               }//end try
+               if (FrontDeskLoad.this._booked.putIfAbsent (night, Boolean.TRUE) != null)
+                  FrontDeskLoad.this._doubleBooked.incrementAndGet ();
+               break;
+            case 2:
+               Samples.Ints cleaners = s.cleanersOf.get (this._hotel);
+               DBProject.assignHouseCleaningToRoom (esql, esql.nextId ("Assigned"),
+                     cleaners != null ? cleaners.random () : s.cleaners.random (), this._hotel, this._room);
+               break;
+            default:
+               Integer manager = s.managerOf.get (this._hotel);
+               DBProject.repairRequest (esql, esql.nextId ("Request"),
+                     manager != null ? manager : s.managers.random (), s.repairs.random (),
+                     this._date, "reported at the front desk");
+               break;
+         }//end switch
+      }//end execute
+   }//end Session
+
+   FrontDeskLoad (DBProject esql, Samples samples, int threads, long thinkTime){
+      this._esql = esql;
+      this._samples = samples;
+      this._workers = Executors.newScheduledThreadPool (threads);
+      this._thinkTime = thinkTime;
+      for (String step : STEPS){
+         this._latencies.put (step, new LatencyHistogram ());
+         this._errors.put (step, new AtomicInteger ());
+      }//end for
+   }//end FrontDeskLoad
+
+   /**
+    * The main execution method
+    *
+    * @param args dbname, port and user
+    */
+   public static void main (String[] args){
+      if (args.length != 3){
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + FrontDeskLoad.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "");
+         esql.loadOccupancy ();
+         esql.loadLeaderboard ();
+         esql.listenForChanges ();
+         esql.setSink (new ResultSink (){
+            public void header (String[] names, int[] types){
+            }
+            public void row (String[] values){
+            }
+            public void flush (){
+            }
+            public void close (){
+            }
+         });
+
+         FrontDeskLoad load = new FrontDeskLoad (esql, Samples.load (esql),
+               Integer.getInteger ("load.threads", Integer.getInteger ("dbproject.pool.max", 8)),
+               Long.getLong ("load.thinkTime", 2000L));
+         load.run (Integer.getInteger ("load.sessions", 1000), Integer.getInteger ("load.duration", 60),
+               Integer.getInteger ("load.top", 10));
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+         System.exit (1);
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+   /*
+    * Starts the sessions, spread over one think time, and waits for them to
+    * finish their last step.
+    */
+   private void run (int sessions, int durationSeconds, int top) throws InterruptedException {
+      if (sessions <= 0 || durationSeconds <= 0)
+         throw new IllegalArgumentException ("load.sessions and load.duration must be positive");
+      System.out.println (String.format ("Running %d sessions for %d s", sessions, durationSeconds));
+      long start = System.nanoTime ();
+      this._deadline = start + durationSeconds * 1000000000L;
+      this._active.set (sessions);
+      for (int i = 0; i < sessions; ++i)
+         this._workers.schedule (new Session (), think (), TimeUnit.MILLISECONDS);
+      while (this._active.get () > 0)
+         Thread.sleep (100);
+      this._workers.shutdown ();
+      report ((System.nanoTime () - start) / 1e9, top);
+   }//end run
+
+   // an exponentially distributed think time.
+   private long think (){
+      return (long) (-Math.log (1 - ThreadLocalRandom.current ().nextDouble ()) * this._thinkTime);
+   }//end think
+
+   /*
+    * Picks a room of the hotel that is free on the date, as a clerk would
+    * from the lookup, or -1 when the hotel is full.
+    */
+   private int pickRoom (int hotel, Date date){
+      Samples.Ints rooms = this._samples.roomsOf.get (hotel);
+      if (rooms == null)
+         return -1;
+      OccupancyIndex occupancy = this._esql.occupancy ();
+      if (occupancy == null)
+         return rooms.random ();
+      int[] free = occupancy.freeRooms (hotel, date, 1);
+      return free.length == 0 ? -1 : free[ThreadLocalRandom.current ().nextInt (free.length)];
+   }//end pickRoom
+
+   private static AtomicInteger counter (ConcurrentHashMap<String, AtomicInteger> counters, String key){
+      AtomicInteger c = counters.get (key);
+      if (c == null){
+         AtomicInteger fresh = new AtomicInteger ();
+         c = counters.putIfAbsent (key, fresh);
+         if (c == null) c = fresh;
+      }//end if
+      return c;
+   }//end counter
+
+   private void report (double seconds, int top){
+      System.out.println ();
+      System.out.println (String.format (Locale.ROOT, "%-28s %8s %7s %9s %9s %9s %9s %9s",
+            "Step", "ok", "errors", "ops/s", "mean ms", "p50 ms", "p99 ms", "max ms"));
+      for (String step : STEPS){
+         LatencyHistogram h = this._latencies.get (step);
+         System.out.println (String.format (Locale.ROOT, "%-28s %8d %7d %9.1f %9.3f %9.3f %9.3f %9.3f",
+               step, h.count (), this._errors.get (step).get (), h.count () / seconds, h.mean () / 1e6,
+               h.percentile (0.50) / 1e6, h.percentile (0.99) / 1e6, h.max () / 1e6));
+      }//end for
+
+      List<Map.Entry<Integer, AtomicLong[]>> hotels = new ArrayList<Map.Entry<Integer, AtomicLong[]>> (this._hotelTime.entrySet ());
+      Collections.sort (hotels, new Comparator<Map.Entry<Integer, AtomicLong[]>> (){
+         public int compare (Map.Entry<Integer, AtomicLong[]> a, Map.Entry<Integer, AtomicLong[]> b){
+            return Long.compare (b.getValue ()[1].get (), a.getValue ()[1].get ());
+         }
+      });
+      System.out.println ();
+      System.out.println (String.format (Locale.ROOT, "%-12s %8s %12s %9s", "Hot hotel", "steps", "total s", "mean ms"));
+      for (Map.Entry<Integer, AtomicLong[]> e : hotels.subList (0, Math.min (top, hotels.size ()))){
+         long steps = e.getValue ()[0].get ();
+         long nanos = e.getValue ()[1].get ();
+         System.out.println (String.format (Locale.ROOT, "%-12d %8d %12.3f %9.3f",
+               e.getKey (), steps, nanos / 1e9, nanos / 1e6 / steps));
+      }//end for
+
+      List<Map.Entry<String, AtomicInteger>> rooms = new ArrayList<Map.Entry<String, AtomicInteger>> (this._refused.entrySet ());
+      Collections.sort (rooms, new Comparator<Map.Entry<String, AtomicInteger>> (){
+         public int compare (Map.Entry<String, AtomicInteger> a, Map.Entry<String, AtomicInteger> b){
+            return Integer.compare (b.getValue ().get (), a.getValue ().get ());
+         }
+      });
+      int total = 0;
+      for (Map.Entry<String, AtomicInteger> e : rooms)
+         total += e.getValue ().get ();
+      System.out.println ();
+      System.out.println (total + " bookings refused because the night was taken, "
+            + this._doubleBooked.get () + " nights booked twice");
+      if (!rooms.isEmpty ())
+         System.out.println (String.format (Locale.ROOT, "%-16s %8s", "Hot room", "refused"));
+      for (Map.Entry<String, AtomicInteger> e : rooms.subList (0, Math.min (top, rooms.size ())))
+         System.out.println (String.format (Locale.ROOT, "%-16s %8d", e.getKey (), e.getValue ().get ()));
+      for (Map.Entry<String, String> e : this._firstError.entrySet ())
+         System.err.println ("First error of " + e.getKey () + ": " + e.getValue ());
+   }//end report
+
+}//end FrontDeskLoad
@@ -0,0 +1,113 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out the primary keys of new rows from blocks reserved on the
+ * database.
+ *
+ * Every table with generated keys has a sequence (see create.sql) that
+ * increments by the size of a block, so a single nextval() reserves a whole
+ * block of ids for this process, whatever other sessions do.  The ids of a
+ * block are then handed out in memory, and the next block is only reserved
+ * once it is used up.  Ids of a block that are never used, because a
+ * transaction rolled back or the process exited, are simply skipped.
+ *
+ * After rows are loaded with explicit keys, syncSequences() moves every
+ * sequence past the largest key in its table.
+ *
+ */
+public class IdAllocator {
+
+   // the tables with generated keys, their key column and sequence.
+   static final String[][] TABLES = {
+      {"Customer", "customerID", "customer_id_seq"},
+      {"MaintenanceCompany", "cmpID", "maintenancecompany_id_seq"},
+      {"Booking", "bID", "booking_id_seq"},
+      {"Repair", "rID", "repair_id_seq"},
+      {"Request", "reqID", "request_id_seq"},
+      {"Assigned", "asgID", "assigned_id_seq"},
+   };
+
+   // the ids left in the current block of a table.
+   private static final class Block {
+      final String sequence;
+      long next = 0;
+      long end = 0;
+      int size = 0;
+
+      Block (String sequence){
+         this.sequence = sequence;
+      }//end Block
+   }//end Block
+
+   private final DBProject _esql;
+   private final Map<String, Block> _blocks = new HashMap<String, Block> ();
+
+   IdAllocator (DBProject esql){
+      this._esql = esql;
+      for (String[] t : TABLES)
+         this._blocks.put (t[0], new Block (t[2]));
+   }//end IdAllocator
+
+   /**
+    * @param table the table the id is for
+    * @return an id no other session or thread will be handed out
+    * @throws java.sql.SQLException when a new block cannot be reserved
+    */
+   public int next (String table) throws SQLException {
+      Block b = this._blocks.get (table);
+      if (b == null)
+         throw new IllegalArgumentException ("No id sequence for table " + table);
+      synchronized (b){
+         if (b.next == b.end)
+            reserve (b);
+         long id = b.next++;
+         if (id > Integer.MAX_VALUE)
+            throw new SQLException ("Ids of " + table + " are exhausted");
+         return (int) id;
+      }//end synchronized
+   }//end next
+
+   /*
+    * Reserves the next block of a table.  nextval() is not transactional, so
+    * the block stays reserved even if the transaction of the caller rolls
+    * back.
+    */
+   private void reserve (final Block b) throws SQLException {
+      if (b.size == 0){
+         this._esql.fetch ("ids.increment", "SELECT increment_by FROM pg_sequences\n" +
+               "WHERE schemaname = current_schema() AND sequencename = ?", new RowHandler (){
+            public void row (ResultSet rs) throws SQLException {
+               b.size = (int) rs.getLong (1);
+            }
+         }, b.sequence);
+         if (b.size <= 0)
+            throw new SQLException ("Sequence " + b.sequence + " is missing, recreate the tables from create.sql");
+      }//end if
+      this._esql.fetch ("ids.reserve", "SELECT nextval(CAST(? AS regclass))", new RowHandler (){
+         public void row (ResultSet rs) throws SQLException {
+            b.next = rs.getLong (1);
+         }
+      }, b.sequence);
+      b.end = b.next + b.size;
+   }//end reserve
+
+   /**
+    * Moves every id sequence past the largest key of its table, so that no
+    * block overlaps rows loaded with explicit keys.
+    *
+    * @param esql the database
+    * @throws java.sql.SQLException when a sequence cannot be set
+    */
+   public static void syncSequences (DBProject esql) throws SQLException {
+      for (String[] t : TABLES)
+         esql.fetch ("ids.sync" + t[0], "SELECT setval('" + t[2] + "', COALESCE(MAX(" + t[1]
+               + "), 0) + 1, false) FROM " + t[0], new RowHandler (){
+            public void row (ResultSet rs){
+            }
+         });
+   }//end syncSequences
+
+}//end IdAllocator
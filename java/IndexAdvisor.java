@@ -0,0 +1,561 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Proposes the indexes of a recorded workload.
+ *
+ * The workload is a plan file written by PlanCapture (-Ddbproject.explain):
+ * one line per statement executed by the menu operations.  Every scan of a
+ * table in those plans asks for an index on the columns it filters and
+ * joins on: the columns compared for equality first, in table order, then
+ * one column compared by range, or else the columns the rows are sorted on.
+ * The other columns the scan reads are added as INCLUDE columns when there
+ * are at most MAX_INCLUDE of them, making the index covering, and columns
+ * compared to a constant written in the statement itself become the WHERE
+ * clause of a partial index.
+ *
+ * The requests are then reduced to a minimal set: a request served by a
+ * prefix of the primary key or of a unique constraint is dropped, and one
+ * that is served by a prefix of a longer request is merged into it.  Every
+ * index left is costed by its write amplification, the bytes added to each
+ * row written to its table, and the script written drops every existing
+ * index that is not part of the set or backing a constraint.
+ *
+ * Usage: java IndexAdvisor &lt;dbname&gt; &lt;port&gt; &lt;user&gt; &lt;plans.jsonl&gt; [indexes.sql]
+ *
+ */
+public class IndexAdvisor {
+
+   // more columns than this are not worth copying into an index.
+   private static final int MAX_INCLUDE = 3;
+
+   // bytes of an index tuple header and line pointer, and of a heap tuple
+   // header and line pointer.
+   private static final int INDEX_OVERHEAD = 8 + 4;
+   private static final int HEAP_OVERHEAD = 24 + 4;
+
+   // a column compared to something in a plan condition, optionally
+   // qualified by the alias of its relation.
+   private static final Pattern COMPARISON = Pattern.compile (
+      "(?:\\b(\\w+)\\.)?\\b(\\w+)\\s*(=|<>|>=|<=|<|>|~~)\\s*(?:\\(?(\\w+)\\.(\\w+)\\b)?");
+
+   // a column compared to a constant in the text of a statement.
+   private static final Pattern CONSTANT = Pattern.compile (
+      "(?i)(?:\\b\\w+\\.)?\\b(\\w+)\\s*=\\s*('(?:[^']|'')*'|\\b(?:true|false)\\b)");
+
+   // an alias qualified column in a sort key or output list.
+   private static final Pattern COLUMN = Pattern.compile ("\\b(\\w+)\\.(\\w+)\\b");
+
+   /**
+    * An index asked for by the scans of a table.
+    */
+   static final class Request {
+      final String table;
+      final List<String> equal = new ArrayList<String> ();
+      String range = null;
+      final List<String> order = new ArrayList<String> ();
+      final Set<String> include = new LinkedHashSet<String> ();
+      String where = null;
+
+      // statements served and the time their scans took.
+      final Map<String, Integer> uses = new TreeMap<String, Integer> ();
+      double millis = 0;
+
+      Request (String table){
+         this.table = table;
+      }//end Request
+
+      /**
+       * @return the key columns, in index order
+       */
+      List<String> keys (){
+         List<String> keys = new ArrayList<String> (this.equal);
+         if (this.range != null)
+            keys.add (this.range);
+         else
+            for (String c : this.order)
+               if (!keys.contains (c)) keys.add (c);
+         return keys;
+      }//end keys
+
+      String signature (){
+         return this.table + this.keys () + this.include + this.where;
+      }//end signature
+   }//end Request
+
+   /**
+    * A table of the database: its columns in order, their average width,
+    * the key columns of its unique constraints and its other indexes.
+    */
+   static final class Table {
+      final List<String> columns = new ArrayList<String> ();
+      final Map<String, Integer> widths = new HashMap<String, Integer> ();
+      final List<List<String>> uniqueKeys = new ArrayList<List<String>> ();
+      final Map<String, String> indexes = new TreeMap<String, String> ();
+      int writes = 0;
+
+      int width (String column){
+         Integer w = this.widths.get (column);
+         return w != null ? w : 8;
+      }//end width
+
+      int rowWidth (){
+         int w = HEAP_OVERHEAD;
+         for (String c : this.columns)
+            w += width (c);
+         return w;
+      }//end rowWidth
+   }//end Table
+
+   private final Map<String, Table> _tables = new TreeMap<String, Table> ();
+   private final Map<String, Request> _requests = new HashMap<String, Request> ();
+   private boolean _include = true;
+   private int _statements = 0;
+
+   /**
+    * The main execution method
+    *
+    * @param args dbname, port, user, the plan file and optionally the
+    *        script to write, standard out by default
+    */
+   public static void main (String[] args){
+      if (args.length < 4 || args.length > 5){
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + IndexAdvisor.class.getName () +
+            " <dbname> <port> <user> <plans.jsonl> [indexes.sql]");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "");
+         IndexAdvisor advisor = new IndexAdvisor ();
+         advisor.readCatalog (esql);
+         advisor.readPlans (args[3]);
+         PrintWriter out = args.length > 4
+            ? new PrintWriter (new FileWriter (args[4])) : new PrintWriter (System.out);
+         advisor.write (out, args[3]);
+         out.flush ();
+         if (args.length > 4){
+            out.close ();
+            System.out.println ("Wrote " + args[4]);
+         }//end if
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+         System.exit (1);
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+   /**
+    * Reads the tables, column widths and indexes of the current schema.
+    *
+    * @param esql the database to read from
+    * @throws java.sql.SQLException when the catalog cannot be read
+    */
+   void readCatalog (DBProject esql) throws SQLException {
+      esql.scan ("advisor.version", "SELECT current_setting('server_version_num')", new RowHandler (){
+         public void row (ResultSet rs) throws SQLException {
+            // INCLUDE columns exist from PostgreSQL 11 on.
+            IndexAdvisor.this._include = Integer.parseInt (rs.getString (1).trim ()) >= 110000;
+         }
+      });
+      esql.scan ("advisor.columns",
+            "SELECT c.relname, a.attname FROM pg_attribute a\n" +
+            "JOIN pg_class c ON c.oid = a.attrelid JOIN pg_namespace n ON n.oid = c.relnamespace\n" +
+            "WHERE n.nspname = current_schema() AND c.relkind IN ('r', 'p')\n" +
+            "AND NOT EXISTS (SELECT * FROM pg_inherits i WHERE i.inhrelid = c.oid)\n" +
+            "AND a.attnum > 0 AND NOT a.attisdropped\n" +
+            "ORDER BY c.relname, a.attnum", new RowHandler (){
+         public void row (ResultSet rs) throws SQLException {
+            table (rs.getString (1)).columns.add (rs.getString (2));
+         }
+      });
+      esql.scan ("advisor.widths",
+            "SELECT tablename, attname, avg_width FROM pg_stats WHERE schemaname = current_schema()", new RowHandler (){
+         public void row (ResultSet rs) throws SQLException {
+            Table t = IndexAdvisor.this._tables.get (rs.getString (1));
+            if (t != null) t.widths.put (rs.getString (2), rs.getInt (3));
+         }
+      });
+      esql.scan ("advisor.indexes",
+            "SELECT c.relname, i.relname, x.indisunique, pg_get_indexdef(x.indexrelid) FROM pg_index x\n" +
+            "JOIN pg_class c ON c.oid = x.indrelid JOIN pg_class i ON i.oid = x.indexrelid\n" +
+            "JOIN pg_namespace n ON n.oid = c.relnamespace WHERE n.nspname = current_schema()", new RowHandler (){
+         public void row (ResultSet rs) throws SQLException {
+            Table t = IndexAdvisor.this._tables.get (rs.getString (1));
+            if (t == null) return;
+            String def = rs.getString (4);
+            if (rs.getBoolean (3)){
+               int open = def.indexOf ('(');
+               List<String> keys = new ArrayList<String> ();
+               for (String c : def.substring (open + 1, def.indexOf (')', open)).split (","))
+                  keys.add (c.trim ().replace ("\"", ""));
+               t.uniqueKeys.add (keys);
+            }else{
+               t.indexes.put (rs.getString (2), def);
+            }//end if
+         }
+      });
+   }//end readCatalog
+
+   private Table table (String name){
+      Table t = this._tables.get (name);
+      if (t == null){
+         t = new Table ();
+         this._tables.put (name, t);
+      }//end if
+      return t;
+   }//end table
+
+   /**
+    * Reads the statements and plans recorded by PlanCapture.
+    *
+    * @param file the plan file
+    * @throws java.io.IOException when the file cannot be read
+    */
+   void readPlans (String file) throws IOException {
+      BufferedReader in = new BufferedReader (new FileReader (file));
+      try{
+         String line;
+         while ((line = in.readLine ()) != null){
+            if (line.trim ().length () == 0) continue;
+            Map<?, ?> record;
+            try{
+               record = (Map<?, ?>) Json.parse (line);
+            }catch (IllegalArgumentException e){
+               System.err.println ("Skipping a malformed plan: " + e.getMessage ());
+               continue;
+            }//end try
+            ++this._statements;
+            String op = (String) record.get ("operation");
+            String sql = (String) record.get ("statement");
+            Map<?, ?> plan = (Map<?, ?>) ((Map<?, ?>) ((List<?>) record.get ("plan")).get (0)).get ("Plan");
+            walk (op, sql, plan, new ArrayList<String> (), null);
+         }//end while
+      }finally{
+         in.close ();
+      }//end try
+   }//end readPlans
+
+   /*
+    * Turns every scan below a plan node into an index request.  conditions
+    * holds the join conditions of the nodes above, sortKeys the sort keys
+    * of the nearest sort above.
+    */
+   private void walk (String op, String sql, Map<?, ?> node, List<String> conditions, List<?> sortKeys){
+      String type = (String) node.get ("Node Type");
+      if ("ModifyTable".equals (type) && node.get ("Relation Name") != null){
+         Table t = this._tables.get (Partitions.parent ((String) node.get ("Relation Name")));
+         if (t != null) ++t.writes;
+      }//end if
+      if ("Sort".equals (type) || "Incremental Sort".equals (type))
+         sortKeys = (List<?>) node.get ("Sort Key");
+
+      List<String> below = conditions;
+      for (String key : new String[] {"Hash Cond", "Merge Cond", "Join Filter"}){
+         if (node.get (key) != null){
+            if (below == conditions) below = new ArrayList<String> (conditions);
+            below.add ((String) node.get (key));
+         }//end if
+      }//end for
+
+      // the scan of a partition asks for an index of its table.
+      String relation = (String) node.get ("Relation Name");
+      if (relation != null) relation = Partitions.parent (relation);
+      if (relation != null && !"ModifyTable".equals (type) && this._tables.containsKey (relation))
+         scan (op, sql, node, relation, below, sortKeys);
+
+      List<?> children = (List<?>) node.get ("Plans");
+      if (children != null)
+         for (Object child : children)
+            walk (op, sql, (Map<?, ?>) child, below, sortKeys);
+   }//end walk
+
+   /*
+    * Records the index a scan of a table asks for.
+    */
+   private void scan (String op, String sql, Map<?, ?> node, String relation, List<String> joins, List<?> sortKeys){
+      Table t = this._tables.get (relation);
+      String alias = (String) node.get ("Alias");
+      Request r = new Request (relation);
+
+      // constants written in the statement make a partial index.
+      Map<String, String> constants = new HashMap<String, String> ();
+      Matcher m = CONSTANT.matcher (sql);
+      while (m.find ()){
+         String column = m.group (1).toLowerCase (Locale.ROOT);
+         if (t.columns.contains (column)) constants.put (column, m.group (2));
+      }//end while
+
+      List<String> own = new ArrayList<String> ();
+      for (String key : new String[] {"Index Cond", "Recheck Cond", "Filter"})
+         if (node.get (key) != null) own.add ((String) node.get (key));
+      Set<String> equal = new LinkedHashSet<String> ();
+      Set<String> ranges = new LinkedHashSet<String> ();
+      collect (own, alias, t, true, equal, ranges);
+      collect (joins, alias, t, false, equal, ranges);
+
+      for (String c : t.columns){
+         if (constants.containsKey (c) && equal.contains (c)){
+            r.where = r.where == null ? "" : r.where + " AND ";
+            r.where += c + " = " + constants.get (c);
+         }else if (equal.contains (c)){
+            r.equal.add (c);
+         }else if (ranges.contains (c) && r.range == null){
+            r.range = c;
+         }//end if
+      }//end for
+      if (r.range == null && sortKeys != null){
+         for (Object key : sortKeys){
+            Matcher k = COLUMN.matcher ((String) key);
+            if (!k.find () || !k.group (1).equals (alias) || !t.columns.contains (k.group (2))) break;
+            r.order.add (k.group (2));
+         }//end for
+      }//end if
+      if (r.keys ().isEmpty ())
+         return;
+
+      // the columns read but not searched on, when a scan lists them.
+      List<?> output = (List<?>) node.get ("Output");
+      if (output != null){
+         Set<String> read = new LinkedHashSet<String> ();
+         for (Object o : output){
+            Matcher c = COLUMN.matcher ((String) o);
+            while (c.find ())
+               if (c.group (1).equals (alias) && t.columns.contains (c.group (2))) read.add (c.group (2));
+         }//end for
+         read.removeAll (r.keys ());
+         if (read.size () <= MAX_INCLUDE) r.include.addAll (read);
+      }//end if
+
+      Request known = this._requests.get (r.signature ());
+      if (known == null){
+         known = r;
+         this._requests.put (r.signature (), r);
+      }//end if
+      Integer uses = known.uses.get (op);
+      known.uses.put (op, uses == null ? 1 : uses + 1);
+      Object time = node.get ("Actual Total Time");
+      Object loops = node.get ("Actual Loops");
+      if (time instanceof Double && loops instanceof Double)
+         known.millis += (Double) time * (Double) loops;
+   }//end scan
+
+   /*
+    * Adds the columns of a relation that conditions compare, for equality
+    * or by range.  Unqualified columns only belong to the relation in its
+    * own conditions.
+    */
+   private static void collect (List<String> conditions, String alias, Table t, boolean own, Set<String> equal, Set<String> ranges){
+      for (String cond : conditions){
+         Matcher m = COMPARISON.matcher (cond);
+         while (m.find ()){
+            String op = m.group (3);
+            if (op.equals ("<>") || op.equals ("~~")) continue;
+            addColumn (m.group (1), m.group (2), op, alias, t, own, equal, ranges);
+            if (m.group (4) != null)
+               addColumn (m.group (4), m.group (5), op, alias, t, own, equal, ranges);
+         }//end while
+      }//end for
+   }//end collect
+
+   private static void addColumn (String qualifier, String column, String op, String alias, Table t,
+                                  boolean own, Set<String> equal, Set<String> ranges){
+      if (qualifier == null ? !own : !qualifier.equals (alias)) return;
+      if (!t.columns.contains (column)) return;
+      if (op.equals ("="))
+         equal.add (column);
+      else
+         ranges.add (column);
+   }//end addColumn
+
+   /**
+    * Reduces the requests to a minimal set of indexes.
+    *
+    * @return the indexes to build, by table
+    */
+   Map<String, List<Request>> minimize (){
+      Map<String, List<Request>> byTable = new TreeMap<String, List<Request>> ();
+      List<Request> all = new ArrayList<Request> (this._requests.values ());
+      // longest first, so that shorter requests merge into longer ones.
+      Collections.sort (all, new Comparator<Request> (){
+         public int compare (Request a, Request b){
+            int n = b.keys ().size () - a.keys ().size ();
+            return n != 0 ? n : a.signature ().compareTo (b.signature ());
+         }
+      });
+      for (Request r : all){
+         if (r.where == null && servedByUnique (r))
+            continue;
+         List<Request> kept = byTable.get (r.table);
+         if (kept == null){
+            kept = new ArrayList<Request> ();
+            byTable.put (r.table, kept);
+         }//end if
+         Request into = null;
+         for (Request k : kept)
+            if (serves (k, r)) { into = k; break; }
+         if (into == null){
+            kept.add (r);
+            continue;
+         }//end if
+         for (String c : r.include)
+            if (!into.keys ().contains (c)) into.include.add (c);
+         for (Map.Entry<String, Integer> e : r.uses.entrySet ()){
+            Integer n = into.uses.get (e.getKey ());
+            into.uses.put (e.getKey (), n == null ? e.getValue () : n + e.getValue ());
+         }//end for
+         into.millis += r.millis;
+      }//end for
+      for (List<Request> kept : byTable.values ())
+         for (Request k : kept)
+            if (k.include.size () > MAX_INCLUDE) k.include.clear ();
+      return byTable;
+   }//end minimize
+
+   private boolean servedByUnique (Request r){
+      if (!r.include.isEmpty ()) return false;
+      for (List<String> key : this._tables.get (r.table).uniqueKeys)
+         if (prefix (key, r))
+            return true;
+      return false;
+   }//end servedByUnique
+
+   /*
+    * Tells whether an index does everything a request asks for, apart from
+    * its INCLUDE columns.
+    */
+   private static boolean serves (Request index, Request r){
+      if (r.where == null ? index.where != null : !r.where.equals (index.where))
+         return false;
+      return prefix (index.keys (), r);
+   }//end serves
+
+   /*
+    * Tells whether a request can use an index on the given keys: its
+    * equality columns lead the keys in any order, followed by its range or
+    * sort columns.
+    */
+   private static boolean prefix (List<String> keys, Request r){
+      List<String> wanted = r.keys ();
+      if (keys.size () < wanted.size ()) return false;
+      int n = r.equal.size ();
+      if (!new LinkedHashSet<String> (keys.subList (0, n)).equals (new LinkedHashSet<String> (r.equal)))
+         return false;
+      return keys.subList (n, wanted.size ()).equals (wanted.subList (n, wanted.size ()));
+   }//end prefix
+
+   /**
+    * Writes the DDL script of the minimal index set.
+    *
+    * @param out the destination
+    * @param source the plan file, for the header
+    */
+   void write (PrintWriter out, String source){
+      Map<String, List<Request>> indexes = minimize ();
+      out.println ("-- Indexes proposed by IndexAdvisor for the " + this._statements
+            + " statements recorded in " + source);
+      out.println ("-- Write amplification: bytes added to every row written to the table,");
+      out.println ("-- against the size of the row itself.");
+      for (Map.Entry<String, Table> e : this._tables.entrySet ()){
+         String name = e.getKey ();
+         Table t = e.getValue ();
+         List<Request> wanted = indexes.containsKey (name) ? indexes.get (name) : new ArrayList<Request> ();
+         if (wanted.isEmpty () && t.indexes.isEmpty ()) continue;
+
+         out.println ();
+         out.println (String.format (Locale.ROOT, "-- %s: %d writes recorded, rows of about %d bytes",
+               name, t.writes, t.rowWidth ()));
+         Set<String> keep = new LinkedHashSet<String> ();
+         List<String> creates = new ArrayList<String> ();
+         for (Request r : wanted){
+            String def = definition (r);
+            String existing = null;
+            for (Map.Entry<String, String> i : t.indexes.entrySet ())
+               if (normalize (i.getValue ()).equals (normalize (def))) existing = i.getKey ();
+            int bytes = INDEX_OVERHEAD;
+            for (String c : r.keys ()) bytes += t.width (c);
+            for (String c : r.include) bytes += t.width (c);
+            creates.add (String.format (Locale.ROOT,
+                  "-- serves %s; %.1f ms of scans; +%d bytes per row written (%d%%)",
+                  r.uses, r.millis, bytes, 100 * bytes / t.rowWidth ()));
+            if (existing != null){
+               keep.add (existing);
+               creates.add ("-- already exists as " + existing);
+            }else{
+               creates.add ("CREATE INDEX " + indexName (r) + " ON " + name + " " + def + ";");
+            }//end if
+         }//end for
+         for (Map.Entry<String, String> i : t.indexes.entrySet ())
+            if (!keep.contains (i.getKey ()))
+               out.println ("DROP INDEX IF EXISTS " + i.getKey () + ";");
+         for (String line : creates)
+            out.println (line);
+      }//end for
+   }//end write
+
+   private String definition (Request r){
+      List<String> keys = r.keys ();
+      StringBuilder sb = new StringBuilder ("(");
+      join (sb, keys);
+      if (!this._include) join (sb.append (keys.isEmpty () || r.include.isEmpty () ? "" : ", "), r.include);
+      sb.append (')');
+      if (this._include && !r.include.isEmpty ())
+         join (sb.append (" INCLUDE ("), r.include).append (')');
+      if (r.where != null)
+         sb.append (" WHERE ").append (r.where);
+      return sb.toString ();
+   }//end definition
+
+   private static StringBuilder join (StringBuilder sb, Iterable<String> columns){
+      boolean first = true;
+      for (String c : columns){
+         if (!first) sb.append (", ");
+         sb.append (c);
+         first = false;
+      }//end for
+      return sb;
+   }//end join
+
+   private static String indexName (Request r){
+      StringBuilder sb = new StringBuilder ("index_").append (r.table);
+      for (String c : r.keys ())
+         sb.append ('_').append (c);
+      if (r.where != null)
+         sb.append ("_partial");
+      return sb.length () > 63 ? sb.substring (0, 63) : sb.toString ();
+   }//end indexName
+
+   // the columns and predicate of an index definition, without case, spaces,
+   // parentheses, quotes or casts, to compare generated and existing ones.
+   private static String normalize (String def){
+      String d = def.toLowerCase (Locale.ROOT);
+      int using = d.indexOf (" using btree ");
+      if (using >= 0)
+         d = d.substring (using + " using btree ".length ());
+      return d.replaceAll ("::\\w+", "").replaceAll ("[\\s()\"]", "");
+   }//end normalize
+
+}//end IndexAdvisor
@@ -0,0 +1,188 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the plans returned by EXPLAIN (FORMAT JSON) and the
+ * files written from them: objects become LinkedHashMaps, arrays
+ * ArrayLists, numbers Doubles, and true, false and null their Java values.
+ *
+ */
+public class Json {
+
+   private final String _text;
+   private int _pos = 0;
+
+   private Json (String text){
+      this._text = text;
+   }//end Json
+
+   /**
+    * Parses a JSON document.
+    *
+    * @param text the document
+    * @return the value it holds
+    * @throws IllegalArgumentException when the text is not valid JSON
+    */
+   public static Object parse (String text){
+      Json json = new Json (text);
+      Object value = json.value ();
+      json.skipSpace ();
+      if (json._pos != text.length ())
+         throw json.error ("Unexpected trailing characters");
+      return value;
+   }//end parse
+
+   /**
+    * Appends a string as a quoted and escaped JSON string.
+    */
+   public static void quote (StringBuilder sb, String v){
+      sb.append ('"');
+      for (int i = 0; i < v.length (); ++i){
+         char c = v.charAt (i);
+         switch (c){
+            case '"': sb.append ("\\\""); break;
+            case '\\': sb.append ("\\\\"); break;
+            case '\n': sb.append ("\\n"); break;
+            case '\r': sb.append ("\\r"); break;
+            case '\t': sb.append ("\\t"); break;
+            default:
+               if (c < 0x20)
+                  sb.append (String.format ("\\u%04x", (int) c));
+               else
+                  sb.append (c);
+         }//end switch
+      }//end for
+      sb.append ('"');
+   }//end quote
+
+   private Object value (){
+      skipSpace ();
+      if (this._pos >= this._text.length ())
+         throw error ("Unexpected end of input");
+      char c = this._text.charAt (this._pos);
+      switch (c){
+         case '{': return object ();
+         case '[': return array ();
+         case '"': return string ();
+         case 't': return literal ("true", Boolean.TRUE);
+         case 'f': return literal ("false", Boolean.FALSE);
+         case 'n': return literal ("null", null);
+         default: return number ();
+      }//end switch
+   }//end value
+
+   private Map<String, Object> object (){
+      Map<String, Object> map = new LinkedHashMap<String, Object> ();
+      ++this._pos;
+      skipSpace ();
+      if (peek () == '}'){
+         ++this._pos;
+         return map;
+      }//end if
+      while (true){
+         skipSpace ();
+         if (peek () != '"')
+            throw error ("Expected a key");
+         String key = string ();
+         skipSpace ();
+         expect (':');
+         map.put (key, value ());
+         skipSpace ();
+         if (peek () == ','){
+            ++this._pos;
+         }else{
+            expect ('}');
+            return map;
+         }//end if
+      }//end while
+   }//end object
+
+   private List<Object> array (){
+      List<Object> list = new ArrayList<Object> ();
+      ++this._pos;
+      skipSpace ();
+      if (peek () == ']'){
+         ++this._pos;
+         return list;
+      }//end if
+      while (true){
+         list.add (value ());
+         skipSpace ();
+         if (peek () == ','){
+            ++this._pos;
+         }else{
+            expect (']');
+            return list;
+         }//end if
+      }//end while
+   }//end array
+
+   private String string (){
+      StringBuilder sb = new StringBuilder ();
+      ++this._pos;
+      while (true){
+         if (this._pos >= this._text.length ())
+            throw error ("Unterminated string");
+         char c = this._text.charAt (this._pos++);
+         if (c == '"')
+            return sb.toString ();
+         if (c != '\\'){
+            sb.append (c);
+            continue;
+         }//end if
+         char e = this._text.charAt (this._pos++);
+         switch (e){
+            case 'n': sb.append ('\n'); break;
+            case 'r': sb.append ('\r'); break;
+            case 't': sb.append ('\t'); break;
+            case 'b': sb.append ('\b'); break;
+            case 'f': sb.append ('\f'); break;
+            case 'u':
+               sb.append ((char) Integer.parseInt (this._text.substring (this._pos, this._pos + 4), 16));
+               this._pos += 4;
+               break;
+            default: sb.append (e); break;
+         }//end switch
+      }//end while
+   }//end string
+
+   private Object literal (String word, Object value){
+      if (!this._text.startsWith (word, this._pos))
+         throw error ("Unexpected token");
+      this._pos += word.length ();
+      return value;
+   }//end literal
+
+   private Double number (){
+      int start = this._pos;
+      while (this._pos < this._text.length () && "+-0123456789.eE".indexOf (this._text.charAt (this._pos)) >= 0)
+         ++this._pos;
+      try{
+         return Double.valueOf (this._text.substring (start, this._pos));
+      }catch (NumberFormatException e){
+         throw error ("Invalid number");
+      }//end try
+   }//end number
+
+   private void skipSpace (){
+      while (this._pos < this._text.length () && Character.isWhitespace (this._text.charAt (this._pos)))
+         ++this._pos;
+   }//end skipSpace
+
+   private char peek (){
+      return this._pos < this._text.length () ? this._text.charAt (this._pos) : 0;
+   }//end peek
+
+   private void expect (char c){
+      if (peek () != c)
+         throw error ("Expected '" + c + "'");
+      ++this._pos;
+   }//end expect
+
+   private IllegalArgumentException error (String message){
+      return new IllegalArgumentException (message + " at offset " + this._pos);
+   }//end error
+
+}//end Json
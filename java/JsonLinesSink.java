@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.sql.Types;
+
+/**
+ * Writes every row as one JSON object per line, keyed by column name.
+ * Numeric and boolean columns are written as JSON numbers and booleans, SQL
+ * NULL as null and everything else as strings.  NaN and Infinity, which
+ * JSON numbers cannot hold, are written as strings.
+ *
+ */
+public class JsonLinesSink extends TextSink {
+
+   // column names, already quoted and escaped, and column kinds of the
+   // current query.
+   private String[] _keys = new String[0];
+   private int[] _kinds = new int[0];
+
+   private static final int STRING = 0;
+   private static final int NUMBER = 1;
+   private static final int BOOLEAN = 2;
+
+   public JsonLinesSink (Writer out){
+      super (out);
+   }//end JsonLinesSink
+
+   public JsonLinesSink (WritableByteChannel channel){
+      super (channel);
+   }//end JsonLinesSink
+
+   public void header (String[] names, int[] types) throws IOException {
+      this._keys = new String[names.length];
+      this._kinds = new int[names.length];
+      for (int i = 0; i < names.length; ++i){
+         StringBuilder key = new StringBuilder ();
+         Json.quote (key, names[i]);
+         key.append (':');
+         this._keys[i] = key.toString ();
+         this._kinds[i] = kind (types[i]);
+      }//end for
+   }//end header
+
+   public void row (String[] values) throws IOException {
+      StringBuilder line = new StringBuilder (64);
+      line.append ('{');
+      for (int i = 0; i < values.length; ++i){
+         if (i > 0) line.append (',');
+         line.append (this._keys[i]);
+         String v = values[i];
+         if (v == null)
+            line.append ("null");
+         else if (this._kinds[i] == NUMBER && finite (v))
+            line.append (v);
+         else if (this._kinds[i] == BOOLEAN)
+            line.append (v.equals ("t") || v.equalsIgnoreCase ("true") ? "true" : "false");
+         else
+            Json.quote (line, v);
+      }//end for
+      line.append ("}\n");
+      this._out.write (line.toString ());
+   }//end row
+
+   /*
+    * Whether a numeric value is a number, rather than NaN or (-)Infinity.
+    */
+   private static boolean finite (String v){
+      int i = v.length () > 1 && (v.charAt (0) == '-' || v.charAt (0) == '+') ? 1 : 0;
+      char c = v.length () > i ? v.charAt (i) : 'x';
+      return (c >= '0' && c <= '9') || c == '.';
+   }//end finite
+
+   private static int kind (int sqlType){
+      switch (sqlType){
+         case Types.TINYINT: case Types.SMALLINT: case Types.INTEGER: case Types.BIGINT:
+         case Types.NUMERIC: case Types.DECIMAL: case Types.REAL: case Types.FLOAT:
+         case Types.DOUBLE:
+            return NUMBER;
+         case Types.BIT: case Types.BOOLEAN:
+            return BOOLEAN;
+         default:
+            return STRING;
+      }//end switch
+   }//end kind
+
+}//end JsonLinesSink
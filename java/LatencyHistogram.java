@@ -0,0 +1,105 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of latencies in nanoseconds, safe to record into
+ * from many threads without locking.
+ *
+ * Values below 128 ns get a bucket each; above that every power of two is
+ * split into 64 buckets, so a percentile is accurate to within about 1.5%
+ * whatever its magnitude.
+ *
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BUCKETS = 64;
+   private static final int LINEAR = 2 * SUB_BUCKETS;
+   private static final int BUCKETS = LINEAR + 57 * SUB_BUCKETS;
+
+   private final AtomicLongArray _counts = new AtomicLongArray (BUCKETS);
+   private final AtomicLong _count = new AtomicLong ();
+   private final AtomicLong _sum = new AtomicLong ();
+   private final AtomicLong _max = new AtomicLong ();
+
+   /**
+    * Records one latency.
+    *
+    * @param nanos the latency, negative values count as 0
+    */
+   public void record (long nanos){
+      long v = Math.max (0, nanos);
+      this._counts.incrementAndGet (bucket (v));
+      this._count.incrementAndGet ();
+      this._sum.addAndGet (v);
+      long max;
+      while (v > (max = this._max.get ()) && !this._max.compareAndSet (max, v)){
+         // retry.
+      }//end while
+   }//end record
+
+   /**
+    * @return the number of recorded latencies
+    */
+   public long count (){
+      return this._count.get ();
+   }//end count
+
+   /**
+    * @return the mean latency in nanoseconds, 0 when empty
+    */
+   public double mean (){
+      long n = this._count.get ();
+      return n == 0 ? 0 : (double) this._sum.get () / n;
+   }//end mean
+
+   /**
+    * @return the sum of the recorded latencies in nanoseconds
+    */
+   public long sum (){
+      return this._sum.get ();
+   }//end sum
+
+   /**
+    * @return the largest latency in nanoseconds
+    */
+   public long max (){
+      return this._max.get ();
+   }//end max
+
+   /**
+    * @param fraction the percentile as a fraction, e.g. 0.99
+    * @return the latency in nanoseconds below which that fraction of the
+    *         recorded latencies fall, 0 when empty
+    */
+   public long percentile (double fraction){
+      long n = this._count.get ();
+      if (n == 0)
+         return 0;
+      long rank = Math.max (1, (long) Math.ceil (fraction * n));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i){
+         seen += this._counts.get (i);
+         if (seen >= rank)
+            return Math.min (value (i), max ());
+      }//end for
+      return max ();
+   }//end percentile
+
+   // the bucket of a non-negative value.
+   static int bucket (long v){
+      if (v < LINEAR)
+         return (int) v;
+      int shift = 63 - Long.numberOfLeadingZeros (v) - 6;
+      return LINEAR + (shift - 1) * SUB_BUCKETS + (int) ((v >>> shift) - SUB_BUCKETS);
+   }//end bucket
+
+   // the highest value of a bucket.
+   static long value (int bucket){
+      if (bucket < LINEAR)
+         return bucket;
+      int shift = (bucket - LINEAR) / SUB_BUCKETS + 1;
+      long sub = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+      return ((sub + 1) << shift) - 1;
+   }//end value
+
+}//end LatencyHistogram
@@ -0,0 +1,219 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms of the menu operations and of the statements they
+ * issue.
+ *
+ * Every operation records its total time, split into database time (the
+ * round trips of its statements, including fetching their rows) and client
+ * time (everything else: binding, formatting and printing the results).
+ * Every statement, identified by the operation name that DBProject uses as
+ * its cache key, records its own database and client time.
+ *
+ * The histograms can be printed as a table with print(), or written in the
+ * Prometheus text format with writePrometheus(), which DBProject does
+ * periodically when dbproject.metrics.file is set.
+ *
+ */
+public class Metrics {
+
+   private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+   // the total, database and client time of an operation or statement.
+   private static final class Timer {
+      final LatencyHistogram total = new LatencyHistogram ();
+      final LatencyHistogram db = new LatencyHistogram ();
+      final LatencyHistogram client = new LatencyHistogram ();
+   }//end Timer
+
+   private static final ConcurrentHashMap<String, Timer> _operations = new ConcurrentHashMap<String, Timer> ();
+   private static final ConcurrentHashMap<String, Timer> _statements = new ConcurrentHashMap<String, Timer> ();
+
+   // database time of the statements issued by the current thread.
+   private static final ThreadLocal<long[]> _dbTime = new ThreadLocal<long[]> (){
+      protected long[] initialValue (){
+         return new long[1];
+      }
+   };
+
+   private Metrics (){
+   }//end Metrics
+
+   /**
+    * Marks the start of an operation on the current thread.
+    *
+    * @return the start time, for end()
+    */
+   public static long begin (){
+      _dbTime.get ()[0] = 0;
+      return System.nanoTime ();
+   }//end begin
+
+   /**
+    * Records an operation started with begin() on the current thread.
+    *
+    * @param operation the name of the operation
+    * @param start the value returned by begin()
+    */
+   public static void end (String operation, long start){
+      long elapsed = System.nanoTime () - start;
+      long db = Math.min (elapsed, _dbTime.get ()[0]);
+      Timer t = timer (_operations, operation);
+      t.total.record (elapsed);
+      t.db.record (db);
+      t.client.record (elapsed - db);
+   }//end end
+
+   /**
+    * Records the database time of a statement.
+    *
+    * @param statement the operation name the statement is cached under
+    * @param nanos the time spent waiting for the database
+    */
+   public static void db (String statement, long nanos){
+      _dbTime.get ()[0] += nanos;
+      timer (_statements, statement).db.record (nanos);
+   }//end db
+
+   /**
+    * Records the client time of a statement.
+    *
+    * @param statement the operation name the statement is cached under
+    * @param nanos the time spent handling or printing its rows
+    */
+   public static void client (String statement, long nanos){
+      timer (_statements, statement).client.record (nanos);
+   }//end client
+
+   private static Timer timer (ConcurrentHashMap<String, Timer> timers, String name){
+      Timer t = timers.get (name);
+      if (t == null){
+         Timer fresh = new Timer ();
+         t = timers.putIfAbsent (name, fresh);
+         if (t == null) t = fresh;
+      }//end if
+      return t;
+   }//end timer
+
+   /**
+    * Prints the operations and statements as tables, times in milliseconds.
+    *
+    * @param out the destination
+    */
+   public static void print (PrintWriter out){
+      print (out, "Operation", _operations, true);
+      out.println ();
+      print (out, "Statement", _statements, false);
+      out.println (String.format (Locale.ROOT, "Statement cache: %d hits, %d misses",
+            StatementCache.hits (), StatementCache.misses ()));
+      out.flush ();
+   }//end print
+
+   private static void print (PrintWriter out, String title, Map<String, Timer> timers, boolean total){
+      out.println (String.format (Locale.ROOT, "%-38s %8s %9s %9s %9s %9s %9s %9s",
+            title, "count", "mean", "p50", "p99", "max", "db mean", "cli mean"));
+      for (Map.Entry<String, Timer> e : new TreeMap<String, Timer> (timers).entrySet ()){
+         Timer t = e.getValue ();
+         LatencyHistogram h = total ? t.total : t.db;
+         out.println (String.format (Locale.ROOT, "%-38s %8d %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f",
+               e.getKey (), h.count (), h.mean () / 1e6, h.percentile (0.5) / 1e6,
+               h.percentile (0.99) / 1e6, h.max () / 1e6, t.db.mean () / 1e6, t.client.mean () / 1e6));
+      }//end for
+   }//end print
+
+   /**
+    * Writes every histogram in the Prometheus text exposition format, as
+    * summaries in seconds.
+    *
+    * @param out the destination
+    */
+   public static void writePrometheus (PrintWriter out){
+      out.println ("# HELP dbproject_operation_seconds Time spent in a menu operation, by part (total, db, client).");
+      out.println ("# TYPE dbproject_operation_seconds summary");
+      for (Map.Entry<String, Timer> e : new TreeMap<String, Timer> (_operations).entrySet ()){
+         String labels = "operation=\"" + e.getKey () + "\"";
+         summary (out, "dbproject_operation_seconds", labels + ",part=\"total\"", e.getValue ().total);
+         summary (out, "dbproject_operation_seconds", labels + ",part=\"db\"", e.getValue ().db);
+         summary (out, "dbproject_operation_seconds", labels + ",part=\"client\"", e.getValue ().client);
+      }//end for
+      out.println ("# HELP dbproject_statement_seconds Time spent in a statement, by part (db, client).");
+      out.println ("# TYPE dbproject_statement_seconds summary");
+      for (Map.Entry<String, Timer> e : new TreeMap<String, Timer> (_statements).entrySet ()){
+         String labels = "statement=\"" + e.getKey () + "\"";
+         summary (out, "dbproject_statement_seconds", labels + ",part=\"db\"", e.getValue ().db);
+         summary (out, "dbproject_statement_seconds", labels + ",part=\"client\"", e.getValue ().client);
+      }//end for
+      out.println ("# HELP dbproject_statement_cache_hits_total Prepared statements reused from the cache.");
+      out.println ("# TYPE dbproject_statement_cache_hits_total counter");
+      out.println ("dbproject_statement_cache_hits_total " + StatementCache.hits ());
+      out.println ("# HELP dbproject_statement_cache_misses_total Prepared statements created.");
+      out.println ("# TYPE dbproject_statement_cache_misses_total counter");
+      out.println ("dbproject_statement_cache_misses_total " + StatementCache.misses ());
+      out.flush ();
+   }//end writePrometheus
+
+   private static void summary (PrintWriter out, String name, String labels, LatencyHistogram h){
+      for (double q : QUANTILES)
+         out.println (String.format (Locale.ROOT, "%s{%s,quantile=\"%s\"} %.9f",
+               name, labels, q, h.percentile (q) / 1e9));
+      out.println (String.format (Locale.ROOT, "%s_sum{%s} %.9f", name, labels, h.sum () / 1e9));
+      out.println (String.format (Locale.ROOT, "%s_count{%s} %d", name, labels, h.count ()));
+   }//end summary
+
+   /**
+    * Rewrites a metrics file in the Prometheus text format at a fixed
+    * interval from a daemon thread.  The file is replaced atomically, so a
+    * scraper never reads it half written.
+    *
+    * @param file the file to write
+    * @param intervalSeconds the interval between writes
+    */
+   public static void writePeriodically (final String file, long intervalSeconds){
+      ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor (new ThreadFactory (){
+         public Thread newThread (Runnable r){
+            Thread t = new Thread (r, "Metrics-writer");
+            t.setDaemon (true);
+            return t;
+         }
+      });
+      timer.scheduleAtFixedRate (new Runnable (){
+         public void run (){
+            try{
+               write (file);
+            }catch (IOException e){
+               System.err.println ("Unable to write the metrics: " + e.getMessage ());
+            }//end try
+         }
+      }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+   }//end writePeriodically
+
+   /**
+    * Writes the metrics file once.
+    *
+    * @param file the file to write
+    */
+   public static void write (String file) throws IOException {
+      File target = new File (file);
+      File tmp = new File (target.getPath () + ".tmp");
+      PrintWriter out = new PrintWriter (new FileWriter (tmp));
+      try{
+         writePrometheus (out);
+      }finally{
+         out.close ();
+      }//end try
+      if (!tmp.renameTo (target))
+         throw new IOException ("Cannot replace " + target);
+   }//end write
+
+}//end Metrics
@@ -0,0 +1,224 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory room occupancy of every hotel, so that availability questions are
+ * answered without a round trip to the database.
+ *
+ * Each hotel numbers its rooms 0..n-1 in the order they are added, and keeps
+ * one bitset of booked rooms per day that has at least one booking, plus the
+ * union of all of them.  The index is loaded from Room and Booking once, and
+ * kept current by addRoom() and bookRoom() after their changes commit.
+ *
+ */
+public class OccupancyIndex {
+
+   private static final class Hotel {
+      // room number -> bit, and bit -> room number.
+      final Map<Integer, Integer> bits = new HashMap<Integer, Integer> ();
+      int[] rooms = new int[16];
+      int roomCount = 0;
+
+      // day (days since 1970-01-01) -> rooms booked that day.
+      final Map<Integer, BitSet> days = new HashMap<Integer, BitSet> ();
+
+      // rooms booked on any day.
+      final BitSet everBooked = new BitSet ();
+
+      int bit (int roomNo){
+         Integer bit = this.bits.get (roomNo);
+         if (bit != null)
+            return bit;
+         if (this.roomCount == this.rooms.length)
+            this.rooms = Arrays.copyOf (this.rooms, this.roomCount * 2);
+         this.rooms[this.roomCount] = roomNo;
+         this.bits.put (roomNo, this.roomCount);
+         return this.roomCount++;
+      }//end bit
+   }//end Hotel
+
+   private final Map<Integer, Hotel> _hotels = new HashMap<Integer, Hotel> ();
+   private final ReadWriteLock _lock = new ReentrantReadWriteLock ();
+
+   /**
+    * Builds the index from the Room and Booking tables.
+    *
+    * @param esql the database to read from
+    * @return the loaded index
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public static OccupancyIndex load (DBProject esql) throws SQLException {
+      final OccupancyIndex index = new OccupancyIndex ();
+      esql.scan ("occupancy.rooms",
+            "SELECT hotelID, roomNo FROM Room ORDER BY hotelID, roomNo",
+            new RowHandler (){
+               public void row (ResultSet rs) throws SQLException {
+                  index.addRoom (rs.getInt (1), rs.getInt (2));
+               }
+            });
+      esql.scan ("occupancy.bookings",
+            "SELECT hotelID, roomNo, bookingDate FROM Booking",
+            new RowHandler (){
+               public void row (ResultSet rs) throws SQLException {
+                  // the text form avoids a time zone conversion per row.
+                  index.book (rs.getInt (1), rs.getInt (2), parseDay (rs.getString (3)));
+               }
+            });
+      return index;
+   }//end load
+
+   /**
+    * Registers a room.  Adding a room twice has no effect.
+    */
+   public void addRoom (int hotelID, int roomNo){
+      this._lock.writeLock ().lock ();
+      try{
+         hotel (hotelID).bit (roomNo);
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end addRoom
+
+   /**
+    * Marks a room as booked on the given date.
+    */
+   public void book (int hotelID, int roomNo, Date date){
+      book (hotelID, roomNo, day (date));
+   }//end book
+
+   private void book (int hotelID, int roomNo, int day){
+      this._lock.writeLock ().lock ();
+      try{
+         Hotel h = hotel (hotelID);
+         int bit = h.bit (roomNo);
+         BitSet booked = h.days.get (day);
+         if (booked == null){
+            booked = new BitSet (h.roomCount);
+            h.days.put (day, booked);
+         }//end if
+         booked.set (bit);
+         h.everBooked.set (bit);
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end book
+
+   /**
+    * @return the number of rooms of the hotel
+    */
+   public int roomCount (int hotelID){
+      this._lock.readLock ().lock ();
+      try{
+         Hotel h = this._hotels.get (hotelID);
+         return h == null ? 0 : h.roomCount;
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end roomCount
+
+   /**
+    * @return the number of rooms of the hotel that have never been booked
+    */
+   public int unbookedRooms (int hotelID){
+      this._lock.readLock ().lock ();
+      try{
+         Hotel h = this._hotels.get (hotelID);
+         return h == null ? 0 : h.roomCount - h.everBooked.cardinality ();
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end unbookedRooms
+
+   /**
+    * @return whether the room is free on the given date
+    */
+   public boolean isFree (int hotelID, int roomNo, Date date){
+      this._lock.readLock ().lock ();
+      try{
+         Hotel h = this._hotels.get (hotelID);
+         Integer bit = h == null ? null : h.bits.get (roomNo);
+         if (bit == null)
+            return false;
+         BitSet booked = h.days.get (day (date));
+         return booked == null || !booked.get (bit);
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end isFree
+
+   /**
+    * Lists the rooms of a hotel that are free on every one of a range of
+    * days.
+    *
+    * @param hotelID the hotel
+    * @param from the first day of the range
+    * @param days the number of days of the range
+    * @return the free room numbers, in increasing order
+    */
+   public int[] freeRooms (int hotelID, Date from, int days){
+      int first = day (from);
+      this._lock.readLock ().lock ();
+      try{
+         Hotel h = this._hotels.get (hotelID);
+         if (h == null)
+            return new int[0];
+         BitSet booked = new BitSet (h.roomCount);
+         for (int d = first; d < first + days; ++d){
+            BitSet b = h.days.get (d);
+            if (b != null)
+               booked.or (b);
+         }//end for
+         int[] free = new int[h.roomCount - booked.cardinality ()];
+         int n = 0;
+         for (int bit = booked.nextClearBit (0); bit < h.roomCount; bit = booked.nextClearBit (bit + 1))
+            free[n++] = h.rooms[bit];
+         Arrays.sort (free);
+         return free;
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end freeRooms
+
+   private Hotel hotel (int hotelID){
+      Hotel h = this._hotels.get (hotelID);
+      if (h == null){
+         h = new Hotel ();
+         this._hotels.put (hotelID, h);
+      }//end if
+      return h;
+   }//end hotel
+
+   // days since 1970-01-01 of a date, in the local calendar it was built in.
+   private static int day (Date date){
+      Calendar cal = new GregorianCalendar ();
+      cal.setTime (date);
+      return day (cal.get (Calendar.YEAR), cal.get (Calendar.MONTH) + 1, cal.get (Calendar.DAY_OF_MONTH));
+   }//end day
+
+   // days since 1970-01-01 of a yyyy-mm-dd date.
+   private static int parseDay (String date){
+      return day (Integer.parseInt (date.substring (0, 4)),
+                  Integer.parseInt (date.substring (5, 7)),
+                  Integer.parseInt (date.substring (8, 10)));
+   }//end parseDay
+
+   // days since 1970-01-01 of a proleptic Gregorian date.
+   static int day (int year, int month, int day){
+      int y = month <= 2 ? year - 1 : year;
+      int era = (y >= 0 ? y : y - 399) / 400;
+      int yoe = y - era * 400;
+      int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+      int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+      return era * 146097 + doe - 719468;
+   }//end day
+
+}//end OccupancyIndex
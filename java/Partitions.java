@@ -0,0 +1,106 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.regex.Pattern;
+
+/**
+ * Creates the partitions of Booking and Repair ahead of time, when
+ * partition.sql has range partitioned them by date.  A booking or repair
+ * dated after the last partition is refused by the database, so run it
+ * regularly, e.g. monthly from cron; tables that are not partitioned are
+ * left alone.
+ *
+ * Usage: java Partitions &lt;dbname&gt; &lt;port&gt; &lt;user&gt; [months ahead]
+ *
+ */
+public class Partitions {
+
+   // the tables partition.sql partitions by date.
+   static final String[] TABLES = {"Booking", "Repair"};
+
+   // the name of a partition: its table, then _y<yyyy> or _m<yyyymm>.
+   private static final Pattern PARTITION = Pattern.compile ("_[ym]\\d+$");
+
+   private Partitions (){
+   }//end Partitions
+
+   /**
+    * The main execution method
+    *
+    * @param args dbname, port, user and optionally the number of months the
+    *        partitions should cover from today (12 by default)
+    */
+   public static void main (String[] args){
+      if (args.length < 3 || args.length > 4){
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + Partitions.class.getName () +
+            " <dbname> <port> <user> [months ahead]");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "");
+         int created = ensure (esql, args.length > 3 ? Integer.parseInt (args[3]) : 12);
+         System.out.println ("Created " + created + " partitions");
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+         System.exit (1);
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+   /**
+    * Creates the partitions missing until the given number of months from
+    * today, with the step of the existing ones.
+    *
+    * @param esql the database
+    * @param months how far ahead the partitions should go
+    * @return the number of partitions created
+    * @throws java.sql.SQLException when a partition cannot be created
+    */
+   public static int ensure (DBProject esql, int months) throws SQLException {
+      Calendar cal = Calendar.getInstance ();
+      cal.add (Calendar.MONTH, months);
+      final Date upto = new Date (cal.getTimeInMillis ());
+      final int[] created = new int[1];
+      for (String table : TABLES){
+         if (!partitioned (esql, table))
+            continue;
+         esql.fetch ("partitions.ensure", "SELECT ensure_partitions(CAST(? AS regclass), ?)", new RowHandler (){
+            public void row (ResultSet rs) throws SQLException {
+               created[0] += rs.getInt (1);
+            }
+         }, table, upto);
+      }//end for
+      return created[0];
+   }//end ensure
+
+   /**
+    * @return whether the table is range partitioned by partition.sql
+    */
+   public static boolean partitioned (DBProject esql, String table) throws SQLException {
+      final boolean[] found = new boolean[1];
+      esql.fetch ("partitions.partitioned",
+            "SELECT 1 FROM pg_partitioned_table WHERE partrelid = CAST(? AS regclass)", new RowHandler (){
+         public void row (ResultSet rs){
+            found[0] = true;
+         }
+      }, table);
+      return found[0];
+   }//end partitioned
+
+   /**
+    * @return the table a partition belongs to, or the relation itself when
+    *         it is not a partition
+    */
+   static String parent (String relation){
+      return PARTITION.matcher (relation).replaceFirst ("");
+   }//end parent
+
+}//end Partitions
@@ -0,0 +1,199 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the statements of the menu operations through
+ * EXPLAIN (ANALYZE, BUFFERS, VERBOSE, FORMAT JSON) before they are executed
+ * for real, and appends every plan to a file, one JSON object per line,
+ * together with its planning and execution time and the problems spotted in
+ * it.  VERBOSE lists the columns every node outputs, which IndexAdvisor
+ * uses to propose covering indexes.  The problems flagged are:
+ *
+ *   seqscan   a sequential scan of one of the large tables (Booking, Repair,
+ *             Room)
+ *   cartesian a nested loop without a join condition whose inner side is
+ *             not an index lookup, i.e. a cartesian product
+ *
+ * ANALYZE executes the statement, so it is always rolled back: to a
+ * savepoint inside a transaction, as a transaction of its own otherwise.
+ * A statement that cannot be explained is reported and then run as usual.
+ *
+ */
+public class PlanCapture {
+
+   private static final List<String> LARGE_TABLES = Arrays.asList ("booking", "repair", "room");
+   private static final String SAVEPOINT = "dbproject_explain";
+
+   private final String _file;
+   private final PrintWriter _out;
+
+   /**
+    * Opens the capture file, appending to it if it exists.
+    *
+    * @param file the file the plans are written to
+    * @throws java.io.IOException when the file cannot be opened
+    */
+   public PlanCapture (String file) throws IOException {
+      this._file = file;
+      this._out = new PrintWriter (new FileWriter (file, true));
+   }//end PlanCapture
+
+   /**
+    * @return the file the plans are written to
+    */
+   public String file (){
+      return this._file;
+   }//end file
+
+   /**
+    * Explains a statement on a connection and records its plan.
+    *
+    * @param pc the connection the statement is about to run on
+    * @param inTransaction whether the connection has a transaction open
+    * @param op the operation issuing the statement, used as the cache key
+    * @param sql the statement with ? placeholders
+    * @param params the values bound to the placeholders, in order
+    */
+   public void capture (PooledConnection pc, boolean inTransaction, String op, String sql, Object[] params){
+      String key = op + ".explain";
+      String plan = null;
+      Connection c = pc.connection ();
+      try{
+         Statement stmt = c.createStatement ();
+         try{
+            if (inTransaction)
+               stmt.executeUpdate ("SAVEPOINT " + SAVEPOINT);
+            else
+               c.setAutoCommit (false);
+            try{
+               // the plan depends on the parameters, so it is never prepared
+               // on the server.
+               PreparedStatement explain = pc.statements ().prepare (key,
+                     "EXPLAIN (ANALYZE, BUFFERS, VERBOSE, FORMAT JSON) " + DBProject.stripSemicolon (sql), false);
+               DBProject.bind (explain, params);
+               ResultSet rs = explain.executeQuery ();
+               StringBuilder sb = new StringBuilder ();
+               while (rs.next ())
+                  sb.append (rs.getString (1)).append ('\n');
+               rs.close ();
+               plan = sb.toString ();
+            }catch (SQLException e){
+               pc.statements ().evict (key);
+               throw e;
+            }finally{
+               if (inTransaction){
+                  stmt.executeUpdate ("ROLLBACK TO SAVEPOINT " + SAVEPOINT);
+                  stmt.executeUpdate ("RELEASE SAVEPOINT " + SAVEPOINT);
+               }else{
+                  c.rollback ();
+                  c.setAutoCommit (true);
+               }//end if
+            }//end try
+         }finally{
+            stmt.close ();
+         }//end try
+      }catch (SQLException e){
+         System.err.println ("Unable to explain " + op + ": " + e.getMessage ());
+         return;
+      }//end try
+      record (op, sql, params, plan);
+   }//end capture
+
+   private void record (String op, String sql, Object[] params, String plan){
+      Object root;
+      try{
+         root = ((List<?>) Json.parse (plan)).get (0);
+      }catch (RuntimeException e){
+         System.err.println ("Unable to read the plan of " + op + ": " + e.getMessage ());
+         return;
+      }//end try
+      Map<?, ?> top = (Map<?, ?>) root;
+      List<String> flags = new ArrayList<String> ();
+      inspect ((Map<?, ?>) top.get ("Plan"), flags);
+
+      StringBuilder line = new StringBuilder (plan.length () + 256);
+      line.append ("{\"time\":").append (System.currentTimeMillis ());
+      line.append (",\"operation\":");
+      Json.quote (line, op);
+      line.append (",\"statement\":");
+      Json.quote (line, sql);
+      line.append (",\"parameters\":[");
+      for (int i = 0; i < params.length; ++i){
+         if (i > 0) line.append (',');
+         if (params[i] == null)
+            line.append ("null");
+         else if (params[i] instanceof Number || params[i] instanceof Boolean)
+            line.append (params[i]);
+         else
+            Json.quote (line, params[i] instanceof Date ? params[i].toString () : String.valueOf (params[i]));
+      }//end for
+      line.append ("],\"planningTime\":").append (top.get ("Planning Time"));
+      line.append (",\"executionTime\":").append (top.get ("Execution Time"));
+      line.append (",\"flags\":[");
+      for (int i = 0; i < flags.size (); ++i){
+         if (i > 0) line.append (',');
+         Json.quote (line, flags.get (i));
+      }//end for
+      line.append ("],\"plan\":").append (plan.trim ()).append ('}');
+
+      synchronized (this){
+         this._out.println (line);
+         this._out.flush ();
+      }//end synchronized
+      for (String flag : flags)
+         System.err.println ("EXPLAIN " + op + ": " + flag);
+   }//end record
+
+   /*
+    * Walks a plan node and its children, adding a flag for every problem.
+    */
+   static void inspect (Map<?, ?> node, List<String> flags){
+      String type = (String) node.get ("Node Type");
+      String relation = (String) node.get ("Relation Name");
+      if ("Seq Scan".equals (type) && relation != null
+            && LARGE_TABLES.contains (Partitions.parent (relation.toLowerCase ())))
+         flags.add ("seqscan " + relation + " (" + node.get ("Actual Rows") + " rows)");
+
+      List<?> children = (List<?>) node.get ("Plans");
+      if ("Nested Loop".equals (type) && node.get ("Join Filter") == null
+            && children != null && children.size () == 2 && !indexed ((Map<?, ?>) children.get (1)))
+         flags.add ("cartesian nested loop (" + node.get ("Actual Rows") + " rows)");
+      if (children != null)
+         for (Object child : children)
+            inspect ((Map<?, ?>) child, flags);
+   }//end inspect
+
+   /*
+    * Tells whether the inner side of a nested loop looks up its rows through
+    * an index, i.e. is correlated with the outer side.
+    */
+   private static boolean indexed (Map<?, ?> node){
+      if (node.get ("Index Cond") != null || node.get ("Recheck Cond") != null)
+         return true;
+      List<?> children = (List<?>) node.get ("Plans");
+      if (children != null)
+         for (Object child : children)
+            if (indexed ((Map<?, ?>) child))
+               return true;
+      return false;
+   }//end indexed
+
+   /**
+    * Closes the capture file.
+    */
+   public void close (){
+      this._out.close ();
+   }//end close
+
+}//end PlanCapture
@@ -0,0 +1,48 @@
+import java.sql.Connection;
+
+/**
+ * A physical connection handed out by ConnectionPool, together with its
+ * prepared statement cache and the bookkeeping the pool needs to decide when
+ * it must be validated or evicted.
+ *
+ */
+public class PooledConnection {
+
+   // reference to physical database connection.
+   private final Connection _connection;
+
+   // prepared statements of this connection, keyed by operation.
+   private final StatementCache _statements;
+
+   // last time the connection was handed back to the pool.
+   private volatile long _lastUsed;
+
+   PooledConnection (Connection connection){
+      this._connection = connection;
+      this._statements = new StatementCache (connection);
+      this._lastUsed = System.currentTimeMillis ();
+   }//end PooledConnection
+
+   /**
+    * @return the underlying JDBC connection
+    */
+   public Connection connection (){
+      return this._connection;
+   }//end connection
+
+   /**
+    * @return the prepared statement cache of this connection
+    */
+   public StatementCache statements (){
+      return this._statements;
+   }//end statements
+
+   long lastUsed (){
+      return this._lastUsed;
+   }//end lastUsed
+
+   void touch (){
+      this._lastUsed = System.currentTimeMillis ();
+   }//end touch
+
+}//end PooledConnection
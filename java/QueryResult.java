@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The rows of a query held in memory, as returned by
+ * DBProject.submitQuery(): column names and SQL types, and every value as
+ * text.  Names and types are only known when there is at least one row,
+ * just like the header of a printed result.
+ *
+ */
+public class QueryResult {
+
+   private String[] _names = new String[0];
+   private int[] _types = new int[0];
+   private final List<String[]> _rows = new ArrayList<String[]> ();
+
+   // whether rows were left out, see tee().
+   private boolean _truncated = false;
+
+   QueryResult (){
+   }//end QueryResult
+
+   /**
+    * Builds a result computed in memory.
+    */
+   public QueryResult (String[] names, int[] types, List<String[]> rows){
+      this._names = names;
+      this._types = types;
+      this._rows.addAll (rows);
+   }//end QueryResult
+
+   /*
+    * Collects the rows of a result set into this result.
+    */
+   RowHandler collector (){
+      return new RowHandler (){
+         public void row (ResultSet rs) throws SQLException {
+            ResultSetMetaData rsmd = rs.getMetaData ();
+            int numCol = rsmd.getColumnCount ();
+            if (QueryResult.this._names.length == 0){
+               QueryResult.this._names = new String[numCol];
+               QueryResult.this._types = new int[numCol];
+               for (int i = 0; i < numCol; ++i){
+                  QueryResult.this._names[i] = rsmd.getColumnName (i + 1);
+                  QueryResult.this._types[i] = rsmd.getColumnType (i + 1);
+               }//end for
+            }//end if
+            String[] values = new String[numCol];
+            for (int i = 0; i < numCol; ++i)
+               values[i] = rs.getString (i + 1);
+            QueryResult.this._rows.add (values);
+         }
+      };
+   }//end collector
+
+   /*
+    * Writes the rows of a result set to a sink as they are fetched, and
+    * keeps the first limit of them.  When there are more, none is kept and
+    * the result is truncated.
+    */
+   RowHandler tee (final ResultSink sink, final int limit){
+      final RowHandler collector = collector ();
+      return new RowHandler (){
+         public void row (ResultSet rs) throws SQLException {
+            boolean first = QueryResult.this._names.length == 0;
+            collector.row (rs);
+            List<String[]> rows = QueryResult.this._rows;
+            try{
+               if (first)
+                  sink.header (QueryResult.this._names, QueryResult.this._types);
+               sink.row (rows.get (rows.size () - 1));
+            }catch (IOException e){
+               throw new SQLException ("Unable to write the result: " + e.getMessage ());
+            }//end try
+            if (rows.size () > limit){
+               rows.clear ();
+               QueryResult.this._truncated = true;
+            }else if (QueryResult.this._truncated){
+               rows.clear ();
+            }//end if
+         }
+      };
+   }//end tee
+
+   /**
+    * @return whether rows were left out because there were too many
+    */
+   public boolean truncated (){
+      return this._truncated;
+   }//end truncated
+
+   public String[] names (){
+      return this._names;
+   }//end names
+
+   public int[] types (){
+      return this._types;
+   }//end types
+
+   public List<String[]> rows (){
+      return this._rows;
+   }//end rows
+
+   public int size (){
+      return this._rows.size ();
+   }//end size
+
+   /**
+    * @return the value of a column of a row, null when there is no such row
+    */
+   public String value (int row, int column){
+      return row < this._rows.size () ? this._rows.get (row)[column] : null;
+   }//end value
+
+   /**
+    * Outputs the rows to the result sink of a DBProject, exactly as if they
+    * had been returned by a query.
+    *
+    * @return the number of rows
+    */
+   public int print (DBProject esql) throws SQLException {
+      return esql.printRows (this._names, this._types, this._rows);
+   }//end print
+
+   /**
+    * @return a future that is already done with the given result, for
+    *         results computed without a query
+    */
+   static Future<QueryResult> completed (final QueryResult result){
+      FutureTask<QueryResult> f = new FutureTask<QueryResult> (new Callable<QueryResult> (){
+         public QueryResult call (){
+            return result;
+         }
+      });
+      f.run ();
+      return f;
+   }//end completed
+
+   /**
+    * Waits for a submitted query.
+    *
+    * @param f the future returned by DBProject.submitQuery()
+    * @return its result
+    * @throws java.sql.SQLException when the query failed or the wait was
+    *         interrupted
+    */
+   public static QueryResult get (Future<QueryResult> f) throws SQLException {
+      try{
+         return f.get ();
+      }catch (InterruptedException e){
+         Thread.currentThread ().interrupt ();
+         throw new SQLException ("Interrupted while waiting for a query");
+      }catch (ExecutionException e){
+         if (e.getCause () instanceof SQLException)
+            throw (SQLException) e.getCause ();
+         throw new SQLException (String.valueOf (e.getCause ()), e.getCause ());
+      }//end try
+   }//end get
+
+}//end QueryResult
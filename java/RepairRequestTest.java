@@ -0,0 +1,202 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Checks that a repair request is refused the same way by the menu and by
+ * the batch mode: the same invalid requests (an unknown manager, a staff
+ * member who is not a manager, an unknown repair) are raised directly and
+ * through the write batcher, in one multi-row statement and one row at a
+ * time, and must fail with the same message and SQL state, without any
+ * Request row written.  Then a batch queues a valid request, a new repair
+ * and a request of that repair, which must all be written: a request runs
+ * after the repair queued before it.
+ *
+ * Needs a database loaded with create.sql; the rows the last check writes
+ * are deleted at the end.  The exit code is 1 when a check fails.
+ *
+ * Usage: java RepairRequestTest &lt;dbname&gt; &lt;port&gt; &lt;user&gt;
+ *
+ */
+public class RepairRequestTest {
+
+   private static final Date DAY = Date.valueOf ("2016-07-26");
+
+   private RepairRequestTest (){
+   }//end RepairRequestTest
+
+   /**
+    * The main execution method
+    *
+    * @param args dbname, port and user
+    */
+   public static void main (String[] args){
+      if (args.length != 3){
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + RepairRequestTest.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      int failures = 0;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "");
+
+         int repair = (int) value (esql, "SELECT MIN(rID) FROM Repair");
+         int manager = (int) value (esql, "SELECT MIN(SSN) FROM Staff WHERE role = 'Manager'");
+         int other = (int) value (esql, "SELECT MIN(SSN) FROM Staff WHERE role <> 'Manager'");
+         List<int[]> requests = new ArrayList<int[]> ();
+         requests.add (new int[]{(int) value (esql, "SELECT MAX(SSN) + 1 FROM Staff"), repair});
+         requests.add (new int[]{other, repair});
+         requests.add (new int[]{manager, (int) value (esql, "SELECT MAX(rID) + 1 FROM Repair")});
+
+         List<SQLException> direct = new ArrayList<SQLException> ();
+         List<Integer> ids = new ArrayList<Integer> ();
+         for (int[] r : requests){
+            int id = esql.nextId ("Request");
+            ids.add (id);
+            SQLException error = null;
+            try{
+               DBProject.repairRequest (esql, id, r[0], r[1], DAY, "check");
+            }catch (SQLException e){
+               error = e;
+            }//end try
+            direct.add (error);
+         }//end for
+
+         // all the requests in one statement, then one statement each.
+         WriteBatcher[] batchers = {new WriteBatcher (esql, 500, 0L), new WriteBatcher (esql, 1, 0L)};
+         String[] names = {"multi-row batch", "single-row batch"};
+         for (int b = 0; b < batchers.length; ++b){
+            List<Future<Void>> tickets = new ArrayList<Future<Void>> ();
+            for (int[] r : requests){
+               int id = esql.nextId ("Request");
+               ids.add (id);
+               tickets.add (DBProject.repairRequest (batchers[b], id, r[0], r[1], DAY, "check"));
+            }//end for
+            batchers[b].flush ();
+            batchers[b].close ();
+            for (int i = 0; i < tickets.size (); ++i){
+               SQLException error = null;
+               try{
+                  WriteBatcher.get (tickets.get (i));
+               }catch (SQLException e){
+                  error = e;
+               }//end try
+               failures += compare (names[b] + ", request " + (i + 1), direct.get (i), error);
+            }//end for
+         }//end for
+
+         StringBuilder in = new StringBuilder ();
+         for (Integer id : ids)
+            in.append (in.length () == 0 ? "" : ", ").append (id);
+         long written = value (esql, "SELECT COUNT(*) FROM Request WHERE reqID IN (" + in + ")");
+         if (written != 0){
+            System.out.println ("FAIL " + written + " invalid requests were written");
+            ++failures;
+         }//end if
+
+         failures += sameBatch (esql, manager, repair);
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+         System.exit (1);
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+      System.out.println (failures == 0 ? "OK" : failures + " checks failed");
+      if (failures > 0)
+         System.exit (1);
+   }//end main
+
+   /*
+    * Queues a request of an existing repair, a new repair and a request of
+    * the new repair in one batch, all of which must be written, then
+    * deletes them.  1 when one failed.
+    */
+   private static int sameBatch (DBProject esql, int manager, int repair) throws SQLException {
+      final int[] room = new int[3];
+      final String[] type = new String[1];
+      esql.fetch ("test.repair", "SELECT hotelID, roomNo, mCompany, repairType FROM Repair WHERE rID = ?", new RowHandler (){
+         public void row (ResultSet rs) throws SQLException {
+            room[0] = rs.getInt (1);
+            room[1] = rs.getInt (2);
+            room[2] = rs.getInt (3);
+            type[0] = rs.getString (4).trim ();
+         }
+      }, repair);
+      int first = esql.nextId ("Request");
+      int added = esql.nextId ("Repair");
+      int second = esql.nextId ("Request");
+      String[] names = {"request of repair " + repair, "repair " + added, "request of repair " + added + " in the same batch"};
+
+      WriteBatcher batch = new WriteBatcher (esql, 500, 1000L);
+      List<Future<Void>> tickets = new ArrayList<Future<Void>> ();
+      tickets.add (DBProject.repairRequest (batch, first, manager, repair, DAY, "check"));
+      tickets.add (DBProject.addRepair (batch, added, room[0], room[1], room[2], DAY, "check", type[0]));
+      tickets.add (DBProject.repairRequest (batch, second, manager, added, DAY, "check"));
+      batch.flush ();
+      batch.close ();
+      int failures = 0;
+      for (int i = 0; i < tickets.size (); ++i){
+         try{
+            WriteBatcher.get (tickets.get (i));
+            System.out.println ("ok   " + names[i] + ": written");
+         }catch (SQLException e){
+            System.out.println ("FAIL " + names[i] + ": " + e.getMessage ());
+            ++failures;
+         }//end try
+      }//end for
+
+      esql.begin ();
+      try{
+         esql.executeUpdate ("test.delete", "DELETE FROM Request WHERE reqID IN (?, ?)", first, second);
+         if (esql.executeUpdate ("test.delete", "DELETE FROM Repair WHERE rID = ?", added) > 0){
+            esql.executeUpdate ("test.rollup", "UPDATE RepairYearlyRollup SET count = count - 1 WHERE hotelID = ? AND roomNo = ? AND year = 2016",
+                  room[0], room[1]);
+            esql.executeUpdate ("test.rollup", "DELETE FROM RepairYearlyRollup WHERE count = 0");
+         }//end if
+         esql.commit ();
+      }catch (SQLException e){
+         esql.rollback ();
+         throw e;
+      }//end try
+      return failures;
+   }//end sameBatch
+
+   /*
+    * Whether the batch refused a request like the menu did, 1 if not.
+    */
+   private static int compare (String name, SQLException direct, SQLException batched){
+      if (direct == null || batched == null){
+         System.out.println ("FAIL " + name + ": " + (direct == null ? "accepted" : direct.getMessage ())
+               + " directly, " + (batched == null ? "accepted" : batched.getMessage ()) + " batched");
+         return 1;
+      }//end if
+      if (!direct.getMessage ().equals (batched.getMessage ())
+            || !String.valueOf (direct.getSQLState ()).equals (String.valueOf (batched.getSQLState ()))){
+         System.out.println ("FAIL " + name + ": " + direct.getMessage () + " (" + direct.getSQLState () + ") directly, "
+               + batched.getMessage () + " (" + batched.getSQLState () + ") batched");
+         return 1;
+      }//end if
+      System.out.println ("ok   " + name + ": " + direct.getMessage ());
+      return 0;
+   }//end compare
+
+   private static long value (DBProject esql, String query) throws SQLException {
+      final long[] value = {0};
+      esql.fetch ("test.value", query, new RowHandler (){
+         public void row (ResultSet rs) throws SQLException {
+            value[0] = rs.getLong (1);
+         }
+      });
+      return value[0];
+   }//end value
+
+}//end RepairRequestTest
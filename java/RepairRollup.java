@@ -0,0 +1,68 @@
+import java.sql.SQLException;
+
+/**
+ * Rebuilds RepairYearlyRollup, the number of repairs of each room per
+ * year, from the Repair table.  addRepair() keeps it up to date one repair
+ * at a time; run this after repairs are loaded or deleted any other way.
+ * BulkLoader runs it after every load.
+ *
+ * Usage: java RepairRollup &lt;dbname&gt; &lt;port&gt; &lt;user&gt;
+ *
+ */
+public class RepairRollup {
+
+   private RepairRollup (){
+   }//end RepairRollup
+
+   /**
+    * The main execution method
+    *
+    * @param args dbname, port and user
+    */
+   public static void main (String[] args){
+      if (args.length != 3){
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + RepairRollup.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "");
+         rebuild (esql);
+         System.out.println ("Rebuilt RepairYearlyRollup");
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+         System.exit (1);
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+   /**
+    * Recounts the repairs of every room per year in one transaction.  Repairs
+    * cannot be added meanwhile, so none is counted twice or missed.
+    *
+    * @param esql the database
+    * @throws java.sql.SQLException when the rollup cannot be rebuilt
+    */
+   public static void rebuild (DBProject esql) throws SQLException {
+      esql.begin ();
+      try{
+         esql.executeUpdate ("LOCK TABLE Repair IN SHARE MODE");
+         esql.executeUpdate ("DELETE FROM RepairYearlyRollup");
+         esql.executeUpdate (
+            "INSERT INTO RepairYearlyRollup(hotelID, roomNo, year, count)\n" +
+            "SELECT hotelID, roomNo, CAST(EXTRACT(YEAR FROM repairDate) AS integer), COUNT(*)\n" +
+            "FROM Repair GROUP BY 1, 2, 3");
+         esql.commit ();
+      }finally{
+         esql.rollback ();
+      }//end try
+   }//end rebuild
+
+}//end RepairRollup
@@ -0,0 +1,194 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded cache of the results of the reporting operations, keyed by
+ * operation and parameters.
+ *
+ * Every result is tagged with the keys of the rows it was computed from
+ * (hotel, customer, company, or all bookings or repairs), and the write
+ * operations invalidate the tags they touch once their transaction
+ * commits.  Entries are also dropped once they are older than the time to
+ * live, which bounds how stale writes made by other processes can leave
+ * them, and the least recently used entry is evicted beyond the maximum
+ * size.
+ *
+ * A query that was running while an invalidation happened may have read
+ * the rows from before it, so its result is not cached.
+ *
+ */
+public class ResultCache {
+
+   // tags of the results computed from all bookings or all repairs.
+   static final String BOOKINGS = "bookings";
+   static final String REPAIRS = "repairs";
+
+   private static final class Entry {
+      final QueryResult result;
+      final String[] tags;
+      final long expires;
+
+      Entry (QueryResult result, String[] tags, long expires){
+         this.result = result;
+         this.tags = tags;
+         this.expires = expires;
+      }//end Entry
+   }//end Entry
+
+   private final int _maxEntries;
+   private final int _maxRows;
+   private final long _ttl;
+
+   // entries in least recently used order.
+   private final LinkedHashMap<String, Entry> _entries;
+
+   // tag -> keys of the entries tagged with it.
+   private final Map<String, Set<String>> _tagged = new HashMap<String, Set<String>> ();
+
+   // number of invalidations so far, see stamp().
+   private long _generation = 0;
+   private long _hits = 0;
+   private long _misses = 0;
+
+   /**
+    * @param maxEntries the number of results kept
+    * @param maxRows results with more rows than this are not kept
+    * @param ttl how long a result is kept, in milliseconds
+    */
+   public ResultCache (int maxEntries, int maxRows, long ttl){
+      this._maxEntries = maxEntries;
+      this._maxRows = maxRows;
+      this._ttl = ttl;
+      this._entries = new LinkedHashMap<String, Entry> (16, 0.75f, true);
+   }//end ResultCache
+
+   static String hotel (int hotelID){
+      return "hotel:" + hotelID;
+   }//end hotel
+
+   static String customer (int customerID){
+      return "customer:" + customerID;
+   }//end customer
+
+   static String company (int cmpID){
+      return "company:" + cmpID;
+   }//end company
+
+   /**
+    * @return the key of the result of an operation run with the given
+    *         parameters
+    */
+   static String key (String op, Object[] params){
+      return op + Arrays.toString (params);
+   }//end key
+
+   /**
+    * @return the result cached under the key, or null when there is none or
+    *         it has expired
+    */
+   public synchronized QueryResult get (String key){
+      Entry e = this._entries.get (key);
+      if (e != null && e.expires < System.currentTimeMillis ()){
+         remove (key);
+         e = null;
+      }//end if
+      if (e == null){
+         ++this._misses;
+         return null;
+      }//end if
+      ++this._hits;
+      return e.result;
+   }//end get
+
+   /**
+    * @return a stamp to pass to put() for a query about to be run
+    */
+   public synchronized long stamp (){
+      return this._generation;
+   }//end stamp
+
+   /**
+    * Caches a result, unless something was invalidated since the query that
+    * computed it started.
+    *
+    * @param key the key of the result
+    * @param result the result
+    * @param tags the tags that invalidate it
+    * @param stamp the value of stamp() before the query started
+    */
+   public synchronized void put (String key, QueryResult result, String[] tags, long stamp){
+      if (stamp != this._generation || result.truncated () || result.size () > this._maxRows)
+         return;
+      remove (key);
+      this._entries.put (key, new Entry (result, tags, System.currentTimeMillis () + this._ttl));
+      for (String tag : tags){
+         Set<String> keys = this._tagged.get (tag);
+         if (keys == null){
+            keys = new HashSet<String> ();
+            this._tagged.put (tag, keys);
+         }//end if
+         keys.add (key);
+      }//end for
+      if (this._entries.size () > this._maxEntries){
+         Iterator<String> eldest = this._entries.keySet ().iterator ();
+         remove (eldest.next ());
+      }//end if
+   }//end put
+
+   /**
+    * Drops every result tagged with one of the tags.
+    */
+   public synchronized void invalidate (String... tags){
+      ++this._generation;
+      for (String tag : tags){
+         Set<String> keys = this._tagged.remove (tag);
+         if (keys != null)
+            for (String key : keys.toArray (new String[keys.size ()]))
+               remove (key);
+      }//end for
+   }//end invalidate
+
+   /**
+    * Drops every result.
+    */
+   public synchronized void clear (){
+      ++this._generation;
+      this._entries.clear ();
+      this._tagged.clear ();
+   }//end clear
+
+   private void remove (String key){
+      Entry e = this._entries.remove (key);
+      if (e == null)
+         return;
+      for (String tag : e.tags){
+         Set<String> keys = this._tagged.get (tag);
+         if (keys != null){
+            keys.remove (key);
+            if (keys.isEmpty ())
+               this._tagged.remove (tag);
+         }//end if
+      }//end for
+   }//end remove
+
+   /**
+    * @return the number of rows above which results are not kept
+    */
+   public int maxRows (){
+      return this._maxRows;
+   }//end maxRows
+
+   public synchronized long hits (){
+      return this._hits;
+   }//end hits
+
+   public synchronized long misses (){
+      return this._misses;
+   }//end misses
+
+}//end ResultCache
@@ -0,0 +1,37 @@
+import java.io.IOException;
+
+/**
+ * Destination of the rows printed by DBProject's query methods.  For every
+ * query that returns rows, header() is called once before the first row, then
+ * row() once per row; flush() is called when the query is done, whether or not
+ * it returned anything.
+ *
+ */
+public interface ResultSink {
+
+   /**
+    * Called before the first row of a query.
+    *
+    * @param names the column names
+    * @param types the java.sql.Types of the columns
+    */
+   void header (String[] names, int[] types) throws IOException;
+
+   /**
+    * Called for every row of a query.
+    *
+    * @param values the values of the row as text, null for SQL NULL
+    */
+   void row (String[] values) throws IOException;
+
+   /**
+    * Called at the end of every query.
+    */
+   void flush () throws IOException;
+
+   /**
+    * Releases the underlying file, if any.
+    */
+   void close () throws IOException;
+
+}//end ResultSink
@@ -0,0 +1,52 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Creates result sinks from a textual specification of the form
+ * format[:file], where format is one of tsv, csv, jsonl or binary.  Without a
+ * file the text formats write to standard out; binary always needs a file.
+ *
+ */
+public class ResultSinks {
+
+   private ResultSinks (){
+   }//end ResultSinks
+
+   /**
+    * @param spec the sink specification, e.g. csv:/tmp/revenue.csv
+    * @param console the writer used when no file is given
+    * @return the sink
+    * @throws java.io.IOException when the file cannot be opened
+    */
+   public static ResultSink open (String spec, Writer console) throws IOException {
+      int colon = spec.indexOf (':');
+      String format = colon < 0 ? spec : spec.substring (0, colon);
+      String file = colon < 0 ? null : spec.substring (colon + 1);
+
+      FileChannel channel = null;
+      if (file != null)
+         channel = FileChannel.open (Paths.get (file), StandardOpenOption.CREATE,
+               StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+      switch (format){
+         case "tsv":
+            return channel != null ? new TsvSink (channel) : new TsvSink (console);
+         case "csv":
+            return channel != null ? new CsvSink (channel) : new CsvSink (console);
+         case "jsonl":
+            return channel != null ? new JsonLinesSink (channel) : new JsonLinesSink (console);
+         case "binary":
+            if (channel == null)
+               throw new IOException ("The binary format needs an output file, e.g. binary:/tmp/out.bin");
+            return new BinaryRowSink (channel);
+         default:
+            if (channel != null)
+               channel.close ();
+            throw new IOException ("Unknown output format: " + format);
+      }//end switch
+   }//end open
+
+}//end ResultSinks
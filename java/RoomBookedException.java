@@ -0,0 +1,40 @@
+import java.sql.Date;
+import java.sql.SQLException;
+
+/**
+ * Thrown by DBProject.bookRoom() when the room is already booked on the
+ * requested day, i.e. when the booking would break the unique constraint on
+ * (hotelID, roomNo, bookingDate).
+ *
+ */
+public class RoomBookedException extends SQLException {
+
+   private static final long serialVersionUID = 1L;
+
+   // the SQL state of a unique violation.
+   private static final String UNIQUE_VIOLATION = "23505";
+
+   private final int _hotelID;
+   private final int _roomNo;
+   private final Date _bookingDate;
+
+   public RoomBookedException (int hotelID, int roomNo, Date bookingDate){
+      super ("Room " + roomNo + " of hotel " + hotelID + " is already booked on " + bookingDate, UNIQUE_VIOLATION);
+      this._hotelID = hotelID;
+      this._roomNo = roomNo;
+      this._bookingDate = bookingDate;
+   }//end RoomBookedException
+
+   public int hotelID (){
+      return this._hotelID;
+   }//end hotelID
+
+   public int roomNo (){
+      return this._roomNo;
+   }//end roomNo
+
+   public Date bookingDate (){
+      return this._bookingDate;
+   }//end bookingDate
+
+}//end RoomBookedException
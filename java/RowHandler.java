@@ -0,0 +1,16 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Receives the rows of a query run through DBProject.scan(), one call per
+ * row with the result set positioned on it.
+ *
+ */
+public interface RowHandler {
+
+   /**
+    * @param rs the result set, positioned on the current row
+    */
+   void row (ResultSet rs) throws SQLException;
+
+}//end RowHandler
@@ -0,0 +1,167 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Ids read from a loaded database, for the load generators to draw realistic
+ * parameters from.  The ids of the rows they insert come from
+ * DBProject.nextId().
+ *
+ */
+public class Samples {
+
+   /**
+    * A growable list of ints to draw random values from.
+    */
+   static final class Ints {
+      int[] values = new int[16];
+      int size = 0;
+
+      void add (int v){
+         if (this.size == this.values.length)
+            this.values = Arrays.copyOf (this.values, this.size * 2);
+         this.values[this.size++] = v;
+      }//end add
+
+      int random (){
+         if (this.size == 0)
+            throw new IllegalStateException ("No rows to pick a parameter from");
+         return this.values[ThreadLocalRandom.current ().nextInt (this.size)];
+      }//end random
+   }//end Ints
+
+   // bookings read to follow the skew of the data.
+   private static final int BOOKING_SAMPLE = 100000;
+
+   final Ints hotels = new Ints ();
+   final Ints customers = new Ints ();
+   final Ints companies = new Ints ();
+   final Ints cleaners = new Ints ();
+   final Ints managers = new Ints ();
+   final Ints repairs = new Ints ();
+
+   // hotelID and roomNo of every room, at even and odd positions.
+   final Ints rooms = new Ints ();
+
+   // hotels of a sample of the bookings: picking from it favours busy hotels.
+   final Ints bookedHotels = new Ints ();
+
+   // rooms, house cleaning staff and manager of each hotel.
+   final Map<Integer, Ints> roomsOf = new HashMap<Integer, Ints> ();
+   final Map<Integer, Ints> cleanersOf = new HashMap<Integer, Ints> ();
+   final Map<Integer, Integer> managerOf = new HashMap<Integer, Integer> ();
+
+   // first booking date and the number of days booked.
+   private Date _firstDate;
+   private int _days;
+
+   /**
+    * Reads the samples from the database.
+    *
+    * @param esql the database to read from
+    * @return the samples
+    * @throws java.sql.SQLException when a table cannot be read
+    */
+   public static Samples load (DBProject esql) throws SQLException {
+      final Samples s = new Samples ();
+      esql.scan ("samples.hotels", "SELECT hotelID FROM Hotel", into (s.hotels));
+      esql.scan ("samples.rooms", "SELECT hotelID, roomNo FROM Room", new RowHandler (){
+         public void row (ResultSet rs) throws SQLException {
+            s.rooms.add (rs.getInt (1));
+            s.rooms.add (rs.getInt (2));
+            group (s.roomsOf, rs.getInt (1)).add (rs.getInt (2));
+         }
+      });
+      esql.scan ("samples.customers", "SELECT customerID FROM Customer", into (s.customers));
+      esql.scan ("samples.companies", "SELECT cmpID FROM MaintenanceCompany", into (s.companies));
+      esql.scan ("samples.staff", "SELECT SSN, employerID, role FROM Staff", new RowHandler (){
+         public void row (ResultSet rs) throws SQLException {
+            String role = rs.getString (3);
+            if ("HouseCleaning".equals (role)){
+               s.cleaners.add (rs.getInt (1));
+               group (s.cleanersOf, rs.getInt (2)).add (rs.getInt (1));
+            }else if ("Manager".equals (role)){
+               s.managers.add (rs.getInt (1));
+               s.managerOf.put (rs.getInt (2), rs.getInt (1));
+            }//end if
+         }
+      });
+      esql.scan ("samples.repairs", "SELECT rID FROM Repair", into (s.repairs));
+      esql.scan ("samples.bookedHotels", "SELECT hotelID FROM Booking LIMIT " + BOOKING_SAMPLE, into (s.bookedHotels));
+
+      esql.scan ("samples.dates", "SELECT MIN(bookingDate), MAX(bookingDate) FROM Booking", new RowHandler (){
+         public void row (ResultSet rs) throws SQLException {
+            Date first = rs.getDate (1);
+            Date last = rs.getDate (2);
+            s._firstDate = first != null ? first : DBProject.toDate (2016, 1, 1);
+            s._days = first != null
+               ? (int) Math.max (1, (last.getTime () - first.getTime ()) / 86400000L) : 365;
+         }
+      });
+      System.out.println (String.format ("Sampled %d hotels, %d rooms, %d customers, %d companies",
+            s.hotels.size, s.rooms.size / 2, s.customers.size, s.companies.size));
+      return s;
+   }//end load
+
+   /**
+    * @return the index of a random room, for hotelOf() and roomOf()
+    */
+   int randomRoom (){
+      if (this.rooms.size == 0)
+         throw new IllegalStateException ("No rows to pick a parameter from");
+      return ThreadLocalRandom.current ().nextInt (this.rooms.size / 2);
+   }//end randomRoom
+
+   int hotelOf (int room){
+      return this.rooms.values[2 * room];
+   }//end hotelOf
+
+   int roomOf (int room){
+      return this.rooms.values[2 * room + 1];
+   }//end roomOf
+
+   /**
+    * @return a hotel, busy hotels being picked more often
+    */
+   int busyHotel (){
+      return this.bookedHotels.size > 0 ? this.bookedHotels.random () : this.hotels.random ();
+   }//end busyHotel
+
+   /**
+    * @return a random date of the booked period, offset by the given number
+    *         of days
+    */
+   Date date (int offset){
+      int day = ThreadLocalRandom.current ().nextInt (this._days + 1);
+      return DBProject.addDays (this._firstDate, day + offset);
+   }//end date
+
+   /**
+    * @return the number of days of the booked period
+    */
+   int days (){
+      return this._days;
+   }//end days
+
+   private static RowHandler into (final Ints ints){
+      return new RowHandler (){
+         public void row (ResultSet rs) throws SQLException {
+            ints.add (rs.getInt (1));
+         }
+      };
+   }//end into
+
+   private static Ints group (Map<Integer, Ints> groups, int key){
+      Ints ints = groups.get (key);
+      if (ints == null){
+         ints = new Ints ();
+         groups.put (key, ints);
+      }//end if
+      return ints;
+   }//end group
+
+}//end Samples
@@ -0,0 +1,104 @@
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a SQL script such as create.sql into its statements so they can be
+ * sent one at a time over JDBC.  Semicolons inside quotes, comments and
+ * dollar-quoted function bodies do not end a statement.
+ *
+ */
+public class SqlScript {
+
+   private SqlScript (){
+   }//end SqlScript
+
+   /**
+    * Reads a script file and splits it into statements.
+    *
+    * @param file the path of the script
+    * @return the statements, without their trailing semicolons
+    * @throws java.io.IOException when the file cannot be read
+    */
+   public static List<String> read (String file) throws IOException {
+      byte[] bytes = Files.readAllBytes (Paths.get (file));
+      return split (new String (bytes, Charset.forName ("UTF-8")));
+   }//end read
+
+   /**
+    * Splits a script into statements.  Comments are dropped and blank
+    * statements are skipped.
+    *
+    * @param script the text of the script
+    * @return the statements, without their trailing semicolons
+    */
+   public static List<String> split (String script){
+      List<String> statements = new ArrayList<String> ();
+      StringBuilder current = new StringBuilder ();
+      int i = 0;
+      int n = script.length ();
+      while (i < n){
+         char c = script.charAt (i);
+         if (c == '-' && i + 1 < n && script.charAt (i + 1) == '-'){
+            // line comment
+            while (i < n && script.charAt (i) != '\n') ++i;
+         }else if (c == '/' && i + 1 < n && script.charAt (i + 1) == '*'){
+            // block comment
+            int end = script.indexOf ("*/", i + 2);
+            i = end < 0 ? n : end + 2;
+         }else if (c == '\'' || c == '"'){
+            int end = i + 1;
+            while (end < n){
+               if (script.charAt (end) == c){
+                  // a doubled quote is an escaped quote
+                  if (end + 1 < n && script.charAt (end + 1) == c){
+                     end += 2;
+                     continue;
+                  }//end if
+                  break;
+               }//end if
+               ++end;
+            }//end while
+            end = Math.min (n, end + 1);
+            current.append (script, i, end);
+            i = end;
+         }else if (c == '$' && dollarTag (script, i) != null){
+            String tag = dollarTag (script, i);
+            int end = script.indexOf (tag, i + tag.length ());
+            end = end < 0 ? n : end + tag.length ();
+            current.append (script, i, end);
+            i = end;
+         }else if (c == ';'){
+            add (statements, current);
+            ++i;
+         }else{
+            current.append (c);
+            ++i;
+         }//end if
+      }//end while
+      add (statements, current);
+      return statements;
+   }//end split
+
+   // returns the $tag$ starting at position i, if there is one.
+   private static String dollarTag (String script, int i){
+      int j = i + 1;
+      while (j < script.length () && (Character.isLetterOrDigit (script.charAt (j)) || script.charAt (j) == '_'))
+         ++j;
+      if (j < script.length () && script.charAt (j) == '$'
+            && (j == i + 1 || !Character.isDigit (script.charAt (i + 1))))
+         return script.substring (i, j + 1);
+      return null;
+   }//end dollarTag
+
+   private static void add (List<String> statements, StringBuilder current){
+      String stmt = current.toString ().trim ();
+      if (stmt.length () > 0)
+         statements.add (stmt);
+      current.setLength (0);
+   }//end add
+
+}//end SqlScript
@@ -0,0 +1,143 @@
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.postgresql.PGStatement;
+
+/**
+ * Keeps the prepared statements of one physical connection, keyed by the
+ * name of the operation that issues them, so that PostgreSQL parses and plans
+ * each menu query once per connection instead of once per call.
+ *
+ * A cache belongs to a single PooledConnection and is only used by whoever
+ * currently borrows that connection, so it needs no locking of its own.
+ */
+public class StatementCache {
+
+   // hit/miss counters over every connection of the process.
+   private static final AtomicLong _hits = new AtomicLong ();
+   private static final AtomicLong _misses = new AtomicLong ();
+
+   private final Connection _connection;
+   private final Map<String, PreparedStatement> _statements = new HashMap<String, PreparedStatement> ();
+   private final Map<String, String> _sql = new HashMap<String, String> ();
+
+   StatementCache (Connection connection){
+      this._connection = connection;
+   }//end StatementCache
+
+   /**
+    * Returns the prepared statement cached under the given key, preparing it
+    * on the server the first time (or when the SQL text of the key changed).
+    *
+    * @param key the operation the statement belongs to
+    * @param sql the parameterized SQL text
+    * @return a statement with its parameters cleared
+    * @throws java.sql.SQLException when the statement could not be prepared
+    */
+   public PreparedStatement prepare (String key, String sql) throws SQLException {
+      return prepare (key, sql, true);
+   }//end prepare
+
+   /**
+    * Returns the prepared statement cached under the given key.
+    *
+    * @param key the operation the statement belongs to
+    * @param sql the parameterized SQL text
+    * @param serverPrepare false for statements PostgreSQL cannot PREPARE,
+    *        e.g. DECLARE, whose parameters are then bound by the driver
+    * @return a statement with its parameters cleared
+    * @throws java.sql.SQLException when the statement could not be prepared
+    */
+   public PreparedStatement prepare (String key, String sql, boolean serverPrepare) throws SQLException {
+      PreparedStatement ps = this._statements.get (key);
+      if (ps != null && sql.equals (this._sql.get (key))){
+         _hits.incrementAndGet ();
+         ps.clearParameters ();
+         return ps;
+      }//end if
+
+      _misses.incrementAndGet ();
+      if (ps != null)
+         close (ps);
+      ps = this._connection.prepareStatement (sql);
+      if (serverPrepare && ps instanceof PGStatement)
+         ((PGStatement) ps).setUseServerPrepare (true);
+      this._statements.put (key, ps);
+      this._sql.put (key, sql);
+      return ps;
+   }//end prepare
+
+   /**
+    * Returns the callable statement cached under the given key, preparing
+    * it the first time (or when the SQL text of the key changed).
+    *
+    * @param key the operation the statement belongs to
+    * @param sql the call, in the JDBC escape syntax
+    * @return a statement with its parameters cleared
+    * @throws java.sql.SQLException when the statement could not be prepared
+    */
+   public CallableStatement prepareCall (String key, String sql) throws SQLException {
+      PreparedStatement ps = this._statements.get (key);
+      if (ps instanceof CallableStatement && sql.equals (this._sql.get (key))){
+         _hits.incrementAndGet ();
+         ps.clearParameters ();
+         return (CallableStatement) ps;
+      }//end if
+
+      _misses.incrementAndGet ();
+      if (ps != null)
+         close (ps);
+      CallableStatement cs = this._connection.prepareCall (sql);
+      this._statements.put (key, cs);
+      this._sql.put (key, sql);
+      return cs;
+   }//end prepareCall
+
+   /**
+    * Drops the statement cached under the given key, e.g. after it failed in
+    * a way that may have left it unusable.
+    *
+    * @param key the operation the statement belongs to
+    */
+   public void evict (String key){
+      PreparedStatement ps = this._statements.remove (key);
+      this._sql.remove (key);
+      if (ps != null)
+         close (ps);
+   }//end evict
+
+   /**
+    * @return the number of statements cached for this connection
+    */
+   public int size (){
+      return this._statements.size ();
+   }//end size
+
+   /**
+    * @return cache hits over every connection of the process
+    */
+   public static long hits (){
+      return _hits.get ();
+   }//end hits
+
+   /**
+    * @return cache misses over every connection of the process
+    */
+   public static long misses (){
+      return _misses.get ();
+   }//end misses
+
+   private static void close (PreparedStatement ps){
+      try{
+         ps.close ();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end close
+
+}//end StatementCache
@@ -0,0 +1,31 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Common part of the sinks that write text through a buffered writer.
+ *
+ */
+public abstract class TextSink implements ResultSink {
+
+   protected final Writer _out;
+
+   protected TextSink (Writer out){
+      this._out = out;
+   }//end TextSink
+
+   protected TextSink (WritableByteChannel channel){
+      this (new BufferedWriter (Channels.newWriter (channel, "UTF-8"), 1 << 16));
+   }//end TextSink
+
+   public void flush () throws IOException {
+      this._out.flush ();
+   }//end flush
+
+   public void close () throws IOException {
+      this._out.close ();
+   }//end close
+
+}//end TextSink
@@ -0,0 +1,36 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes results the way the menu always printed them: a line of column
+ * names followed by one line per row, every value followed by a tab.
+ *
+ */
+public class TsvSink extends TextSink {
+
+   public TsvSink (Writer out){
+      super (out);
+   }//end TsvSink
+
+   public TsvSink (WritableByteChannel channel){
+      super (channel);
+   }//end TsvSink
+
+   public void header (String[] names, int[] types) throws IOException {
+      for (int i = 0; i < names.length; ++i){
+         this._out.write (names[i]);
+         this._out.write ('\t');
+      }//end for
+      this._out.write ('\n');
+   }//end header
+
+   public void row (String[] values) throws IOException {
+      for (int i = 0; i < values.length; ++i){
+         this._out.write (String.valueOf (values[i]));
+         this._out.write ('\t');
+      }//end for
+      this._out.write ('\n');
+   }//end row
+
+}//end TsvSink
@@ -0,0 +1,313 @@
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a mix of the menu operations against a loaded database at a target
+ * rate and reports the throughput and latency percentiles of each operation.
+ *
+ * Operations are issued on a fixed schedule (open loop) by a pool of worker
+ * threads, and the latency of each one is measured from the time it was
+ * scheduled, so a slow database shows up as queueing time instead of as a
+ * lower request rate.  Parameters are drawn at random from the rows already
+ * in the database; new rows get their ids from DBProject.nextId(), as in
+ * the batch mode (see BatchRunner and IdAllocator).
+ *
+ * Usage: java WorkloadBench &lt;dbname&gt; &lt;port&gt; &lt;user&gt;
+ *
+ * Settings (system properties):
+ *   bench.mix       op=weight,... over the operation names of BatchRunner
+ *                   (default 70% availability, 20% bookRoom, 10% reports)
+ *   bench.rate      operations per second to issue (default 200)
+ *   bench.duration  seconds to measure (default 60)
+ *   bench.warmup    seconds to run before measuring (default 10)
+ *   bench.threads   worker threads (default dbproject.pool.max, or 8)
+ *
+ */
+public class WorkloadBench {
+
+   private static final String DEFAULT_MIX =
+      "numberOfAvailableRooms=35,listHotelRoomBookingsForAWeek=35,bookRoom=20," +
+      "numberOfBookedRooms=2,topKHighestRoomPriceForADateRange=2,topKHighestPriceBookingsForACustomer=2," +
+      "totalCostForCustomer=1,listRepairsMade=1,topKMaintenanceCompany=1,numberOfRepairsForEachRoomPerYear=1";
+
+   // operation names and cumulative weights.
+   private final String[] _ops;
+   private final int[] _weights;
+
+   private final DBProject _esql;
+   private Samples _samples;
+   private final Map<String, LatencyHistogram> _latencies = new ConcurrentHashMap<String, LatencyHistogram> ();
+   private final Map<String, AtomicInteger> _errors = new ConcurrentHashMap<String, AtomicInteger> ();
+   private final ConcurrentHashMap<String, String> _firstError = new ConcurrentHashMap<String, String> ();
+
+   WorkloadBench (DBProject esql, String mix){
+      this._esql = esql;
+      Map<String, Integer> weights = new LinkedHashMap<String, Integer> ();
+      for (String part : mix.split (",")){
+         String[] kv = part.trim ().split ("=");
+         if (kv.length != 2)
+            throw new IllegalArgumentException ("Expected op=weight but got " + part);
+         weights.put (kv[0].trim (), Integer.parseInt (kv[1].trim ()));
+      }//end for
+      this._ops = new String[weights.size ()];
+      this._weights = new int[weights.size ()];
+      int i = 0, total = 0;
+      for (Map.Entry<String, Integer> e : weights.entrySet ()){
+         total += e.getValue ();
+         this._ops[i] = e.getKey ();
+         this._weights[i++] = total;
+         this._latencies.put (e.getKey (), new LatencyHistogram ());
+         this._errors.put (e.getKey (), new AtomicInteger ());
+      }//end for
+      if (total <= 0)
+         throw new IllegalArgumentException ("The mix has no weight");
+   }//end WorkloadBench
+
+   /**
+    * The main execution method
+    *
+    * @param args dbname, port and user
+    */
+   public static void main (String[] args){
+      if (args.length != 3){
+         System.err.println (
+            "Usage: java [-classpath <classpath>] " + WorkloadBench.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "");
+         esql.loadOccupancy ();
+         esql.loadLeaderboard ();
+         esql.listenForChanges ();
+         esql.setSink (new ResultSink (){
+            public void header (String[] names, int[] types){
+            }
+            public void row (String[] values){
+            }
+            public void flush (){
+            }
+            public void close (){
+            }
+         });
+
+         WorkloadBench bench = new WorkloadBench (esql, System.getProperty ("bench.mix", DEFAULT_MIX));
+         bench._samples = Samples.load (esql);
+         bench.run (Integer.getInteger ("bench.rate", 200),
+                    Integer.getInteger ("bench.warmup", 10),
+                    Integer.getInteger ("bench.duration", 60),
+                    Integer.getInteger ("bench.threads", Integer.getInteger ("dbproject.pool.max", 8)));
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+         System.exit (1);
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+   /*
+    * Issues operations at the given rate, then prints the report.
+    */
+   private void run (int rate, int warmupSeconds, int durationSeconds, int threads) throws InterruptedException {
+      if (rate <= 0 || durationSeconds <= 0 || threads <= 0)
+         throw new IllegalArgumentException ("bench.rate, bench.duration and bench.threads must be positive");
+      ExecutorService workers = Executors.newFixedThreadPool (threads);
+      long interval = 1000000000L / rate;
+      long start = System.nanoTime ();
+      final long measureFrom = start + warmupSeconds * 1000000000L;
+      long end = measureFrom + durationSeconds * 1000000000L;
+      System.out.println (String.format ("Running %d ops/s on %d threads: %d s warmup, %d s measured",
+            rate, threads, warmupSeconds, durationSeconds));
+
+      for (long i = 0; ; ++i){
+         final long scheduled = start + i * interval;
+         if (scheduled >= end) break;
+         long wait = scheduled - System.nanoTime ();
+         if (wait > 0)
+            LockSupport.parkNanos (wait);
+         final String op = pick ();
+         workers.execute (new Runnable (){
+            public void run (){
+               boolean ok = execute (op);
+               if (scheduled >= measureFrom){
+                  if (ok)
+                     WorkloadBench.this._latencies.get (op).record (System.nanoTime () - scheduled);
+                  else
+                     WorkloadBench.this._errors.get (op).incrementAndGet ();
+               }//end if
+            }
+         });
+      }//end for
+      workers.shutdown ();
+      workers.awaitTermination (Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      long lag = System.nanoTime () - end;
+      report (durationSeconds, lag);
+   }//end run
+
+   private String pick (){
+      int r = ThreadLocalRandom.current ().nextInt (this._weights[this._weights.length - 1]);
+      for (int i = 0; i < this._weights.length; ++i)
+         if (r < this._weights[i])
+            return this._ops[i];
+      return this._ops[this._ops.length - 1];
+   }//end pick
+
+   /*
+    * Runs one operation with random parameters, returning whether it
+    * succeeded.
+    */
+   private boolean execute (String op){
+      try{
+         BatchRunner.execute (this._esql, record (op));
+         return true;
+      }catch (SQLException e){
+         this._firstError.putIfAbsent (op, e.getMessage ());
+         return false;
+      }catch (IllegalArgumentException e){
+         this._firstError.putIfAbsent (op, String.valueOf (e.getMessage ()));
+         return false;
+      }catch (RuntimeException e){
+         // e.g. no rows to draw the parameters from: an error of the
+         // operation rather than the end of the worker.
+         this._firstError.putIfAbsent (op, String.valueOf (e));
+         return false;
+      }//end try
+   }//end execute
+
+   // builds a batch record for the operation.
+   private BatchRunner.Record record (String op){
+      ThreadLocalRandom random = ThreadLocalRandom.current ();
+      Map<String, String> p = new HashMap<String, String> ();
+      Samples s = this._samples;
+      int room = s.randomRoom ();
+      String hotel = String.valueOf (s.hotelOf (room));
+      String roomNo = String.valueOf (s.roomOf (room));
+      switch (op){
+         case "addCustomer":
+            p.put ("fname", "Bench");
+            p.put ("lname", "Customer");
+            p.put ("address", "1 Workload Street");
+            p.put ("phone", String.valueOf (random.nextInt (1000000000)));
+            p.put ("dob", String.valueOf (s.date (-365 * 40)));
+            p.put ("gender", "Other");
+            break;
+         case "addRoom":
+            p.put ("hotel", String.valueOf (s.hotels.random ()));
+            p.put ("room", String.valueOf (10000 + random.nextInt (1000000)));
+            p.put ("type", "Suite");
+            break;
+         case "addMaintenanceCompany":
+            p.put ("name", "Bench Repairs");
+            p.put ("address", "2 Workload Street");
+            p.put ("certified", random.nextBoolean () ? "y" : "n");
+            break;
+         case "addRepair":
+            p.put ("hotel", hotel);
+            p.put ("room", roomNo);
+            p.put ("company", String.valueOf (s.companies.random ()));
+            p.put ("date", String.valueOf (s.date (0)));
+            p.put ("description", "benchmark repair");
+            p.put ("type", "Small");
+            break;
+         case "bookRoom":
+            p.put ("customer", String.valueOf (s.customers.random ()));
+            p.put ("hotel", hotel);
+            p.put ("room", roomNo);
+            p.put ("date", String.valueOf (s.date (0)));
+            p.put ("people", String.valueOf (1 + random.nextInt (4)));
+            p.put ("price", String.valueOf (50 + random.nextInt (500)) + ".00");
+            break;
+         case "assignHouseCleaningToRoom":
+            p.put ("staff", String.valueOf (s.cleaners.random ()));
+            p.put ("hotel", hotel);
+            p.put ("room", roomNo);
+            break;
+         case "repairRequest":
+            p.put ("manager", String.valueOf (s.managers.random ()));
+            p.put ("repair", String.valueOf (s.repairs.random ()));
+            p.put ("date", String.valueOf (s.date (0)));
+            p.put ("description", "benchmark request");
+            break;
+         case "numberOfAvailableRooms":
+         case "numberOfBookedRooms":
+            p.put ("hotel", hotel);
+            break;
+         case "listHotelRoomBookingsForAWeek":
+            p.put ("hotel", hotel);
+            p.put ("date", String.valueOf (s.date (0)));
+            break;
+         case "topKHighestRoomPriceForADateRange":
+            p.put ("start", String.valueOf (s.date (0)));
+            p.put ("end", String.valueOf (s.date (s.days ())));
+            p.put ("k", "10");
+            break;
+         case "topKHighestPriceBookingsForACustomer":
+            p.put ("customer", String.valueOf (s.customers.random ()));
+            p.put ("k", "10");
+            break;
+         case "totalCostForCustomer":
+            p.put ("hotel", hotel);
+            p.put ("customer", String.valueOf (s.customers.random ()));
+            p.put ("start", String.valueOf (s.date (0)));
+            p.put ("end", String.valueOf (s.date (s.days ())));
+            break;
+         case "listRepairsMade":
+            p.put ("company", String.valueOf (s.companies.random ()));
+            break;
+         case "topKMaintenanceCompany":
+            p.put ("k", "10");
+            break;
+         case "numberOfRepairsForEachRoomPerYear":
+            p.put ("hotel", hotel);
+            p.put ("room", roomNo);
+            break;
+         default:
+            throw new IllegalArgumentException ("Unknown operation: " + op);
+      }//end switch
+      return new BatchRunner.Record (0, op, p);
+   }//end record
+
+   private void report (int durationSeconds, long lagNanos){
+      System.out.println ();
+      System.out.println (String.format (Locale.ROOT, "%-38s %8s %7s %9s %9s %9s %9s %9s %9s",
+            "Operation", "ok", "errors", "ops/s", "mean ms", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+      long total = 0, errors = 0;
+      for (Map.Entry<String, LatencyHistogram> e : new TreeMap<String, LatencyHistogram> (this._latencies).entrySet ()){
+         LatencyHistogram h = e.getValue ();
+         int failed = this._errors.get (e.getKey ()).get ();
+         print (e.getKey (), h, failed, durationSeconds);
+         total += h.count ();
+         errors += failed;
+      }//end for
+      System.out.println (String.format (Locale.ROOT, "%-38s %8d %7d %9.1f",
+            "total", total, errors, (double) total / durationSeconds));
+      if (lagNanos > 1000000000L)
+         System.out.println (String.format (Locale.ROOT,
+               "The database fell behind the target rate: the last operations finished %.1f s late", lagNanos / 1e9));
+      for (Map.Entry<String, String> e : new TreeMap<String, String> (this._firstError).entrySet ())
+         System.err.println ("First error of " + e.getKey () + ": " + e.getValue ());
+   }//end report
+
+   private static void print (String op, LatencyHistogram h, int errors, int durationSeconds){
+      System.out.println (String.format (Locale.ROOT, "%-38s %8d %7d %9.1f %9.3f %9.3f %9.3f %9.3f %9.3f",
+            op, h.count (), errors, (double) h.count () / durationSeconds, h.mean () / 1e6,
+            h.percentile (0.50) / 1e6, h.percentile (0.99) / 1e6, h.percentile (0.999) / 1e6, h.max () / 1e6));
+   }//end print
+
+}//end WorkloadBench
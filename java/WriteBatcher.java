@@ -0,0 +1,437 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Write-behind batching of the inserts of the write operations.
+ *
+ * Rows are queued per statement and written by a thread of the batcher once
+ * dbproject.batcher.rows of them are waiting (500 by default) or the oldest
+ * has waited dbproject.batcher.delay milliseconds (20), whichever comes
+ * first.  Everything waiting is written in one transaction, one multi-row
+ * INSERT per run of rows of the same statement in the queue and per
+ * batcher.rows rows: a round trip per batch instead of per row, and a
+ * single commit to flush to the WAL.  The driver
+ * bundled with the project sends the statements of a JDBC batch one at a
+ * time, hence the multi-row statements.
+ *
+ * Every queued row gets a ticket, a future that completes once the row is
+ * committed or fails with the error of the row.  When a batch fails it is
+ * rolled back and its rows are written again one at a time, in the order
+ * they were queued, so that a bad row only fails its own ticket.  The
+ * statements run in the order of the queue, each after the rows queued
+ * before its own, so a row is written after the rows it references.  A
+ * checked statement is a query returning whether each of its rows was
+ * written: a row it refuses fails its own ticket while the rest of the
+ * batch commits.
+ *
+ * Callers are held back once four batches of rows are waiting.
+ *
+ */
+public class WriteBatcher implements Runnable {
+
+   /**
+    * Turns what a checked statement returns for a row into the error of the
+    * row.
+    */
+   interface Check {
+      /**
+       * @param params the values of the row
+       * @param status the second column returned for the row
+       * @return the error of the row, or null when it was written
+       */
+      SQLException error (Object[] params, String status);
+   }//end Check
+
+   /**
+    * An INSERT statement that writes any number of rows: the rows are
+    * written between the head and the tail, one copy of the row template
+    * each, e.g. "INSERT INTO Room (hotelID, roomNo, roomType) VALUES " +
+    * "(?, ?, ?), (?, ?, ?)" + ";".
+    */
+   static final class Insert {
+      final String op;
+      final String head;
+      final String row;
+      final String tail;
+      // the statement writing a single row.
+      final String one;
+      // null for an INSERT, else the check of the rows of a query.
+      final Check check;
+
+      Insert (String op, String head, String row, String tail){
+         this (op, head, row, tail, null);
+      }//end Insert
+
+      /**
+       * A checked statement: a query returning one row per row written,
+       * e.g. "SELECT n, f(a, b) FROM (VALUES " + "(?, ?, ?)" + ") V(n, a,
+       * b);".  The first value of every row template is the position of the
+       * row in the statement, bound by the batcher before the values of the
+       * row, and comes back in the first column; the check turns the second
+       * one into the error of the row.
+       */
+      Insert (String op, String head, String row, String tail, Check check){
+         this.op = op;
+         this.head = head;
+         this.row = row;
+         this.tail = tail;
+         this.one = sql (1);
+         this.check = check;
+      }//end Insert
+
+      /**
+       * @return the statement writing the given number of rows
+       */
+      String sql (int rows){
+         StringBuilder sql = new StringBuilder (this.head.length () + rows * (this.row.length () + 2) + this.tail.length ());
+         sql.append (this.head);
+         for (int i = 0; i < rows; ++i){
+            if (i > 0)
+               sql.append (", ");
+            sql.append (this.row);
+         }//end for
+         return sql.append (this.tail).toString ();
+      }//end sql
+   }//end Insert
+
+   // the future of a queued row, completed by the batcher.
+   private static final class Ticket extends FutureTask<Void> {
+      Ticket (){
+         super (NOTHING, null);
+      }//end Ticket
+
+      void committed (){
+         set (null);
+      }//end committed
+
+      void failed (Throwable t){
+         setException (t);
+      }//end failed
+   }//end Ticket
+
+   private static final Runnable NOTHING = new Runnable (){
+      public void run (){
+      }
+   };
+
+   private static final class Row {
+      final Insert insert;
+      final Object[] params;
+      final Runnable onCommit;
+      final Ticket ticket = new Ticket ();
+      // the error a checked statement returned for the row.
+      SQLException refused;
+
+      Row (Insert insert, Object[] params, Runnable onCommit){
+         this.insert = insert;
+         this.params = params;
+         this.onCommit = onCommit;
+      }//end Row
+   }//end Row
+
+   private final DBProject _esql;
+   private final int _maxRows;
+   private final long _delay;
+   private final Thread _thread;
+
+   // rows waiting to be written, in the order they were queued.
+   private List<Row> _pending = new ArrayList<Row> ();
+   // when the oldest waiting row was queued.
+   private long _oldest = 0;
+   // rows queued and rows written (or failed) so far, see flush().
+   private long _queued = 0;
+   private long _written = 0;
+   // whether flush() asked for the waiting rows to be written now.
+   private boolean _urgent = false;
+   private boolean _closed = false;
+
+   /**
+    * @param esql the database to write to
+    * @param maxRows the number of waiting rows that triggers a batch, and
+    *        the most rows a single statement writes
+    * @param delay how long a row may wait for a batch, in milliseconds
+    */
+   public WriteBatcher (DBProject esql, int maxRows, long delay){
+      this._esql = esql;
+      this._maxRows = Math.max (1, maxRows);
+      this._delay = Math.max (0L, delay);
+      this._thread = new Thread (this, "WriteBatcher");
+      this._thread.setDaemon (true);
+      this._thread.start ();
+   }//end WriteBatcher
+
+   /**
+    * @return the database written to
+    */
+   public DBProject esql (){
+      return this._esql;
+   }//end esql
+
+   /**
+    * Queues a row.
+    *
+    * @param insert the statement writing the row
+    * @param onCommit run once the row is committed, or null
+    * @param params the values of the row template
+    * @return the ticket of the row, see get()
+    * @throws java.sql.SQLException when the batcher is closed or the wait
+    *         for room in the queue was interrupted
+    */
+   Future<Void> add (Insert insert, Runnable onCommit, Object... params) throws SQLException {
+      Row row = new Row (insert, params, onCommit);
+      synchronized (this){
+         try{
+            while (!this._closed && this._pending.size () >= 4 * this._maxRows)
+               wait ();
+         }catch (InterruptedException e){
+            Thread.currentThread ().interrupt ();
+            throw new SQLException ("Interrupted while waiting to queue a row");
+         }//end try
+         if (this._closed)
+            throw new SQLException ("The write batcher is closed");
+         if (this._pending.isEmpty ())
+            this._oldest = System.currentTimeMillis ();
+         this._pending.add (row);
+         ++this._queued;
+         notifyAll ();
+      }//end synchronized
+      return row.ticket;
+   }//end add
+
+   /**
+    * Writes the rows queued so far without waiting for the delay, and waits
+    * until they are written or failed.
+    *
+    * @throws java.sql.SQLException when the wait was interrupted
+    */
+   public void flush () throws SQLException {
+      synchronized (this){
+         long queued = this._queued;
+         this._urgent = true;
+         notifyAll ();
+         try{
+            while (this._written < queued)
+               wait ();
+         }catch (InterruptedException e){
+            Thread.currentThread ().interrupt ();
+            throw new SQLException ("Interrupted while waiting for the rows to be written");
+         }//end try
+      }//end synchronized
+   }//end flush
+
+   /**
+    * Writes the rows still waiting and stops the batcher.
+    */
+   public void close (){
+      synchronized (this){
+         this._closed = true;
+         notifyAll ();
+      }//end synchronized
+      try{
+         this._thread.join ();
+      }catch (InterruptedException e){
+         Thread.currentThread ().interrupt ();
+      }//end try
+   }//end close
+
+   /**
+    * Waits for a queued row.
+    *
+    * @param ticket the ticket returned when the row was queued
+    * @throws java.sql.SQLException when the row could not be written or the
+    *         wait was interrupted
+    */
+   public static void get (Future<Void> ticket) throws SQLException {
+      try{
+         ticket.get ();
+      }catch (InterruptedException e){
+         Thread.currentThread ().interrupt ();
+         throw new SQLException ("Interrupted while waiting for a row to be written");
+      }catch (ExecutionException e){
+         if (e.getCause () instanceof SQLException)
+            throw (SQLException) e.getCause ();
+         throw new SQLException (String.valueOf (e.getCause ()), e.getCause ());
+      }//end try
+   }//end get
+
+   /**
+    * Writes batches until closed.
+    */
+   public void run (){
+      while (true){
+         List<Row> rows;
+         synchronized (this){
+            while (!due ()){
+               if (this._pending.isEmpty () && this._closed)
+                  return;
+               long wait = this._pending.isEmpty () ? 0 : this._oldest + this._delay - System.currentTimeMillis ();
+               try{
+                  wait (Math.max (0L, wait));
+               }catch (InterruptedException e){
+                  // only close() stops the batcher.
+               }//end try
+            }//end while
+            rows = this._pending;
+            this._pending = new ArrayList<Row> ();
+            this._urgent = false;
+            notifyAll ();
+         }//end synchronized
+
+         Throwable failure = null;
+         try{
+            write (rows);
+         }catch (Throwable t){
+            failure = t;
+            this._esql.rollback ();
+            for (Row r : rows)
+               if (!r.ticket.isDone ())
+                  r.ticket.failed (t);
+         }//end try
+
+         synchronized (this){
+            this._written += rows.size ();
+            if (failure instanceof Error){
+               // the batcher stops: the rows waiting fail and new ones are
+               // refused, rather than leaving their callers waiting.
+               this._closed = true;
+               for (Row r : this._pending)
+                  r.ticket.failed (failure);
+               this._written += this._pending.size ();
+               this._pending = new ArrayList<Row> ();
+            }//end if
+            notifyAll ();
+         }//end synchronized
+         if (failure instanceof Error)
+            throw (Error) failure;
+      }//end while
+   }//end run
+
+   /*
+    * Whether the waiting rows are to be written now.
+    */
+   private boolean due (){
+      if (this._pending.isEmpty ())
+         return false;
+      return this._closed || this._urgent || this._pending.size () >= this._maxRows
+         || System.currentTimeMillis () >= this._oldest + this._delay;
+   }//end due
+
+   /*
+    * Writes a batch in one transaction, or its rows one at a time when that
+    * fails.
+    */
+   private void write (List<Row> rows){
+      try{
+         this._esql.begin ();
+         // one statement per run of rows of the same statement, at most
+         // batcher.rows long.
+         int first = 0;
+         for (int i = 1; i <= rows.size (); ++i){
+            if (i < rows.size () && i - first < this._maxRows && rows.get (i).insert == rows.get (first).insert)
+               continue;
+            insert (rows.get (first).insert, rows.subList (first, i));
+            first = i;
+         }//end for
+         this._esql.commit ();
+      }catch (SQLException e){
+         this._esql.rollback ();
+         for (Row r : rows){
+            r.refused = null;
+            try{
+               insert (r.insert, Collections.singletonList (r));
+            }catch (SQLException rowError){
+               r.ticket.failed (rowError);
+               continue;
+            }//end try
+            committed (r);
+         }//end for
+         return;
+      }//end try
+      for (Row r : rows)
+         committed (r);
+   }//end write
+
+   /*
+    * Writes rows of the same statement with a single statement.
+    */
+   private void insert (Insert insert, List<Row> rows) throws SQLException {
+      if (insert.check != null){
+         check (insert, rows);
+         return;
+      }//end if
+      if (rows.size () == 1){
+         // as the operation itself would.
+         this._esql.executeUpdate (insert.op, insert.one, rows.get (0).params);
+         return;
+      }//end if
+      List<Object> params = new ArrayList<Object> ();
+      for (Row r : rows)
+         for (Object p : r.params)
+            params.add (p);
+      // statements are cached per key, and most batches are full: partial
+      // ones share another key rather than replacing the full one.
+      String key = insert.op + (rows.size () == this._maxRows ? ".batch" : ".batch.partial");
+      long start = Metrics.begin ();
+      try{
+         this._esql.executeUpdate (key, insert.sql (rows.size ()), params.toArray ());
+      }finally{
+         Metrics.end (insert.op + ".batch", start);
+      }//end try
+   }//end insert
+
+   /*
+    * Runs a checked statement and keeps the error it returns for each row.
+    */
+   private void check (final Insert insert, final List<Row> rows) throws SQLException {
+      List<Object> params = new ArrayList<Object> ();
+      for (int i = 0; i < rows.size (); ++i){
+         params.add (i);
+         for (Object p : rows.get (i).params)
+            params.add (p);
+      }//end for
+      String key = insert.op + (rows.size () == 1 ? "" : rows.size () == this._maxRows ? ".batch" : ".batch.partial");
+      final boolean[] seen = new boolean[rows.size ()];
+      final int[] count = {0};
+      long start = Metrics.begin ();
+      try{
+         this._esql.fetch (key, insert.sql (rows.size ()), new RowHandler (){
+            public void row (ResultSet rs) throws SQLException {
+               int i = rs.getInt (1);
+               if (i < 0 || i >= rows.size () || seen[i])
+                  throw new SQLException (insert.op + " returned a status for row " + i + " of " + rows.size ());
+               seen[i] = true;
+               ++count[0];
+               Row r = rows.get (i);
+               r.refused = insert.check.error (r.params, rs.getString (2));
+            }
+         }, params.toArray ());
+      }finally{
+         if (rows.size () > 1)
+            Metrics.end (insert.op + ".batch", start);
+      }//end try
+      if (count[0] != rows.size ())
+         throw new SQLException (insert.op + " returned " + count[0] + " statuses for " + rows.size () + " rows");
+   }//end check
+
+   private void committed (Row r){
+      if (r.refused != null){
+         r.ticket.failed (r.refused);
+         return;
+      }//end if
+      try{
+         if (r.onCommit != null)
+            r.onCommit.run ();
+      }catch (RuntimeException e){
+         System.err.println ("Write batcher: " + e);
+      }finally{
+         r.ticket.committed ();
+      }//end try
+   }//end committed
+
+}//end WriteBatcher
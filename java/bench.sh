@@ -0,0 +1,15 @@
+#!/bin/sh
+# Indicate the path of the java compiler to use
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# Export classpath with the postgressql driver
+export CLASSPATH=$CLASSPATH:$PWD/pg73jdbc3.jar
+
+# compile the java program
+javac *.java
+
+#run the micro-benchmarks (no database needed), optionally only those
+#matching a regex given as first argument.  Save a baseline with
+#-Dbench.save=<file> and check against it later with -Dbench.baseline=<file>
+java $BENCH_OPTS DBProjectBench "$@"
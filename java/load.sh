@@ -0,0 +1,16 @@
+#!/bin/sh
+# Indicate the path of the java compiler to use
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# Export classpath with the postgressql driver
+export CLASSPATH=$CLASSPATH:$PWD/pg73jdbc3.jar
+
+# compile the java program
+javac *.java
+
+#rebuild the database from the data folder (no need to copy the csv files
+#to the DB temp folder first)
+#Use your database name, port number and login; add
+#-Ddbproject.partition=year (or month) to partition Booking and Repair by date
+java BulkLoader $USER"_DB" $PGPORT $USER ../data ../sql/create.sql createindex.sql
@@ -0,0 +1,25 @@
+#!/bin/bash
+# Indicate the path of the java compiler to use
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# Export classpath with the postgressql driver
+export CLASSPATH=$CLASSPATH:$PWD/pg73jdbc3.jar
+
+# compile the java program
+javac *.java || exit 1
+
+#start a fresh local instance, create the database and load it from the data
+#folder with create.sql and createindex.sql (skipped with --reuse, to run
+#against the instance that is already up)
+if [ "$1" != "--reuse" ]; then
+   . ../postgresql/startPostgreSQL.sh
+   sleep 2
+   ../postgresql/createPostgreDB.sh
+   java BulkLoader $USER"_DB" $PGPORT $USER ../data ../sql/create.sql createindex.sql || exit 1
+fi
+
+#replay the operation mix and report throughput and latency per operation,
+#e.g. BENCH_OPTS="-Dbench.rate=500 -Dbench.mix=numberOfAvailableRooms=70,bookRoom=20,topKMaintenanceCompany=10"
+#Use your database name, port number and login
+java $BENCH_OPTS WorkloadBench $USER"_DB" $PGPORT $USER
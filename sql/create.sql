@@ -10,6 +10,16 @@ DROP TABLE IF EXISTS Booking CASCADE;
 DROP TABLE IF EXISTS Repair CASCADE;
 DROP TABLE IF EXISTS Request CASCADE;
 DROP TABLE IF EXISTS Assigned CASCADE;
+DROP TABLE IF EXISTS RepairYearlyRollup CASCADE;
+DROP TABLE IF EXISTS ChangeLog CASCADE;
+
+-- The below sql statements drops of the id sequences if they exist
+DROP SEQUENCE IF EXISTS customer_id_seq;
+DROP SEQUENCE IF EXISTS maintenancecompany_id_seq;
+DROP SEQUENCE IF EXISTS booking_id_seq;
+DROP SEQUENCE IF EXISTS repair_id_seq;
+DROP SEQUENCE IF EXISTS request_id_seq;
+DROP SEQUENCE IF EXISTS assigned_id_seq;
 
 -- The below sql statements drops of the enum types if they exits
 DROP TYPE IF EXISTS StaffRole CASCADE;
@@ -82,6 +92,143 @@ CREATE TABLE Assigned( asgID Numeric NOT NULL,
 					   roomNo Numeric NOT NULL DEFAULT 0,
 					   PRIMARY KEY(asgID));
 
+-- The number of repairs of each room per year, kept up to date by every
+-- repair added (see DBProject.addRepair) and rebuilt from Repair after a
+-- bulk load (see RepairRollup.java).
+CREATE TABLE RepairYearlyRollup( hotelID Numeric NOT NULL,
+								 roomNo Numeric NOT NULL,
+								 year integer NOT NULL,
+								 count integer NOT NULL,
+								 PRIMARY KEY(hotelID, roomNo, year));
+
+-- Every change of the rows the clients keep in memory, with the keys of the
+-- row changed (see ChangeListener.java).  origin is the dbproject.origin
+-- setting of the session that made the change, and txid its transaction:
+-- ids are drawn when a row is inserted, not when it commits, so the
+-- clients follow the changes by transaction rather than by id.
+CREATE TABLE ChangeLog( id bigserial NOT NULL,
+						txid bigint NOT NULL DEFAULT txid_current(),
+						tableName Text NOT NULL,
+						operation CHAR(1) NOT NULL,
+						hotelID Numeric,
+						roomNo Numeric,
+						day Date,
+						customerID Numeric,
+						cmpID Numeric,
+						origin Text DEFAULT current_setting('dbproject.origin', true),
+						changedAt timestamp NOT NULL DEFAULT now(),
+						PRIMARY KEY(id));
+CREATE INDEX ChangeLog_txid ON ChangeLog(txid);
+
+-- The below function logs a change of a row of the table named by its
+-- argument, both its old and new keys for an update, and notifies the
+-- clients listening on dbproject_changes with the same keys.  Nothing is
+-- logged while dbproject.bulk is on, e.g. during a bulk load.
+CREATE OR REPLACE FUNCTION log_change() RETURNS trigger AS $$
+DECLARE
+   r record;
+   c ChangeLog%ROWTYPE;
+BEGIN
+   IF current_setting('dbproject.bulk', true) = 'on' THEN
+      RETURN NULL;
+   END IF;
+   FOR i IN 1..2 LOOP
+      IF i = 1 THEN
+         CONTINUE WHEN TG_OP = 'INSERT';
+         r := OLD;
+      ELSE
+         CONTINUE WHEN TG_OP = 'DELETE';
+         r := NEW;
+      END IF;
+      c.tableName := TG_ARGV[0];
+      CASE TG_ARGV[0]
+      WHEN 'booking' THEN
+         c.hotelID := r.hotelID; c.roomNo := r.roomNo; c.day := r.bookingDate; c.customerID := r.customer;
+      WHEN 'repair' THEN
+         c.hotelID := r.hotelID; c.roomNo := r.roomNo; c.day := r.repairDate; c.cmpID := r.mCompany;
+      WHEN 'room' THEN
+         c.hotelID := r.hotelID; c.roomNo := r.roomNo;
+      WHEN 'customer' THEN
+         c.customerID := r.customerID;
+      WHEN 'maintenancecompany' THEN
+         c.cmpID := r.cmpID;
+      END CASE;
+      INSERT INTO ChangeLog(tableName, operation, hotelID, roomNo, day, customerID, cmpID)
+      VALUES (c.tableName, left(TG_OP, 1), c.hotelID, c.roomNo, c.day, c.customerID, c.cmpID)
+      RETURNING id INTO c.id;
+      PERFORM pg_notify('dbproject_changes', format('%s %s %s hotel=%s room=%s day=%s customer=%s company=%s',
+                        c.id, c.tableName, left(TG_OP, 1), c.hotelID, c.roomNo, c.day, c.customerID, c.cmpID));
+   END LOOP;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER bookingChanges AFTER INSERT OR UPDATE OR DELETE ON Booking
+FOR EACH ROW EXECUTE PROCEDURE log_change('booking');
+CREATE TRIGGER repairChanges AFTER INSERT OR UPDATE OR DELETE ON Repair
+FOR EACH ROW EXECUTE PROCEDURE log_change('repair');
+CREATE TRIGGER roomChanges AFTER INSERT OR UPDATE OR DELETE ON Room
+FOR EACH ROW EXECUTE PROCEDURE log_change('room');
+CREATE TRIGGER customerChanges AFTER INSERT OR UPDATE OR DELETE ON Customer
+FOR EACH ROW EXECUTE PROCEDURE log_change('customer');
+CREATE TRIGGER maintenanceCompanyChanges AFTER INSERT OR UPDATE OR DELETE ON MaintenanceCompany
+FOR EACH ROW EXECUTE PROCEDURE log_change('maintenancecompany');
+
+-- The below functions check and write a booking or a repair request in a
+-- single call, i.e. a single round trip (see DBProject.bookRoom() and
+-- repairRequest()).  They return 'ok', or why nothing was written.
+CREATE OR REPLACE FUNCTION book_room(booking_id numeric, customer_id numeric, hotel_id numeric,
+                                     room_no numeric, booking_date date, people numeric, amount numeric)
+RETURNS text AS $$
+BEGIN
+   IF NOT EXISTS (SELECT * FROM Customer C WHERE C.customerID = customer_id) THEN
+      RETURN 'unknown customer';
+   END IF;
+   IF NOT EXISTS (SELECT * FROM Room R WHERE R.hotelID = hotel_id AND R.roomNo = room_no) THEN
+      RETURN 'unknown room';
+   END IF;
+   -- the unique constraint on the night decides between concurrent bookings.
+   INSERT INTO Booking(bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price)
+   VALUES (booking_id, customer_id, hotel_id, room_no, booking_date, people, amount)
+   ON CONFLICT (hotelID, roomNo, bookingDate) DO NOTHING;
+   IF NOT FOUND THEN
+      RETURN 'booked';
+   END IF;
+   RETURN 'ok';
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION raise_repair_request(request_id numeric, manager_id numeric, repair_id numeric,
+                                                request_date date, details text)
+RETURNS text AS $$
+BEGIN
+   IF NOT EXISTS (SELECT * FROM Staff S WHERE S.SSN = manager_id) THEN
+      RETURN 'unknown manager';
+   END IF;
+   IF NOT EXISTS (SELECT * FROM Staff S WHERE S.SSN = manager_id AND S.role = 'Manager') THEN
+      RETURN 'not a manager';
+   END IF;
+   -- Repair has no unique rID to reference once partitioned (see
+   -- partition.sql): this check is all there is then.
+   IF NOT EXISTS (SELECT * FROM Repair R WHERE R.rID = repair_id) THEN
+      RETURN 'unknown repair';
+   END IF;
+   INSERT INTO Request(reqID, managerID, repairID, requestDate, description)
+   VALUES (request_id, manager_id, repair_id, request_date, details);
+   RETURN 'ok';
+END;
+$$ LANGUAGE plpgsql;
+
+-- The below sql statements create the sequences new primary keys are drawn
+-- from.  Each nextval() reserves a block of 100 ids for one client, which
+-- hands them out without a round trip (see IdAllocator.java).
+CREATE SEQUENCE customer_id_seq INCREMENT BY 100;
+CREATE SEQUENCE maintenancecompany_id_seq INCREMENT BY 100;
+CREATE SEQUENCE booking_id_seq INCREMENT BY 100;
+CREATE SEQUENCE repair_id_seq INCREMENT BY 100;
+CREATE SEQUENCE request_id_seq INCREMENT BY 100;
+CREATE SEQUENCE assigned_id_seq INCREMENT BY 100;
+
 -- The below sql statments creates necessary Foreign Key Constraints on the above created tables
 ALTER TABLE Hotel
 ADD CONSTRAINT managerConstraint
@@ -114,6 +261,11 @@ FOREIGN KEY(hotelID, roomNo)
 REFERENCES Room(hotelID, roomNo)
 ON DELETE SET DEFAULT;	
 
+-- a room can only be booked once per day
+ALTER TABLE Booking
+ADD CONSTRAINT bookingNightConstraint
+UNIQUE(hotelID, roomNo, bookingDate);
+
 ALTER TABLE Repair
 ADD CONSTRAINT repairMcmpConstraint
 FOREIGN KEY(mCompany)
@@ -149,7 +301,8 @@ ADD CONSTRAINT assgndRoomConstraint
 FOREIGN KEY(hotelID, roomNo)
 REFERENCES Room(hotelID, roomNo)
 ON DELETE SET DEFAULT; 
--- data copy				 
+-- data copy, without logging the rows
+SET dbproject.bulk = on;
 COPY Hotel(	hotelID,			 
 			address,	   
             manager)
@@ -228,4 +381,19 @@ COPY Assigned(asgID,
 			  hotelID,
 			  roomNo)
 FROM 'assigned.csv'
-WITH DELIMITER ',';		
+WITH DELIMITER ',';
+
+-- count the loaded repairs
+INSERT INTO RepairYearlyRollup(hotelID, roomNo, year, count)
+SELECT hotelID, roomNo, CAST(EXTRACT(YEAR FROM repairDate) AS integer), COUNT(*)
+FROM Repair GROUP BY 1, 2, 3;
+
+RESET dbproject.bulk;
+
+-- move the id sequences past the loaded keys
+SELECT setval('customer_id_seq', COALESCE(MAX(customerID), 0) + 1, false) FROM Customer;
+SELECT setval('maintenancecompany_id_seq', COALESCE(MAX(cmpID), 0) + 1, false) FROM MaintenanceCompany;
+SELECT setval('booking_id_seq', COALESCE(MAX(bID), 0) + 1, false) FROM Booking;
+SELECT setval('repair_id_seq', COALESCE(MAX(rID), 0) + 1, false) FROM Repair;
+SELECT setval('request_id_seq', COALESCE(MAX(reqID), 0) + 1, false) FROM Request;
+SELECT setval('assigned_id_seq', COALESCE(MAX(asgID), 0) + 1, false) FROM Assigned;
@@ -0,0 +1,157 @@
+-- Turns Booking and Repair into tables range partitioned by bookingDate and
+-- repairDate, so that the date range operations only scan the partitions of
+-- the dates they ask for.  Run it after create.sql, on empty or loaded
+-- tables (their rows are moved into the partitions), then run
+-- createindex.sql again.  BulkLoader runs it when -Ddbproject.partition is
+-- set.  Needs PostgreSQL 11.
+--
+-- The partitions cover a year each, or a month each when the setting
+-- dbproject.partition is 'month', e.g.
+--    PGOPTIONS='-c dbproject.partition=month' psql -f partition.sql
+-- They are created from 2000 until the end of next year; run
+-- "java Partitions" regularly to create the later ones ahead of time (see
+-- Partitions.java).
+--
+-- A primary or unique key of a partitioned table has to include the
+-- partition key, so the primary keys become (bID, bookingDate) and
+-- (rID, repairDate), and Request.repairID can no longer reference Repair.
+
+-- The below function creates the partitions of a table missing until a
+-- date, named <table>_y<yyyy> or <table>_m<yyyymm>.  The step is the one of
+-- the existing partitions, and the first partition starts at since.
+CREATE OR REPLACE FUNCTION ensure_partitions(parent regclass, upto date,
+                                             step text DEFAULT NULL,
+                                             since date DEFAULT DATE '2000-01-01')
+RETURNS integer AS $$
+DECLARE
+   base text;
+   last text;
+   used text;
+   first date;
+   bound date;
+   created integer := 0;
+BEGIN
+   SELECT c.relname INTO base FROM pg_class c WHERE c.oid = parent;
+   SELECT max(c.relname) INTO last FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+   WHERE i.inhparent = parent AND c.relname ~ ('^' || base || '_[ym][0-9]+$');
+
+   IF last IS NOT NULL THEN
+      used := CASE substr(last, length(base) + 2, 1) WHEN 'm' THEN 'month' ELSE 'year' END;
+      IF step IS NOT NULL AND step <> used THEN
+         RAISE EXCEPTION '% is partitioned by %, not by %', base, used, step;
+      END IF;
+      step := used;
+      IF step = 'month' THEN
+         first := to_date(right(last, 6), 'YYYYMM') + interval '1 month';
+      ELSE
+         first := to_date(right(last, 4), 'YYYY') + interval '1 year';
+      END IF;
+   ELSE
+      step := COALESCE(step, 'year');
+      IF step NOT IN ('year', 'month') THEN
+         RAISE EXCEPTION 'Partitions cover a year or a month, not a %', step;
+      END IF;
+      first := date_trunc(step, since);
+   END IF;
+
+   WHILE first <= upto LOOP
+      bound := first + ('1 ' || step)::interval;
+      EXECUTE format('CREATE TABLE %I PARTITION OF %s FOR VALUES FROM (%L) TO (%L)',
+                     base || CASE step WHEN 'month' THEN to_char(first, '"_m"YYYYMM') ELSE to_char(first, '"_y"YYYY') END,
+                     parent, first, bound);
+      created := created + 1;
+      first := bound;
+   END LOOP;
+   RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- The below statements set the rows of both tables aside and recreate them
+-- partitioned.
+CREATE TEMP TABLE booking_rows AS SELECT * FROM Booking;
+CREATE TEMP TABLE repair_rows AS SELECT * FROM Repair;
+
+DROP TABLE IF EXISTS Booking CASCADE;
+DROP TABLE IF EXISTS Repair CASCADE;
+
+CREATE TABLE Booking( bID Numeric NOT NULL,
+					  customer Numeric NOT NULL DEFAULT 0,
+					  hotelID Numeric NOT NULL DEFAULT 0,
+					  roomNo Numeric NOT NULL DEFAULT 0,
+					  bookingDate Date NOT NULL,
+					  noOfPeople Numeric,
+					  price Numeric(6,2) NOT NULL)
+PARTITION BY RANGE (bookingDate);
+
+CREATE TABLE Repair( rID Numeric NOT NULL,
+					 hotelID Numeric NOT NULL DEFAULT 0,
+					 roomNo Numeric NOT NULL DEFAULT 0,
+					 mCompany Numeric NOT NULL DEFAULT 0,
+					 repairDate Date NOT NULL,
+					 description TEXT,
+					 repairType CHAR(10))
+PARTITION BY RANGE (repairDate);
+
+-- partitions from 2000 (or the first row) until the end of next year (or
+-- the last row).
+DO $$
+DECLARE
+   step text := COALESCE(NULLIF(current_setting('dbproject.partition', true), ''), 'year');
+   upto date := (date_trunc('year', current_date) + interval '2 years' - interval '1 day')::date;
+BEGIN
+   PERFORM ensure_partitions('Booking', GREATEST(upto, (SELECT max(bookingDate) FROM booking_rows)), step,
+                             LEAST(DATE '2000-01-01', (SELECT min(bookingDate) FROM booking_rows)));
+   PERFORM ensure_partitions('Repair', GREATEST(upto, (SELECT max(repairDate) FROM repair_rows)), step,
+                             LEAST(DATE '2000-01-01', (SELECT min(repairDate) FROM repair_rows)));
+END;
+$$;
+
+INSERT INTO Booking SELECT * FROM booking_rows;
+INSERT INTO Repair SELECT * FROM repair_rows;
+DROP TABLE booking_rows;
+DROP TABLE repair_rows;
+
+-- log the changes of both tables again (see create.sql).
+CREATE TRIGGER bookingChanges AFTER INSERT OR UPDATE OR DELETE ON Booking
+FOR EACH ROW EXECUTE PROCEDURE log_change('booking');
+CREATE TRIGGER repairChanges AFTER INSERT OR UPDATE OR DELETE ON Repair
+FOR EACH ROW EXECUTE PROCEDURE log_change('repair');
+
+-- The below sql statments recreate the keys and constraints of create.sql,
+-- with the partition key added to the primary keys.
+ALTER TABLE Booking
+ADD CONSTRAINT booking_pkey
+PRIMARY KEY(bID, bookingDate);
+
+ALTER TABLE Repair
+ADD CONSTRAINT repair_pkey
+PRIMARY KEY(rID, repairDate);
+
+ALTER TABLE Booking
+ADD CONSTRAINT bookingCustomerConstraint
+FOREIGN KEY(customer)
+REFERENCES Customer(customerID)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Booking
+ADD CONSTRAINT bookingRoomConstraint
+FOREIGN KEY(hotelID, roomNo)
+REFERENCES Room(hotelID, roomNo)
+ON DELETE SET DEFAULT;
+
+-- a room can only be booked once per day
+ALTER TABLE Booking
+ADD CONSTRAINT bookingNightConstraint
+UNIQUE(hotelID, roomNo, bookingDate);
+
+ALTER TABLE Repair
+ADD CONSTRAINT repairMcmpConstraint
+FOREIGN KEY(mCompany)
+REFERENCES MaintenanceCompany(cmpID)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Repair
+ADD CONSTRAINT repairRoomConstraint
+FOREIGN KEY(hotelID, roomNo)
+REFERENCES Room(hotelID, roomNo)
+ON DELETE SET DEFAULT;